@@ -0,0 +1,218 @@
+package crux.bphc.cms.app;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import crux.bphc.cms.models.UserAccount;
+import crux.bphc.cms.models.core.CourseStoragePolicy;
+import crux.bphc.cms.models.core.DownloadTask;
+import crux.bphc.cms.models.core.DownloadedFile;
+import crux.bphc.cms.models.core.StoredFile;
+import crux.bphc.cms.models.core.SyncCheckpoint;
+import crux.bphc.cms.models.course.Course;
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.CourseStats;
+import crux.bphc.cms.models.course.CourseSyncState;
+import crux.bphc.cms.models.course.Module;
+import crux.bphc.cms.models.forum.Discussion;
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.Realm;
+import io.realm.RealmConfiguration;
+import io.realm.RealmObjectSchema;
+import io.realm.RealmSchema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds Realm files with the schemas of older versions by hand, and checks
+ * that {@link RealmMigrations} upgrades them to exactly the schema of the
+ * current models, keeping the stored data. Opening a typed Realm fails with a
+ * {@link io.realm.exceptions.RealmMigrationNeededException} if the migrated
+ * schema differs from the models in any way.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RealmMigrationsTest {
+    private static final String REALM_NAME = "migration-test.realm";
+
+    private static final String SUMMARY = "<p>See <a href=\"https://cms.bits-hyderabad.ac.in/a.pdf\">the handout</a></p>";
+
+    private RealmConfiguration config;
+
+    @Before
+    public void setUp() {
+        config = new RealmConfiguration.Builder()
+                .name(REALM_NAME)
+                .schemaVersion(RealmMigrations.SCHEMA_VERSION)
+                .migration(new RealmMigrations())
+                .build();
+        Realm.deleteRealm(config);
+    }
+
+    @After
+    public void tearDown() {
+        Realm.deleteRealm(config);
+    }
+
+    @Test
+    public void migrate_fromVersion0() {
+        DynamicRealm realm = openDynamic(0);
+        realm.beginTransaction();
+        createVersion0Schema(realm.getSchema());
+        insertCourse(realm, "<b>CS F211</b>", SUMMARY);
+        realm.commitTransaction();
+        realm.close();
+
+        try (Realm migrated = Realm.getInstance(config)) {
+            String token = UserAccount.INSTANCE.getToken();
+            Course course = migrated.where(Course.class).equalTo("id", 1).findFirst();
+            assertNotNull(course);
+            assertEquals("<b>CS F211</b>", course.getShortName());
+            assertEquals("CS F211", course.getPlainShortName());
+
+            CourseSection section = migrated.where(CourseSection.class).equalTo("id", 10).findFirst();
+            assertNotNull(section);
+            assertEquals(SUMMARY, section.getSummary());
+            assertTrue(section.getSummaryWithToken().contains("a.pdf?token=" + token + "\""));
+            assertEquals(1, section.getModules().size());
+            assertEquals(1, section.getModules().first().getContents().size());
+
+            Module module = migrated.where(Module.class).equalTo("id", 100).findFirst();
+            assertNotNull(module);
+            assertEquals("Handout", module.getPlainName());
+            assertEquals(10, module.getCourseSectionId());
+
+            Discussion discussion = migrated.where(Discussion.class).equalTo("id", 1000).findFirst();
+            assertNotNull(discussion);
+            assertEquals("Quiz 1 & 2", discussion.getPlainSubject());
+
+            assertTables(migrated);
+        }
+    }
+
+    private static DynamicRealm openDynamic(long version) {
+        return DynamicRealm.getInstance(new RealmConfiguration.Builder()
+                .name(REALM_NAME)
+                .schemaVersion(version)
+                .build());
+    }
+
+    /**
+     * Every model class has a table, i.e the migration created the classes
+     * added after version 0
+     */
+    private static void assertTables(Realm realm) {
+        assertEquals(0, realm.where(CourseSyncState.class).count());
+        assertEquals(0, realm.where(CourseStats.class).count());
+        assertEquals(0, realm.where(SyncCheckpoint.class).count());
+        assertEquals(0, realm.where(DownloadTask.class).count());
+        assertEquals(0, realm.where(DownloadedFile.class).count());
+        assertEquals(0, realm.where(StoredFile.class).count());
+        assertEquals(0, realm.where(CourseStoragePolicy.class).count());
+    }
+
+    private static void insertCourse(DynamicRealm realm, String shortName, String summary) {
+        DynamicRealmObject course = realm.createObject("Course", 1);
+        course.setString("shortName", shortName);
+        course.setString("fullName", shortName + " Data Structures &amp; Algorithms L1");
+
+        DynamicRealmObject content = realm.createObject("Content");
+        content.setString("fileName", "handout.pdf");
+        content.setString("fileUrl", "https://cms.bits-hyderabad.ac.in/handout.pdf");
+        content.setLong("timeModified", 1690000000L);
+        content.setInt("moduleId", 100);
+
+        DynamicRealmObject module = realm.createObject("Module", 100);
+        module.setString("name", "Handout");
+        module.setString("modName", "resource");
+        module.setInt("courseSectionId", 10);
+        module.getList("contents").add(content);
+
+        DynamicRealmObject section = realm.createObject("CourseSection", 10);
+        section.setString("name", "General");
+        section.setString("summary", summary);
+        section.setInt("courseId", 1);
+        section.getList("modules").add(module);
+
+        DynamicRealmObject discussion = realm.createObject("Discussion", 1000);
+        discussion.setString("subject", "Quiz 1 &amp; 2");
+        discussion.setString("message", "<p>On Friday</p>");
+        discussion.setInt("forumId", 7);
+    }
+
+    /**
+     * The schema shipped before migrations were introduced
+     */
+    private static void createVersion0Schema(RealmSchema schema) {
+        schema.create("Course")
+                .addField("id", int.class, FieldAttribute.PRIMARY_KEY)
+                .addField("isFavorite", boolean.class)
+                .addField("shortName", String.class, FieldAttribute.REQUIRED)
+                .addField("fullName", String.class, FieldAttribute.REQUIRED);
+
+        RealmObjectSchema content = schema.create("Content")
+                .addField("fileName", String.class, FieldAttribute.REQUIRED)
+                .addField("fileUrl", String.class, FieldAttribute.REQUIRED)
+                .addField("fileSize", int.class)
+                .addField("timeCreated", long.class)
+                .addField("timeModified", long.class)
+                .addField("moduleId", int.class);
+
+        RealmObjectSchema module = schema.create("Module")
+                .addField("id", int.class, FieldAttribute.PRIMARY_KEY)
+                .addField("instance", int.class)
+                .addField("url", String.class, FieldAttribute.REQUIRED)
+                .addField("modIcon", String.class, FieldAttribute.REQUIRED)
+                .addField("modName", String.class, FieldAttribute.REQUIRED)
+                .addRealmListField("contents", content)
+                .addField("courseSectionId", int.class)
+                .addField("isUnread", boolean.class)
+                .addField("name", String.class, FieldAttribute.REQUIRED)
+                .addField("description", String.class, FieldAttribute.REQUIRED);
+
+        schema.create("CourseSection")
+                .addField("id", int.class, FieldAttribute.PRIMARY_KEY)
+                .addField("sectionNum", int.class)
+                .addRealmListField("modules", module)
+                .addField("courseId", int.class)
+                .addField("name", String.class, FieldAttribute.REQUIRED)
+                .addField("summary", String.class, FieldAttribute.REQUIRED);
+
+        RealmObjectSchema attachment = schema.create("Attachment")
+                .addField("fileName", String.class, FieldAttribute.REQUIRED)
+                .addField("mimeType", String.class, FieldAttribute.REQUIRED)
+                .addField("fileUrl", String.class, FieldAttribute.REQUIRED)
+                .addField("fileSize", int.class)
+                .addField("timeModified", long.class);
+
+        schema.create("Discussion")
+                .addField("id", int.class, FieldAttribute.PRIMARY_KEY)
+                .addField("discussionId", int.class)
+                .addField("name", String.class, FieldAttribute.REQUIRED)
+                .addField("timeModified", int.class)
+                .addField("parent", int.class)
+                .addRealmListField("attachments", attachment)
+                .addField("userFullName", String.class, FieldAttribute.REQUIRED)
+                .addField("userPictureUrl", String.class, FieldAttribute.REQUIRED)
+                .addField("isPinned", boolean.class)
+                .addField("forumId", int.class)
+                .addField("subject", String.class, FieldAttribute.REQUIRED)
+                .addField("message", String.class, FieldAttribute.REQUIRED);
+
+        schema.create("Notification")
+                .addField("notificationId", int.class, FieldAttribute.PRIMARY_KEY)
+                .addField("userIdTo", int.class)
+                .addField("subject", String.class, FieldAttribute.REQUIRED)
+                .addField("timeCreated", String.class, FieldAttribute.REQUIRED)
+                .addField("message", String.class, FieldAttribute.REQUIRED)
+                .addField("read", boolean.class)
+                .addField("url", String.class);
+    }
+}
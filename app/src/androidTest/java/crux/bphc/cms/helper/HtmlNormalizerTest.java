@@ -0,0 +1,88 @@
+package crux.bphc.cms.helper;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import crux.bphc.cms.models.course.Module;
+import crux.bphc.cms.utils.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the display variants derived by {@link HtmlNormalizer}, and logs
+ * the cost of binding a module with the variants stored against deriving
+ * them on every bind, as the getters used to. The timings are only logged,
+ * since they vary too much between devices to assert on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HtmlNormalizerTest {
+    private static final String TAG = "HtmlNormalizerTest";
+
+    private static final String TOKEN = "0123456789abcdef";
+    private static final String NAME = "Lecture 1 &amp; 2 <span class=\"accesshide\">File</span>";
+    private static final String DESCRIPTION = "<p>Slides for <a href=\"https://cms.bits-hyderabad.ac.in/pluginfile.php/1/a.pdf\">"
+            + "week 1</a> and <a href=\"https://cms.bits-hyderabad.ac.in/pluginfile.php/1/b.pdf\">week 2</a>.</p>";
+
+    private static final int BINDS = 2000;
+
+    @Test
+    public void normalize_keepsHtml() {
+        Module module = new Module();
+        module.setName(NAME);
+        module.setDescription(DESCRIPTION);
+
+        HtmlNormalizer.normalize(module, TOKEN);
+
+        assertEquals(NAME, module.getName());
+        assertEquals(DESCRIPTION, module.getDescription());
+        assertEquals("Lecture 1 & 2 File", module.getPlainName());
+        assertTrue(module.getDescriptionWithToken().contains("a.pdf?token=" + TOKEN + "\""));
+        assertTrue(module.getDescriptionWithToken().contains("b.pdf?token=" + TOKEN + "\""));
+    }
+
+    @Test
+    public void bind_comparesStoredAndDerivedVariants() {
+        Module module = new Module();
+        module.setName(NAME);
+        module.setDescription(DESCRIPTION);
+        HtmlNormalizer.normalize(module, TOKEN);
+
+        // Warm up both paths before timing them
+        bindDerived(module);
+        bindStored(module);
+
+        long start = System.nanoTime();
+        int derivedLength = bindDerived(module);
+        long derived = (System.nanoTime() - start) / BINDS;
+
+        start = System.nanoTime();
+        int storedLength = bindStored(module);
+        long stored = (System.nanoTime() - start) / BINDS;
+
+        Log.i(TAG, "Per bind: " + derived + " ns deriving, " + stored + " ns stored");
+        assertEquals(derivedLength, storedLength);
+    }
+
+    private static int bindDerived(Module module) {
+        int length = 0;
+        for (int i = 0; i < BINDS; i++) {
+            length += Utils.htmlToPlainText(module.getName()).length();
+            length += Utils.appendTokenToLinks(module.getDescription(), TOKEN).length();
+        }
+        return length;
+    }
+
+    private static int bindStored(Module module) {
+        int length = 0;
+        for (int i = 0; i < BINDS; i++) {
+            length += module.getPlainName().length();
+            length += module.getDescriptionWithToken().length();
+        }
+        return length;
+    }
+}
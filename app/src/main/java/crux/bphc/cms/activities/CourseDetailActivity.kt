@@ -72,7 +72,7 @@ class CourseDetailActivity : AppCompatActivity() {
         }
 
         this.course = localCourse ?: Course(courseId)
-        title = course.shortName
+        title = course.plainShortName
 
         val url = Uri.parse(contextUrl) ?: Uri.EMPTY
         if (Urls.isCourseSectionUrl(url) || Urls.isCourseModuleUrl(url)) {
@@ -120,7 +120,7 @@ class CourseDetailActivity : AppCompatActivity() {
         setCourseContentFragment("")
         supportFragmentManager.executePendingTransactions()
         val fragmentTransaction = supportFragmentManager.beginTransaction()
-        val forumFragment: Fragment = ForumFragment.newInstance(course.id, forumId, course.shortName)
+        val forumFragment: Fragment = ForumFragment.newInstance(course.id, forumId, course.plainShortName)
         fragmentTransaction.addToBackStack(null)
             .replace(R.id.course_section_enrol_container, forumFragment, "Announcements")
         fragmentTransaction.commit()
@@ -137,7 +137,7 @@ class CourseDetailActivity : AppCompatActivity() {
             course.id,
             forumId,
             discussionId,
-            course.shortName
+            course.plainShortName
         )
         fragmentTransaction.addToBackStack(null)
             .replace(R.id.course_section_enrol_container, discussionFragment, "Discussion")
@@ -19,13 +19,16 @@ import androidx.work.WorkManager
 import androidx.work.WorkRequest
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import crux.bphc.cms.R
+import crux.bphc.cms.background.CourseSyncWorker
 import crux.bphc.cms.background.MigrateDataWorker
+import crux.bphc.cms.background.StorageWorker
 import crux.bphc.cms.core.PushNotifRegManager
 import crux.bphc.cms.databinding.ActivityMainBinding
 import crux.bphc.cms.fragments.*
 import crux.bphc.cms.helper.CourseDataHandler
 import crux.bphc.cms.models.UserAccount
 import crux.bphc.cms.models.course.Course
+import crux.bphc.cms.network.APIClient
 import crux.bphc.cms.utils.UserUtils
 import io.realm.Realm
 import kotlinx.coroutines.launch
@@ -73,6 +76,10 @@ class MainActivity : AppCompatActivity() {
             return
         }
 
+        // Keeps the courses fresh for the next time the app is opened
+        CourseSyncWorker.schedule(this)
+        StorageWorker.schedule(this)
+
         // Override the splash theme since it sets its own
         // image background
         if (UserAccount.isDarkModeEnabled) {
@@ -126,6 +133,14 @@ class MainActivity : AppCompatActivity() {
         setContentView(binding.root)
     }
 
+    override fun onStart() {
+        super.onStart()
+        if (UserAccount.isLoggedIn) {
+            // Have a connection ready by the time the user refreshes
+            APIClient.warmUpConnection()
+        }
+    }
+
     override fun onBackPressed() {
         super.onBackPressed()
         binding.bottomNav.setOnItemSelectedListener(null) // Remove the listener to prevent an infinite loop
@@ -8,9 +8,7 @@ import androidx.core.view.isVisible
 import androidx.lifecycle.Observer
 import com.google.android.material.snackbar.Snackbar
 import crux.bphc.cms.R
-import crux.bphc.cms.viewmodels.TokenViewModel.Companion.PROGRESS_COURSE_CONTENT
 import crux.bphc.cms.viewmodels.TokenViewModel.Companion.PROGRESS_COURSE_LIST
-import crux.bphc.cms.viewmodels.TokenViewModel.Companion.PROGRESS_SITE_NEWS
 import crux.bphc.cms.databinding.ActivityTokenBinding
 import crux.bphc.cms.models.SingleLiveEvent
 import crux.bphc.cms.models.UserAccount
@@ -66,8 +64,6 @@ class TokenActivity : AppCompatActivity() {
                 loginStatus.isVisible = true
                 loginStatus.text = when (status) {
                     PROGRESS_COURSE_LIST -> "Fetching your course list"
-                    PROGRESS_COURSE_CONTENT -> "Fetching your courses' contents"
-                    PROGRESS_SITE_NEWS -> "Fetching site news"
                     else -> "Fetching your details"
                 }
             }
@@ -19,6 +19,7 @@ class FilesAdapter : RecyclerView.Adapter<FilesAdapter.ViewHolder>() {
 
     lateinit var onRowClickListener: (File) -> Unit
     lateinit var onDeleteClickListener: (File) -> Unit
+    var onRowLongClickListener: ((File) -> Unit)? = null
 
     override fun onAttachedToRecyclerView(recyclerView: RecyclerView) {
         super.onAttachedToRecyclerView(recyclerView)
@@ -41,6 +42,11 @@ class FilesAdapter : RecyclerView.Adapter<FilesAdapter.ViewHolder>() {
 
             deleteImage.setOnClickListener { onDeleteClickListener(download.file) }
             downloadLayout.setOnClickListener { onRowClickListener(download.file) }
+            downloadLayout.setOnLongClickListener {
+                val listener = onRowLongClickListener ?: return@setOnLongClickListener false
+                listener(download.file)
+                true
+            }
         }
     }
 
@@ -78,12 +78,12 @@ class CourseModuleDelegate(
     }
 
     private fun bindNameAndDescription(vh: CourseModuleViewHolder, module: Module) {
-        vh.name.text = module.name
-        if (module.description.isNotEmpty()) {
+        vh.name.text = module.plainName
+        if (module.descriptionWithToken.isNotEmpty()) {
             vh.description.visibility = View.VISIBLE
             vh.nameAndDescriptionDivider.visibility = View.VISIBLE
             vh.description.setFullText(SpannableStringBuilder()
-                    .append(HtmlCompat.fromHtml(module.description, HtmlCompat.FROM_HTML_MODE_COMPACT)))
+                    .append(HtmlCompat.fromHtml(module.descriptionWithToken, HtmlCompat.FROM_HTML_MODE_COMPACT)))
             vh.description.movementMethod = LinkMovementMethod.getInstance()
         } else {
             vh.description.visibility = View.GONE
@@ -37,8 +37,8 @@ class CourseSectionDelegate(activity: Activity) : AdapterDelegate<List<CourseCon
                                   holder: RecyclerView.ViewHolder, payloads: List<Any>) {
         val vh = holder as CourseSectionViewHolder
         val section = items[position] as CourseSection
-        vh.sectionName.text = section.name
-        val summary = Utils.trimWhiteSpace(HtmlCompat.fromHtml(section.summary,
+        vh.sectionName.text = section.plainName
+        val summary = Utils.trimWhiteSpace(HtmlCompat.fromHtml(section.summaryWithToken,
                 HtmlCompat.FROM_HTML_MODE_COMPACT))
         if (summary.isNotEmpty()) {
             vh.sectionDescription.visibility = View.VISIBLE
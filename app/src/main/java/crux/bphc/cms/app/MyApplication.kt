@@ -5,6 +5,9 @@ import android.content.SharedPreferences
 import androidx.preference.PreferenceManager
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
+import crux.bphc.cms.background.StorageWorker
+import crux.bphc.cms.core.DownloadEngine
+import crux.bphc.cms.models.UserAccount
 import io.realm.Realm
 import io.realm.RealmConfiguration
 
@@ -13,7 +16,8 @@ class MyApplication : Application() {
 
     private val realmConfiguration: RealmConfiguration
         get() = RealmConfiguration.Builder()
-            .deleteRealmIfMigrationNeeded()
+            .schemaVersion(RealmMigrations.SCHEMA_VERSION)
+            .migration(RealmMigrations())
             .build()
 
     val loginLaunchData: HashMap<String, String>
@@ -29,6 +33,12 @@ class MyApplication : Application() {
         instance = this
         initRealm()
         sharedPref = PreferenceManager.getDefaultSharedPreferences(this)
+        if (UserAccount.isLoggedIn) {
+            // Continue the downloads that were cut short when the app last stopped
+            DownloadEngine.resumePending()
+        }
+        // Downloads may take the files over their budget
+        DownloadEngine.addCompletionListener { StorageWorker.enqueue(this) }
     }
 
     private fun initRealm() {
@@ -0,0 +1,122 @@
+package crux.bphc.cms.app
+
+import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.utils.Utils
+import io.realm.DynamicRealm
+import io.realm.FieldAttribute
+import io.realm.RealmMigration
+import io.realm.RealmObjectSchema
+
+/**
+ * Migrates the local Realm from older schema versions, so that an app update
+ * doesn't wipe the cached courses. Every change to a Realm model must bump
+ * [SCHEMA_VERSION] and add a step here that upgrades from the previous
+ * version.
+ *
+ * Version history:
+ * - 0: Schema shipped before migrations were introduced, when the Realm was
+ *   deleted whenever the schema changed
+ * - 1: Adds `CourseSyncState`, `CourseStats`, `SyncCheckpoint`,
+ *   `DownloadTask`, `DownloadedFile`, `StoredFile` and `CourseStoragePolicy`,
+ *   indexes on the frequently queried fields, and the plain text and token
+ *   appended variants of HTML formatted fields, next to the HTML
+ */
+class RealmMigrations : RealmMigration {
+
+    override fun migrate(realm: DynamicRealm, oldVersion: Long, newVersion: Long) {
+        val schema = realm.schema
+        var version = oldVersion
+
+        if (version == 0L) {
+            schema.create("CourseSyncState")
+                .addField("courseId", Int::class.java, FieldAttribute.PRIMARY_KEY)
+                .addField("lastSynced", Long::class.java)
+                .addField("lastFullSync", Long::class.java)
+            // Computed on demand until each course is next written to
+            schema.create("CourseStats")
+                .addField("courseId", Int::class.java, FieldAttribute.PRIMARY_KEY)
+                .addField("unreadModules", Int::class.java)
+                .addField("totalFiles", Int::class.java)
+                .addField("downloadedFiles", Int::class.java)
+                .addField("lastSynced", Long::class.java)
+            schema.create("SyncCheckpoint")
+                .addField("key", String::class.java, FieldAttribute.PRIMARY_KEY, FieldAttribute.REQUIRED)
+                .addField("completedAt", Long::class.java)
+            schema.create("DownloadTask")
+                .addField("path", String::class.java, FieldAttribute.PRIMARY_KEY, FieldAttribute.REQUIRED)
+                .addField("url", String::class.java, FieldAttribute.REQUIRED)
+                .addField("priority", Int::class.java)
+                .addField("validator", String::class.java, FieldAttribute.REQUIRED)
+                .addField("createdAt", Long::class.java)
+                .addField("size", Long::class.java)
+                .addField("timeModified", Long::class.java)
+            schema.create("DownloadedFile")
+                .addField("path", String::class.java, FieldAttribute.PRIMARY_KEY, FieldAttribute.REQUIRED)
+                .addField("url", String::class.java, FieldAttribute.REQUIRED, FieldAttribute.INDEXED)
+                .addField("size", Long::class.java)
+                .addField("timeModified", Long::class.java)
+                .addField("checksum", String::class.java, FieldAttribute.REQUIRED, FieldAttribute.INDEXED)
+                .addField("validator", String::class.java, FieldAttribute.REQUIRED)
+                .addField("lastOpened", Long::class.java)
+            schema.create("StoredFile")
+                .addField("checksum", String::class.java, FieldAttribute.PRIMARY_KEY, FieldAttribute.REQUIRED)
+                .addField("path", String::class.java, FieldAttribute.REQUIRED)
+                .addField("size", Long::class.java)
+                .addField("references", Int::class.java)
+            schema.create("CourseStoragePolicy")
+                .addField("courseId", Int::class.java, FieldAttribute.PRIMARY_KEY)
+                .addField("budget", Long::class.java)
+                .addField("isPinned", Boolean::class.java)
+            schema.get("CourseSection")?.addIndexIfMissing("courseId")
+            schema.get("Module")?.addIndexIfMissing("courseSectionId")?.addIndexIfMissing("isUnread")
+            schema.get("Content")?.addIndexIfMissing("moduleId")
+            schema.get("Discussion")?.addIndexIfMissing("forumId")?.addIndexIfMissing("discussionId")
+
+            val token = UserAccount.token
+            schema.get("Course")
+                ?.addField("plainShortName", String::class.java, FieldAttribute.REQUIRED)
+                ?.addField("plainFullName", String::class.java, FieldAttribute.REQUIRED)
+                ?.transform {
+                    it.setString("plainShortName", Utils.htmlToPlainText(it.getString("shortName")))
+                    it.setString("plainFullName", Utils.htmlToPlainText(it.getString("fullName")))
+                }
+            schema.get("CourseSection")
+                ?.addField("plainName", String::class.java, FieldAttribute.REQUIRED)
+                ?.addField("summaryWithToken", String::class.java, FieldAttribute.REQUIRED)
+                ?.transform {
+                    it.setString("plainName", Utils.htmlToPlainText(it.getString("name")))
+                    it.setString("summaryWithToken", Utils.appendTokenToLinks(it.getString("summary"), token))
+                }
+            schema.get("Module")
+                ?.addField("plainName", String::class.java, FieldAttribute.REQUIRED)
+                ?.addField("descriptionWithToken", String::class.java, FieldAttribute.REQUIRED)
+                ?.transform {
+                    it.setString("plainName", Utils.htmlToPlainText(it.getString("name")))
+                    it.setString("descriptionWithToken", Utils.appendTokenToLinks(it.getString("description"), token))
+                }
+            schema.get("Discussion")
+                ?.addField("plainSubject", String::class.java, FieldAttribute.REQUIRED)
+                ?.addField("messageWithToken", String::class.java, FieldAttribute.REQUIRED)
+                ?.transform {
+                    it.setString("plainSubject", Utils.htmlToPlainText(it.getString("subject")))
+                    it.setString("messageWithToken", Utils.appendTokenToLinks(it.getString("message"), token))
+                }
+            version++
+        }
+    }
+
+    private fun RealmObjectSchema.addIndexIfMissing(field: String): RealmObjectSchema {
+        if (!hasIndex(field)) addIndex(field)
+        return this
+    }
+
+    // Realm compares migrations when the same file is opened with multiple
+    // configurations, so all instances must be equal
+    override fun equals(other: Any?): Boolean = other is RealmMigrations
+
+    override fun hashCode(): Int = RealmMigrations::class.java.hashCode()
+
+    companion object {
+        const val SCHEMA_VERSION = 1L
+    }
+}
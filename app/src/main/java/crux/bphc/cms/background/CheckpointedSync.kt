@@ -0,0 +1,79 @@
+package crux.bphc.cms.background
+
+import android.util.Log
+import crux.bphc.cms.models.core.SyncCheckpoint
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs the stages of [InitialSyncWorker] against the checkpoints left by
+ * earlier runs. Courses and forums that were checkpointed are skipped, and
+ * the ones reported as synced are checkpointed through [addCheckpoints].
+ *
+ * @param checkpoints Keys of the [SyncCheckpoint]s stored so far
+ * @param onProgress Called with the number of courses completed so far in
+ *                   the stage, out of the total
+ */
+internal class CheckpointedSync(
+    private val checkpoints: Set<String>,
+    private val addCheckpoints: suspend (List<String>) -> Unit,
+    private val onProgress: suspend (completed: Int, total: Int) -> Unit,
+) {
+
+    /**
+     * Syncs the contents of the courses that weren't checkpointed, in a
+     * single call to [syncCourses]. It is passed the ids to sync, and a
+     * callback to report the ids of courses as they are synced.
+     */
+    @Throws(IOException::class)
+    suspend fun syncCourseContents(
+        courseIds: List<Int>,
+        syncCourses: suspend (List<Int>, suspend (Collection<Int>) -> Unit) -> Unit,
+    ) {
+        val pending = courseIds.filter { SyncCheckpoint.courseKey(it) !in checkpoints }
+        val completed = AtomicInteger(courseIds.size - pending.size)
+        onProgress(completed.get(), courseIds.size)
+        if (pending.isEmpty()) return
+
+        syncCourses(pending) { synced ->
+            addCheckpoints(synced.map { SyncCheckpoint.courseKey(it) })
+            onProgress(completed.addAndGet(synced.size), courseIds.size)
+        }
+    }
+
+    /**
+     * Syncs the forums of each course that weren't checkpointed, one course
+     * at a time in parallel. [forumIdsOf] gives the forums of a course, and
+     * [syncForums] returns the ids of the forums it synced.
+     */
+    suspend fun syncForums(
+        courseIds: List<Int>,
+        forumIdsOf: suspend (Int) -> List<Int>,
+        syncForums: suspend (List<Int>) -> Collection<Int>,
+    ) {
+        val completed = AtomicInteger()
+        onProgress(0, courseIds.size)
+        coroutineScope {
+            courseIds.map { courseId ->
+                async {
+                    try {
+                        val forumIds = forumIdsOf(courseId).filter { SyncCheckpoint.forumKey(it) !in checkpoints }
+                        if (forumIds.isNotEmpty()) {
+                            addCheckpoints(syncForums(forumIds).map { SyncCheckpoint.forumKey(it) })
+                        }
+                    } catch (e: IOException) {
+                        Log.e(TAG, "IOException when syncing the forums of course: $courseId", e)
+                    }
+                    onProgress(completed.incrementAndGet(), courseIds.size)
+                }
+            }.awaitAll()
+        }
+    }
+
+    companion object {
+        private const val TAG = "CheckpointedSync"
+    }
+}
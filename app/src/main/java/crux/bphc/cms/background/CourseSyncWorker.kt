@@ -0,0 +1,168 @@
+package crux.bphc.cms.background
+
+import android.app.NotificationManager
+import android.content.Context
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.Worker
+import androidx.work.WorkerParameters
+import crux.bphc.cms.exceptions.InvalidTokenException
+import crux.bphc.cms.helper.CourseChangeset
+import crux.bphc.cms.helper.CourseDataHandler
+import crux.bphc.cms.helper.CourseRequestHandler
+import crux.bphc.cms.helper.SyncScheduler
+import crux.bphc.cms.helper.createNotificationChannels
+import crux.bphc.cms.helper.pushDiscussionNotif
+import crux.bphc.cms.helper.pushModuleNotif
+import crux.bphc.cms.helper.pushSiteNewsNotif
+import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.models.course.Course
+import crux.bphc.cms.models.course.CourseSection
+import crux.bphc.cms.models.course.Module
+import io.realm.Realm
+import kotlinx.coroutines.runBlocking
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Periodically syncs the user's courses, forums and site news in the
+ * background, so that the app opens on fresh data. New and modified modules,
+ * and new discussions, are posted as notifications.
+ *
+ * The worker runs only on an unmetered network while the device is charging
+ * and idle. Each install is given a random initial delay, so that the syncs
+ * of different devices don't all hit Moodle at the same time.
+ */
+class CourseSyncWorker(private val appContext: Context, workerParams: WorkerParameters) :
+        Worker(appContext, workerParams) {
+
+    override fun doWork(): Result {
+        if (!UserAccount.isLoggedIn) {
+            return Result.success()
+        }
+
+        val realm = Realm.getDefaultInstance() // tie a realm instance to this thread
+        val courseDataHandler = CourseDataHandler(realm)
+        val courseRequestHandler = CourseRequestHandler()
+        return try {
+            courseDataHandler.replaceCourses(courseRequestHandler.fetchCourseListSync())
+            val courses = courseDataHandler.courseList
+
+            val notifManager = appContext.getSystemService(Context.NOTIFICATION_SERVICE)
+                    as NotificationManager
+            createNotificationChannels(appContext, notifManager)
+
+            val updatedCourses = runBlocking { SyncScheduler.syncCourses(courses.map { it.id }) }
+            realm.refresh() // pick up what the scheduler's threads wrote
+            for ((courseId, changeset) in updatedCourses) {
+                val course = courses.firstOrNull { it.id == courseId } ?: continue
+                notifyModules(realm, notifManager, course, changeset)
+            }
+            syncForums(courseDataHandler, notifManager, courses)
+            Result.success()
+        } catch (e: InvalidTokenException) {
+            Log.e(TAG, "Invalid token when syncing in the background", e)
+            Result.failure()
+        } catch (e: IOException) {
+            Log.e(TAG, "IOException when syncing in the background", e)
+            Result.retry()
+        } finally {
+            realm.close() // let's not forget to do this
+        }
+    }
+
+    private fun notifyModules(realm: Realm, notifManager: NotificationManager, course: Course,
+                              changeset: CourseChangeset) {
+        // Everything is new when a course is synced for the first time
+        if (changeset.isInitialSync) return
+
+        for (moduleId in changeset.addedModuleIds + changeset.modifiedModuleIds) {
+            val module = realm.where(Module::class.java).equalTo("id", moduleId).findFirst() ?: continue
+            val section = realm.where(CourseSection::class.java)
+                    .equalTo("id", module.courseSectionId).findFirst() ?: continue
+            // Modules of new sections aren't marked unread, so don't notify them either
+            if (section.id in changeset.addedSectionIds) continue
+            pushModuleNotif(appContext, notifManager, module, section, course)
+        }
+    }
+
+    private fun syncForums(courseDataHandler: CourseDataHandler, notifManager: NotificationManager,
+                           courses: List<Course>) {
+        val forums = mutableMapOf<Int, Pair<Module, Course>>()
+        for (course in courses) {
+            for (section in courseDataHandler.getCourseData(course.id)) {
+                for (module in section.modules) {
+                    if (module.modType == Module.Type.FORUM) {
+                        forums[module.instance] = Pair(module, course)
+                    }
+                }
+            }
+        }
+
+        val forumIds = forums.keys.toMutableList()
+        forumIds.add(SITE_NEWS_FORUM_ID)
+        // A forum that was never fetched before would have all its
+        // discussions reported as new
+        val storedForumIds = forumIds.filter { courseDataHandler.getForumDiscussions(it).isNotEmpty() }.toSet()
+        val forumDiscussions = runBlocking { SyncScheduler.syncForums(forumIds) }
+        for ((forumId, discussions) in forumDiscussions) {
+            if (forumId !in storedForumIds) continue
+
+            for (discussion in discussions.newDiscussions) {
+                if (forumId == SITE_NEWS_FORUM_ID) {
+                    pushSiteNewsNotif(appContext, notifManager, discussion)
+                } else {
+                    val (module, course) = forums[forumId] ?: continue
+                    pushDiscussionNotif(appContext, notifManager, discussion, module, course)
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "CourseSyncWorker"
+        private const val WORK_NAME = "course_sync"
+
+        private const val SITE_NEWS_FORUM_ID = 1
+
+        /**
+         * How often (in hours) the worker runs, and the window (in hours) at
+         * the end of each period within which it may run.
+         */
+        private const val SYNC_INTERVAL = 6L
+        private const val SYNC_FLEX_INTERVAL = 2L
+
+        /**
+         * Schedules the periodic sync, unless it is already scheduled.
+         */
+        @JvmStatic
+        fun schedule(context: Context) {
+            val constraints = Constraints.Builder()
+                    .setRequiredNetworkType(NetworkType.UNMETERED)
+                    .setRequiresCharging(true)
+                    .setRequiresDeviceIdle(true)
+                    .build()
+            val request = PeriodicWorkRequestBuilder<CourseSyncWorker>(
+                    SYNC_INTERVAL, TimeUnit.HOURS, SYNC_FLEX_INTERVAL, TimeUnit.HOURS)
+                    .setConstraints(constraints)
+                    .setInitialDelay(Random.nextLong(TimeUnit.HOURS.toMinutes(SYNC_INTERVAL)),
+                            TimeUnit.MINUTES)
+                    .build()
+            WorkManager.getInstance(context)
+                    .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request)
+        }
+
+        /**
+         * Cancels the periodic sync, e.g when the user logs out.
+         */
+        @JvmStatic
+        fun cancel(context: Context) {
+            WorkManager.getInstance(context).cancelUniqueWork(WORK_NAME)
+        }
+    }
+}
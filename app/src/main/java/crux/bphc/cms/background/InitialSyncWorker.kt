@@ -0,0 +1,145 @@
+package crux.bphc.cms.background
+
+import android.content.Context
+import android.util.Log
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.Data
+import androidx.work.ExistingWorkPolicy
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequest
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import crux.bphc.cms.helper.CourseDataHandler
+import crux.bphc.cms.helper.SyncScheduler
+import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.models.core.SyncCheckpoint
+import crux.bphc.cms.models.course.Module
+import io.realm.Realm
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.IOException
+
+/**
+ * Backfills the contents and forums of every course, and the site news,
+ * right after the user logs in. The course list itself is fetched before
+ * this is enqueued, so that the user isn't kept waiting on the rest.
+ *
+ * The sync runs as a chain of unique work, one worker per [Stage]. Each
+ * course and forum synced is recorded as a [SyncCheckpoint], and skipped if
+ * the stage is run again, so that the sync resumes from where it stopped if
+ * the app is killed. The checkpoints are cleared once the chain finishes.
+ *
+ * The courses that weren't checkpointed are synced in a single call to
+ * [SyncScheduler], which batches them and bounds how many jobs run at a
+ * time, and are checkpointed as each job completes. See [CheckpointedSync].
+ * The number of courses completed so far in the current stage is published
+ * as progress, under [PROGRESS_STAGE], [PROGRESS_COMPLETED] and
+ * [PROGRESS_TOTAL].
+ */
+class InitialSyncWorker(appContext: Context, workerParams: WorkerParameters) :
+        CoroutineWorker(appContext, workerParams) {
+
+    enum class Stage {
+        COURSE_CONTENTS, FORUMS, SITE_NEWS
+    }
+
+    private val stage = Stage.values()[inputData.getInt(INPUT_STAGE, 0)]
+
+    override suspend fun doWork(): Result {
+        if (!UserAccount.isLoggedIn) {
+            return Result.success()
+        }
+
+        val (courseIds, checkpoints) = withContext(Dispatchers.IO) {
+            Realm.getDefaultInstance().use { realm ->
+                val courseDataHandler = CourseDataHandler(realm)
+                Pair(courseDataHandler.courseList.map { it.id }, courseDataHandler.syncCheckpoints)
+            }
+        }
+        val sync = CheckpointedSync(checkpoints, ::addCheckpoints) { completed, total ->
+            setProgress(progressOf(completed, total))
+        }
+        when (stage) {
+            Stage.COURSE_CONTENTS -> {
+                try {
+                    sync.syncCourseContents(courseIds) { ids, onSynced ->
+                        SyncScheduler.syncCourses(ids, onSynced = onSynced)
+                    }
+                } catch (e: IOException) {
+                    Log.e(TAG, "IOException when syncing course contents", e)
+                }
+            }
+            Stage.FORUMS -> sync.syncForums(courseIds, ::getForumIds) { forumIds ->
+                SyncScheduler.syncForums(forumIds).keys
+            }
+            Stage.SITE_NEWS -> {
+                try {
+                    SyncScheduler.syncForums(listOf(SITE_NEWS_FORUM_ID))
+                } catch (e: IOException) {
+                    Log.e(TAG, "IOException when syncing site news", e)
+                }
+                withContext(Dispatchers.IO) {
+                    Realm.getDefaultInstance().use { realm -> CourseDataHandler(realm).clearSyncCheckpoints() }
+                }
+            }
+        }
+        // Courses that failed are picked up by the next refresh
+        return Result.success()
+    }
+
+    private suspend fun getForumIds(courseId: Int): List<Int> = withContext(Dispatchers.IO) {
+        Realm.getDefaultInstance().use { realm ->
+            CourseDataHandler(realm).getCourseData(courseId).flatMap { it.modules }
+                .filter { it.modType == Module.Type.FORUM }.map { it.instance }
+        }
+    }
+
+    private suspend fun addCheckpoints(keys: List<String>) = withContext(Dispatchers.IO) {
+        Realm.getDefaultInstance().use { realm -> CourseDataHandler(realm).addSyncCheckpoints(keys) }
+    }
+
+    private fun progressOf(completed: Int, total: Int): Data {
+        return workDataOf(PROGRESS_STAGE to stage.ordinal, PROGRESS_COMPLETED to completed,
+                PROGRESS_TOTAL to total)
+    }
+
+    companion object {
+        private const val TAG = "InitialSyncWorker"
+        const val WORK_NAME = "initial_sync"
+
+        private const val INPUT_STAGE = "stage"
+
+        const val PROGRESS_STAGE = "stage"
+        const val PROGRESS_COMPLETED = "completed"
+        const val PROGRESS_TOTAL = "total"
+
+        private const val SITE_NEWS_FORUM_ID = 1
+
+        /**
+         * Enqueues the sync's stages, replacing a sync that is already
+         * enqueued. Steps completed by a previous sync are skipped.
+         */
+        @JvmStatic
+        fun enqueue(context: Context) {
+            val requests = Stage.values().map { buildRequest(it) }
+            var continuation = WorkManager.getInstance(context)
+                    .beginUniqueWork(WORK_NAME, ExistingWorkPolicy.REPLACE, requests.first())
+            for (request in requests.drop(1)) {
+                continuation = continuation.then(request)
+            }
+            continuation.enqueue()
+        }
+
+        private fun buildRequest(stage: Stage): OneTimeWorkRequest {
+            return OneTimeWorkRequestBuilder<InitialSyncWorker>()
+                    .setInputData(workDataOf(INPUT_STAGE to stage.ordinal))
+                    .setConstraints(Constraints.Builder()
+                            .setRequiredNetworkType(NetworkType.CONNECTED)
+                            .build())
+                    .build()
+        }
+    }
+}
@@ -25,6 +25,10 @@ class MyFirebaseMessagingService : FirebaseMessagingService() {
         for (d in message.data) {
             Log.d(TAG, "Key: ${d.key ?: ""}, Value: ${d.value ?: ""}")
         }
+
+        // Refresh whatever the notification is about, so it's up to date
+        // by the time the notification is opened
+        PushSyncWorker.enqueue(applicationContext, message.data)
     }
 
     companion object {
@@ -0,0 +1,149 @@
+package crux.bphc.cms.background
+
+import android.app.NotificationManager
+import android.content.Context
+import android.util.Log
+import androidx.core.app.NotificationCompat
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.ForegroundInfo
+import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.OutOfQuotaPolicy
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import com.google.gson.JsonObject
+import crux.bphc.cms.R
+import crux.bphc.cms.exceptions.InvalidTokenException
+import crux.bphc.cms.helper.SyncScheduler
+import crux.bphc.cms.helper.NOTIFICATION_CHANNEL_UPDATES_BUNDLE
+import crux.bphc.cms.helper.createNotificationChannels
+import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.models.course.Course
+import crux.bphc.cms.network.APIClient
+import io.realm.Realm
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.IOException
+
+/**
+ * Refreshes a single course or forum as soon as a push notification about it
+ * arrives, so that its content is fresh by the time the notification is
+ * opened. Use [enqueue] to map the push payload to the course or forum.
+ *
+ * The work is expedited. Where expedited work isn't available, it runs
+ * as a foreground service.
+ */
+class PushSyncWorker(private val appContext: Context, workerParams: WorkerParameters) :
+        CoroutineWorker(appContext, workerParams) {
+
+    override suspend fun doWork(): Result {
+        if (!UserAccount.isLoggedIn) {
+            return Result.success()
+        }
+
+        val courseId = inputData.getInt(KEY_COURSE_ID, 0)
+        val forumId = inputData.getInt(KEY_FORUM_ID, 0)
+        return try {
+            // The push says the course or forum has changed, so it is
+            // synced even if it was synced just before
+            if (forumId != 0) {
+                SyncScheduler.syncForums(listOf(forumId), force = true)
+            } else if (isCourseStored(courseId)) {
+                // Courses the user has just enrolled to are picked up
+                // along with the course list instead
+                SyncScheduler.syncCourses(listOf(courseId), forceFullSync = true)
+            }
+            Result.success()
+        } catch (e: InvalidTokenException) {
+            Log.e(TAG, "Invalid token when syncing on push", e)
+            Result.failure()
+        } catch (e: IOException) {
+            Log.e(TAG, "IOException when syncing on push", e)
+            Result.retry()
+        }
+    }
+
+    private suspend fun isCourseStored(courseId: Int): Boolean {
+        return withContext(Dispatchers.IO) {
+            Realm.getDefaultInstance().use { realm ->
+                realm.where(Course::class.java).equalTo("id", courseId).count() != 0L
+            }
+        }
+    }
+
+    override suspend fun getForegroundInfo(): ForegroundInfo {
+        val notifManager = appContext.getSystemService(Context.NOTIFICATION_SERVICE) as NotificationManager
+        createNotificationChannels(appContext, notifManager)
+        val notification = NotificationCompat.Builder(appContext, NOTIFICATION_CHANNEL_UPDATES_BUNDLE)
+                .setSmallIcon(R.drawable.ic_bits_logo)
+                .setContentTitle(appContext.getString(R.string.push_sync_notif_title))
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .build()
+        return ForegroundInfo(FOREGROUND_NOTIFICATION_ID, notification)
+    }
+
+    companion object {
+        private const val TAG = "PushSyncWorker"
+
+        private const val KEY_COURSE_ID = "course_id"
+        private const val KEY_FORUM_ID = "forum_id"
+
+        private const val FOREGROUND_NOTIFICATION_ID = 0x5c
+
+        /* Keys of the data Moodle sends along with push notifications */
+        private const val PUSH_COURSE_ID = "courseid"
+        private const val PUSH_COMPONENT = "moodlecomponent"
+        private const val PUSH_CUSTOM_DATA = "customdata"
+        private const val CUSTOM_DATA_INSTANCE = "instance"
+        private const val COMPONENT_FORUM = "mod_forum"
+
+        /**
+         * Enqueues a refresh of the forum or course that a push notification
+         * is about. Forum posts carry the forum's instance id in their
+         * custom data, and refresh only that forum. Anything else that
+         * belongs to a course refreshes the course. Payloads that can't be
+         * mapped to either are ignored.
+         *
+         * @param data The data payload of the push notification
+         */
+        @JvmStatic
+        fun enqueue(context: Context, data: Map<String, String>) {
+            val courseId = data[PUSH_COURSE_ID]?.toIntOrNull() ?: 0
+            val forumId = if (data[PUSH_COMPONENT] == COMPONENT_FORUM) parseForumId(data[PUSH_CUSTOM_DATA]) else 0
+            if (forumId <= 0 && courseId <= 1) { // Course 1 is the site itself
+                return
+            }
+
+            val workData = if (forumId > 0) workDataOf(KEY_FORUM_ID to forumId)
+                else workDataOf(KEY_COURSE_ID to courseId)
+            val request = OneTimeWorkRequestBuilder<PushSyncWorker>()
+                    .setInputData(workData)
+                    .setConstraints(Constraints.Builder()
+                            .setRequiredNetworkType(NetworkType.CONNECTED)
+                            .build())
+                    .setExpedited(OutOfQuotaPolicy.RUN_AS_NON_EXPEDITED_WORK_REQUEST)
+                    .build()
+            // Pushes about the same course or forum are run one after the
+            // other, so that none of them is dropped while one is running
+            val workName = if (forumId > 0) "push_sync_forum_$forumId" else "push_sync_course_$courseId"
+            WorkManager.getInstance(context)
+                    .enqueueUniqueWork(workName, ExistingWorkPolicy.APPEND_OR_REPLACE, request)
+        }
+
+        private fun parseForumId(customData: String?): Int {
+            if (customData.isNullOrEmpty()) return 0
+            return try {
+                val json = APIClient.getGson().fromJson(customData, JsonObject::class.java)
+                json?.get(CUSTOM_DATA_INSTANCE)?.asInt ?: 0
+            } catch (e: RuntimeException) {
+                // Either malformed JSON, or the instance wasn't a number
+                Log.w(TAG, "Malformed custom data in push notification", e)
+                0
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package crux.bphc.cms.background
+
+import android.content.Context
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import crux.bphc.cms.core.StorageManager
+import crux.bphc.cms.models.UserAccount
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps downloaded files within the user's storage budgets through
+ * [StorageManager]. Files are evicted a batch at a time, so that the worker
+ * can stop between batches if its constraints are no longer met.
+ *
+ * The worker runs once a day, and shortly after downloads complete or a
+ * budget is changed.
+ */
+class StorageWorker(appContext: Context, workerParams: WorkerParameters) :
+        CoroutineWorker(appContext, workerParams) {
+
+    override suspend fun doWork(): Result {
+        if (!UserAccount.isLoggedIn) {
+            return Result.success()
+        }
+
+        withContext(Dispatchers.IO) {
+            StorageManager.reconcile()
+            do {
+                val evicted = StorageManager.evict(EVICTIONS_PER_BATCH)
+            } while (!isStopped && evicted == EVICTIONS_PER_BATCH)
+        }
+        return Result.success()
+    }
+
+    companion object {
+        private const val WORK_NAME = "storage"
+        private const val PERIODIC_WORK_NAME = "storage_periodic"
+
+        private const val EVICTIONS_PER_BATCH = 20
+
+        /**
+         * How long (in minutes) to wait before running after downloads
+         * complete, so that a course download is handled in one go
+         */
+        private const val DELAY = 1L
+
+        /**
+         * Schedules the daily run, unless it is already scheduled.
+         */
+        @JvmStatic
+        fun schedule(context: Context) {
+            val request = PeriodicWorkRequestBuilder<StorageWorker>(1, TimeUnit.DAYS)
+                    .setConstraints(Constraints.Builder()
+                            .setRequiresBatteryNotLow(true)
+                            .build())
+                    .build()
+            WorkManager.getInstance(context)
+                    .enqueueUniquePeriodicWork(PERIODIC_WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request)
+        }
+
+        /**
+         * Runs the worker shortly, replacing a run that is already enqueued.
+         */
+        @JvmStatic
+        fun enqueue(context: Context) {
+            val request = OneTimeWorkRequestBuilder<StorageWorker>()
+                    .setInitialDelay(DELAY, TimeUnit.MINUTES)
+                    .build()
+            WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.REPLACE, request)
+        }
+
+        /**
+         * Cancels every run, e.g when the user logs out.
+         */
+        @JvmStatic
+        fun cancel(context: Context) {
+            val workManager = WorkManager.getInstance(context)
+            workManager.cancelUniqueWork(WORK_NAME)
+            workManager.cancelUniqueWork(PERIODIC_WORK_NAME)
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package crux.bphc.cms.core
+
+import android.util.Log
+import crux.bphc.cms.app.MyApplication
+import crux.bphc.cms.models.core.DownloadedFile
+import crux.bphc.cms.models.core.StoredFile
+import io.realm.Realm
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * Content addressed store of the files downloaded by [DownloadEngine].
+ *
+ * The same file is often downloaded to more than one place e.g to the
+ * directories of cross-listed sections of a course, or as an attachment to
+ * a forum post. Its contents are kept once per checksum, as a [StoredFile] in
+ * the store's directory. Each place it is downloaded to holds an empty
+ * reference file, so that the course's directory can still be listed and
+ * watched, and is recorded as a [DownloadedFile] with the checksum of the
+ * contents. [resolve] finds the contents of a reference.
+ *
+ * A [StoredFile] counts the references to it. A file that is already stored
+ * for the same URL and modification time is referred to instead of being
+ * downloaded again. Deleting a reference, e.g from the Files screen, drops
+ * one with [onDeleted], and the contents are deleted along with the last.
+ * The counts and the contents are only changed within Realm transactions, so
+ * that they stay in step.
+ */
+object ContentStore {
+    private const val TAG = "ContentStore"
+
+    /**
+     * Name of the store's directory, next to the courses' directories
+     */
+    const val STORE_DIRECTORY_NAME = ".store"
+
+    private const val BUFFER_SIZE = 64 * 1024
+
+    private val storeDir: File
+        get() = File(MyApplication.instance.externalMediaDirs[0], STORE_DIRECTORY_NAME)
+
+    fun getRecord(path: String): DownloadedFile? {
+        return Realm.getDefaultInstance().use { realm ->
+            realm.where(DownloadedFile::class.java).equalTo("path", path).findFirst()
+                    ?.let { realm.copyFromRealm(it) }
+        }
+    }
+
+    /**
+     * Records the reference at the record's path to the stored contents
+     * with its checksum, and places the reference file if it is missing.
+     * Contents it referred to before are released.
+     *
+     * @throws IOException If the contents are no longer stored
+     */
+    @Throws(IOException::class)
+    fun saveRecord(record: DownloadedFile) {
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction { r -> putReference(r, record) }
+        }
+        placeReference(File(record.path))
+    }
+
+    /**
+     * The file holding the contents [file] refers to, or null if it isn't
+     * a reference to stored contents
+     */
+    fun resolve(file: File): File? {
+        return Realm.getDefaultInstance().use { realm ->
+            val checksum = realm.where(DownloadedFile::class.java).equalTo("path", file.absolutePath)
+                    .findFirst()?.checksum ?: return null
+            realm.where(StoredFile::class.java).equalTo("checksum", checksum).findFirst()
+                    ?.let { File(it.path) }
+                    ?.takeIf { it.isFile }
+        }
+    }
+
+    /**
+     * A reference, other than at [excludePath], to stored contents of the
+     * file at [url] as of [timeModified]
+     */
+    fun findByUrl(url: String, timeModified: Long, excludePath: String): DownloadedFile? {
+        if (timeModified <= 0) return null
+        return Realm.getDefaultInstance().use { realm ->
+            val records = realm.where(DownloadedFile::class.java)
+                    .equalTo("url", url)
+                    .equalTo("timeModified", timeModified)
+                    .notEqualTo("path", excludePath)
+                    .notEqualTo("checksum", "")
+                    .findAll()
+            records.firstOrNull { record ->
+                val stored = realm.where(StoredFile::class.java).equalTo("checksum", record.checksum).findFirst()
+                stored != null && File(stored.path).length() == stored.size
+            }?.let { realm.copyFromRealm(it) }
+        }
+    }
+
+    /**
+     * Moves the contents just downloaded to [file] into the store, unless
+     * the same contents are stored already, and records the reference at
+     * the record's path to them.
+     *
+     * @param record The record of the reference, with the checksum and size
+     *               of the contents
+     */
+    @Throws(IOException::class)
+    fun store(file: File, record: DownloadedFile) {
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction { r ->
+                val stored = r.where(StoredFile::class.java).equalTo("checksum", record.checksum).findFirst()
+                if (stored == null || File(stored.path).length() != stored.size) {
+                    // Named after the first reference, so that the file opened or shared has a sensible name
+                    val contents = File(storeDir, record.checksum + File.separator + File(record.path).name)
+                    contents.parentFile?.mkdirs()
+                    if (contents.exists()) contents.delete()
+                    if (!file.renameTo(contents)) {
+                        throw IOException("Failed to move $file to $contents")
+                    }
+                    r.insertOrUpdate(StoredFile(record.checksum, contents.absolutePath, record.size,
+                            stored?.references ?: 0))
+                }
+                putReference(r, record)
+            }
+        }
+        // Left behind if the contents were already stored
+        file.delete()
+        placeReference(File(record.path))
+    }
+
+    /**
+     * Moves the contents of a file that isn't stored yet e.g one downloaded
+     * before the store existed, into the store, and leaves a reference in
+     * its place.
+     *
+     * @return The record of the reference, or null if the file couldn't be
+     *         read or moved
+     */
+    fun adopt(file: File, url: String = "", timeModified: Long = 0): DownloadedFile? {
+        return try {
+            val record = DownloadedFile(file.absolutePath, url, file.length(), timeModified, getChecksum(file),
+                    lastOpened = file.lastModified())
+            store(file, record)
+            record
+        } catch (e: IOException) {
+            Log.e(TAG, "IOException when storing $file", e)
+            null
+        }
+    }
+
+    /**
+     * Drops the records of [file], or of every file under it if it is a
+     * directory, once it has been deleted. Contents left without references
+     * are deleted.
+     */
+    fun onDeleted(file: File) = onDeleted(listOf(file))
+
+    fun onDeleted(files: Collection<File>) {
+        if (files.isEmpty()) return
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction { r ->
+                val query = r.where(DownloadedFile::class.java)
+                for ((i, file) in files.withIndex()) {
+                    if (i > 0) query.or()
+                    val path = file.absolutePath
+                    query.equalTo("path", path).or().beginsWith("path", path + File.separator)
+                }
+                val records = query.findAll()
+                release(r, records.map { it.checksum })
+                records.deleteAllFromRealm()
+            }
+        }
+    }
+
+    /**
+     * Records a reference to the contents with the record's checksum. Must
+     * be called within a transaction.
+     */
+    private fun putReference(r: Realm, record: DownloadedFile) {
+        val previous = r.where(DownloadedFile::class.java).equalTo("path", record.path).findFirst()?.checksum
+        if (previous != record.checksum) {
+            val stored = r.where(StoredFile::class.java).equalTo("checksum", record.checksum).findFirst()
+                    ?: throw IOException("Contents of ${record.path} are no longer stored")
+            stored.references++
+            previous?.let { release(r, listOf(it)) }
+        }
+        r.insertOrUpdate(record)
+    }
+
+    /**
+     * Drops a reference to the contents with each of [checksums], deleting
+     * the contents left without any. Must be called within a transaction.
+     */
+    private fun release(r: Realm, checksums: List<String>) {
+        val distinct = checksums.filter { it.isNotEmpty() }.distinct()
+        if (distinct.isEmpty()) return
+        val stored = r.where(StoredFile::class.java).`in`("checksum", distinct.toTypedArray()).findAll()
+        val remaining = releaseReferences(stored.associate { it.checksum to it.references }, checksums)
+        for (contents in stored.toList()) {
+            val references = remaining[contents.checksum] ?: continue
+            if (references > 0) {
+                contents.references = references
+            } else {
+                val file = File(contents.path)
+                file.delete()
+                file.parentFile?.delete()
+                contents.deleteFromRealm()
+            }
+        }
+    }
+
+    /**
+     * Leaves an empty reference file at [file], in place of anything there
+     */
+    private fun placeReference(file: File) {
+        if (file.isFile && file.length() == 0L) return
+        file.parentFile?.mkdirs()
+        file.delete()
+        if (!file.createNewFile()) {
+            throw IOException("Failed to place a reference at $file")
+        }
+    }
+
+    private fun getChecksum(file: File): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        file.inputStream().use { input ->
+            val buffer = ByteArray(BUFFER_SIZE)
+            while (true) {
+                val count = input.read(buffer)
+                if (count == -1) break
+                digest.update(buffer, 0, count)
+            }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+}
+
+/**
+ * The references left to contents once a reference to each of [released]
+ * is dropped. A checksum appears in [released] once per reference dropped,
+ * e.g once for each copy of a file in a directory being deleted.
+ *
+ * @param references The number of references to the contents with each
+ * checksum
+ * @return The references left to the contents of each checksum released.
+ * Contents left with none may be deleted. Checksums that aren't stored are
+ * left out.
+ */
+internal fun releaseReferences(references: Map<String, Int>, released: Collection<String>): Map<String, Int> {
+    val remaining = HashMap<String, Int>()
+    for (checksum in released) {
+        val count = remaining[checksum] ?: references[checksum] ?: continue
+        remaining[checksum] = (count - 1).coerceAtLeast(0)
+    }
+    return remaining
+}
@@ -0,0 +1,526 @@
+package crux.bphc.cms.core
+
+import android.net.Uri
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import crux.bphc.cms.app.appendOrSetQueryParameter
+import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.models.core.DownloadTask
+import crux.bphc.cms.models.core.DownloadedFile
+import crux.bphc.cms.network.APIClient
+import io.realm.Realm
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import okhttp3.CacheControl
+import okhttp3.Call
+import okhttp3.Request
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.Executors
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Downloads files over the shared OkHttp client, at most [maxParallelism]
+ * at a time.
+ *
+ * Queued downloads run in [Priority] order, so that a file the user tapped
+ * jumps ahead of a bulk course download. Each file is written to a partial
+ * file next to its destination, and moved into [ContentStore] once
+ * complete, leaving a reference at its destination. A download that is cut
+ * short resumes from its partial file with an HTTP `Range` request, as long
+ * as the file hasn't changed on the server since.
+ *
+ * Queued downloads are persisted as [DownloadTask]s until they complete, and
+ * are resumed by [resumePending] the next time the app starts.
+ *
+ * Every downloaded file is recorded as a [DownloadedFile], along with its
+ * size, modification time and checksum. A file that is queued again is
+ * skipped if the stored copy is intact and Moodle reports the same size and
+ * modification time for it. If Moodle's modification time isn't known, the
+ * server is asked with a conditional request instead. A copy that doesn't
+ * match its record e.g a truncated file, is downloaded again. A file already
+ * stored for another destination is referred to without going over the
+ * network.
+ *
+ * The progress of a download is published by [progressOf], and completed
+ * downloads are reported to [CompletionListener]s on the main thread.
+ */
+object DownloadEngine {
+    private const val TAG = "DownloadEngine"
+
+    enum class Priority {
+        USER, BULK
+    }
+
+    /**
+     * Default upper limit on the number of downloads run at a time
+     */
+    const val DEFAULT_MAX_PARALLELISM = 3
+
+    /**
+     * Suffix of the files being downloaded to
+     */
+    const val PARTIAL_SUFFIX = ".part"
+
+    /**
+     * Minimum time (in milliseconds) between progress updates of a download
+     */
+    private const val PROGRESS_INTERVAL = 200L
+
+    private const val BUFFER_SIZE = 64 * 1024
+
+    private val sequence = AtomicLong()
+    private val jobs = ConcurrentHashMap<String, Job>()
+    private val progress = ConcurrentHashMap<String, MutableStateFlow<DownloadProgress>>()
+    private val listeners = CopyOnWriteArraySet<CompletionListener>()
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    private val executor = ThreadPoolExecutor(DEFAULT_MAX_PARALLELISM, DEFAULT_MAX_PARALLELISM,
+            30, TimeUnit.SECONDS, PriorityBlockingQueue()).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Writes [DownloadTask]s off the caller's thread, which is usually the
+     * main thread, in the order they are requested
+     */
+    private val writer = Executors.newSingleThreadExecutor()
+
+    /**
+     * Upper limit on the number of downloads run at a time. Must be at
+     * least 1.
+     */
+    var maxParallelism: Int
+        get() = executor.maximumPoolSize
+        @Synchronized set(value) {
+            require(value >= 1) { "maxParallelism must be at least 1" }
+            // The core size may never exceed the maximum size
+            if (value < executor.corePoolSize) {
+                executor.corePoolSize = value
+                executor.maximumPoolSize = value
+            } else {
+                executor.maximumPoolSize = value
+                executor.corePoolSize = value
+            }
+        }
+
+    /**
+     * Queues the file at [url] for download to [destination]. If the file is
+     * already queued, it is moved up to [priority] if that is higher. The
+     * download is persisted in the background, and starts once it is.
+     *
+     * @param size Size, in bytes, Moodle reports for the file, or -1
+     * @param timeModified The `timemodified` Moodle reports for the file, or 0
+     */
+    @JvmOverloads
+    fun enqueue(url: String, destination: File, priority: Priority, size: Long = -1, timeModified: Long = 0) {
+        val path = destination.absolutePath
+        if (!jobs.containsKey(path)) {
+            getProgress(path).value = DownloadProgress(0, -1, DownloadProgress.State.QUEUED)
+        }
+        val createdAt = System.currentTimeMillis()
+        writer.execute {
+            Realm.getDefaultInstance().use { realm ->
+                realm.executeTransaction { r ->
+                    val task = r.where(DownloadTask::class.java).equalTo("path", path).findFirst()
+                    if (task == null) {
+                        r.insertOrUpdate(DownloadTask(path, url, priority.ordinal, "", createdAt,
+                                size, timeModified))
+                    } else {
+                        task.size = size
+                        task.timeModified = timeModified
+                        if (priority.ordinal < task.priority) task.priority = priority.ordinal
+                    }
+                }
+            }
+            submit(path, priority)
+        }
+    }
+
+    /**
+     * Resumes the downloads that were queued when the app last stopped.
+     */
+    fun resumePending() {
+        val tasks = Realm.getDefaultInstance().use { realm ->
+            realm.copyFromRealm(realm.where(DownloadTask::class.java).findAll())
+        }
+        for (task in tasks.sortedBy { it.createdAt }) {
+            submit(task.path, Priority.values()[task.priority])
+        }
+    }
+
+    /**
+     * Cancels every download, and forgets the queued ones e.g when the user
+     * logs out. Downloads queued before this are cancelled too, even if they
+     * haven't been persisted yet.
+     */
+    fun cancelAll() {
+        writer.execute {
+            for (job in jobs.values) {
+                job.cancel()
+            }
+            jobs.clear()
+            Realm.getDefaultInstance().use { realm ->
+                realm.executeTransaction { r -> r.delete(DownloadTask::class.java) }
+            }
+        }
+    }
+
+    /**
+     * The progress of the download to [destination]
+     */
+    fun progressOf(destination: File): StateFlow<DownloadProgress> =
+            getProgress(destination.absolutePath).asStateFlow()
+
+    fun addCompletionListener(listener: CompletionListener) {
+        listeners.add(listener)
+    }
+
+    fun removeCompletionListener(listener: CompletionListener) {
+        listeners.remove(listener)
+    }
+
+    @Synchronized
+    private fun submit(path: String, priority: Priority) {
+        val existing = jobs[path]
+        if (existing != null) {
+            // A queued job can be moved up only by replacing it
+            if (priority >= existing.priority || !executor.remove(existing)) return
+        }
+
+        val job = Job(path, priority, sequence.getAndIncrement())
+        jobs[path] = job
+        getProgress(path).value = DownloadProgress(0, -1, DownloadProgress.State.QUEUED)
+        executor.execute(job)
+    }
+
+    private fun getProgress(path: String): MutableStateFlow<DownloadProgress> =
+            progress.computeIfAbsent(path) {
+                MutableStateFlow(DownloadProgress(0, -1, DownloadProgress.State.NONE))
+            }
+
+    private fun onJobFinished(job: Job, completed: Boolean, permanentFailure: Boolean) {
+        jobs.remove(job.path, job)
+        val state = getProgress(job.path)
+        state.value = state.value.copy(state = if (completed) DownloadProgress.State.COMPLETED
+                else DownloadProgress.State.FAILED)
+
+        // A transient failure is retried the next time the app starts
+        if (completed || permanentFailure) {
+            Realm.getDefaultInstance().use { realm ->
+                realm.executeTransaction { r ->
+                    r.where(DownloadTask::class.java).equalTo("path", job.path).findAll().deleteAllFromRealm()
+                }
+            }
+        }
+
+        if (completed) {
+            val file = File(job.path)
+            DownloadRegistry.onDownloaded(file.parentFile ?: file, file.name)
+            mainHandler.post {
+                for (listener in listeners) {
+                    listener.onDownloadCompleted(file)
+                }
+            }
+        }
+    }
+
+    private fun getTask(path: String): DownloadTask? {
+        return Realm.getDefaultInstance().use { realm ->
+            realm.where(DownloadTask::class.java).equalTo("path", path).findFirst()?.let { realm.copyFromRealm(it) }
+        }
+    }
+
+    private fun saveValidator(path: String, validator: String) {
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction { r ->
+                r.where(DownloadTask::class.java).equalTo("path", path).findFirst()?.validator = validator
+            }
+        }
+    }
+
+    /**
+     * Thrown when the server refuses a download in a way that retrying won't
+     * fix e.g the file was deleted
+     */
+    private class PermanentDownloadException(message: String) : IOException(message)
+
+    private class Job(
+        val path: String,
+        val priority: Priority,
+        val sequence: Long,
+    ) : Runnable, Comparable<Job> {
+
+        @Volatile
+        private var call: Call? = null
+
+        @Volatile
+        private var cancelled = false
+
+        fun cancel() {
+            cancelled = true
+            executor.remove(this)
+            call?.cancel()
+        }
+
+        override fun run() {
+            if (cancelled) return
+            var completed = false
+            var permanentFailure = false
+            try {
+                download()
+                completed = true
+            } catch (e: PermanentDownloadException) {
+                Log.e(TAG, "Download failed: $path", e)
+                File(path + PARTIAL_SUFFIX).delete()
+                permanentFailure = true
+            } catch (e: IOException) {
+                if (!cancelled) Log.e(TAG, "IOException when downloading: $path", e)
+            } catch (e: RuntimeException) {
+                // e.g a Realm error. Retried the next time the app starts.
+                Log.e(TAG, "Download failed: $path", e)
+            } finally {
+                // Otherwise the file could never be queued again
+                onJobFinished(this, completed, permanentFailure)
+            }
+        }
+
+        private fun download() {
+            val task = getTask(path) ?: throw PermanentDownloadException("No longer queued")
+            val destination = File(path)
+            val partial = File(path + PARTIAL_SUFFIX)
+            destination.parentFile?.mkdirs()
+
+            val record = ContentStore.getRecord(path)
+            val copy = ContentStore.resolve(destination) ?: destination
+            val recorded = when (getCopyState(copy, record, task)) {
+                CopyState.UNCHANGED -> return
+                CopyState.UNCHANGED_UNRECORDED -> {
+                    if (record != null && record.checksum.isNotEmpty()) {
+                        // Stored by StorageManager, which knows nothing of its source
+                        record.url = task.url
+                        record.timeModified = task.timeModified
+                        ContentStore.saveRecord(record)
+                    } else {
+                        // Downloaded before downloads were recorded
+                        ContentStore.adopt(destination, task.url, task.timeModified)
+                    }
+                    return
+                }
+                CopyState.RECORDED -> record
+                CopyState.STALE -> null
+            }
+            val stored = ContentStore.findByUrl(task.url, task.timeModified, path)
+            if (stored != null) {
+                // Already downloaded elsewhere e.g to another section of the course
+                ContentStore.saveRecord(DownloadedFile(path, task.url, stored.size, task.timeModified,
+                        stored.checksum, stored.validator, System.currentTimeMillis()))
+                return
+            }
+
+            val offset = if (partial.exists()) partial.length() else 0L
+            val headers = getConditionalHeaders(offset, task.validator, recorded?.validator ?: "")
+            val resuming = headers.containsKey("Range")
+            val conditional = headers.containsKey("If-None-Match") || headers.containsKey("If-Modified-Since")
+            val requestUrl = Uri.parse(task.url).buildUpon()
+                    .appendOrSetQueryParameter("token", UserAccount.token)
+                    .build()
+                    .toString()
+            val request = Request.Builder()
+                    .url(requestUrl)
+                    // Files are stored on disk anyway, so keep them out of the HTTP cache
+                    .cacheControl(CacheControl.Builder().noStore().build())
+                    .apply { headers.forEach { (name, value) -> header(name, value) } }
+                    .build()
+
+            val call = APIClient.getClient().newCall(request)
+            this.call = call
+            if (cancelled) call.cancel()
+            call.execute().use { response ->
+                if (response.code == 304 && conditional) {
+                    recorded!!.timeModified = task.timeModified
+                    recorded.lastOpened = System.currentTimeMillis()
+                    ContentStore.saveRecord(recorded)
+                    return
+                }
+                if (response.code == 416 && resuming) {
+                    // The partial file is already complete
+                    val digest = MessageDigest.getInstance("SHA-256")
+                    partial.inputStream().use { digest.update(it) }
+                    complete(task, partial, digest, task.validator)
+                    return
+                }
+                if (response.code in 400..499) {
+                    throw PermanentDownloadException("HTTP ${response.code}")
+                }
+                if (!response.isSuccessful) {
+                    throw IOException("HTTP ${response.code}")
+                }
+
+                val body = response.body ?: throw IOException("Response body is null")
+                val append = response.code == 206
+                val validator = if (append) task.validator
+                        else response.header("ETag") ?: response.header("Last-Modified") ?: ""
+                if (!append) saveValidator(path, validator)
+
+                val digest = MessageDigest.getInstance("SHA-256")
+                if (append) {
+                    partial.inputStream().use { digest.update(it) }
+                }
+
+                var read = if (append) offset else 0L
+                val total = body.contentLength().let { if (it < 0) -1 else read + it }
+                val state = getProgress(path)
+                state.value = DownloadProgress(read, total, DownloadProgress.State.RUNNING)
+
+                var lastUpdate = SystemClock.elapsedRealtime()
+                FileOutputStream(partial, append).use { output ->
+                    val input = body.byteStream()
+                    val buffer = ByteArray(BUFFER_SIZE)
+                    while (true) {
+                        val count = input.read(buffer)
+                        if (count == -1) break
+                        output.write(buffer, 0, count)
+                        digest.update(buffer, 0, count)
+                        read += count
+
+                        val now = SystemClock.elapsedRealtime()
+                        if (now - lastUpdate >= PROGRESS_INTERVAL) {
+                            state.value = DownloadProgress(read, total, DownloadProgress.State.RUNNING)
+                            lastUpdate = now
+                        }
+                    }
+                }
+                state.value = DownloadProgress(read, total, DownloadProgress.State.RUNNING)
+                if (total >= 0 && read != total) {
+                    partial.delete()
+                    throw IOException("Truncated download: $read of $total bytes")
+                }
+                complete(task, partial, digest, validator)
+            }
+        }
+
+        private fun complete(task: DownloadTask, partial: File, digest: MessageDigest, validator: String) {
+            val checksum = digest.digest().toHex()
+            ContentStore.store(partial, DownloadedFile(path, task.url, partial.length(), task.timeModified, checksum,
+                    validator, System.currentTimeMillis()))
+        }
+
+        private fun MessageDigest.update(input: InputStream) {
+            val buffer = ByteArray(BUFFER_SIZE)
+            while (true) {
+                val count = input.read(buffer)
+                if (count == -1) break
+                update(buffer, 0, count)
+            }
+        }
+
+        private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+
+        override fun compareTo(other: Job): Int {
+            return compareValuesBy(this, other, { it.priority }, { it.sequence })
+        }
+    }
+
+    /**
+     * The progress of a single download
+     *
+     * @property bytesRead Bytes of the file downloaded so far
+     * @property totalBytes Size of the file, or -1 if it isn't known
+     */
+    data class DownloadProgress(val bytesRead: Long, val totalBytes: Long, val state: State) {
+        enum class State {
+            NONE, QUEUED, RUNNING, COMPLETED, FAILED
+        }
+    }
+
+    fun interface CompletionListener {
+        fun onDownloadCompleted(file: File)
+    }
+}
+
+/**
+ * The headers that make a download conditional.
+ *
+ * A download cut short after [offset] bytes is resumed with a `Range`
+ * request. `If-Range` makes the server send the full file instead if it has
+ * changed since [partialValidator] was received. A weak ETag can't be used
+ * with `If-Range`, so such a download starts over. Otherwise, a file already
+ * downloaded with [recordedValidator] is only sent again if it has changed.
+ *
+ * @param partialValidator The `ETag` or `Last-Modified` the partial file was
+ * downloaded with, or empty
+ * @param recordedValidator The `ETag` or `Last-Modified` the downloaded file
+ * was recorded with, or empty
+ */
+internal fun getConditionalHeaders(offset: Long, partialValidator: String,
+                                   recordedValidator: String): Map<String, String> {
+    if (offset > 0 && partialValidator.isNotEmpty() && !partialValidator.startsWith("W/")) {
+        return mapOf("Range" to "bytes=$offset-", "If-Range" to partialValidator)
+    }
+    if (recordedValidator.isEmpty()) return emptyMap()
+    return if (recordedValidator.startsWith("\"") || recordedValidator.startsWith("W/")) {
+        mapOf("If-None-Match" to recordedValidator)
+    } else {
+        mapOf("If-Modified-Since" to recordedValidator)
+    }
+}
+
+/**
+ * The state of the copy of a file on disk, before it is downloaded again
+ */
+internal enum class CopyState {
+    /**
+     * Intact, and Moodle reports the same size and modification time as
+     * were recorded for it. It needn't be downloaded.
+     */
+    UNCHANGED,
+
+    /**
+     * Not recorded, e.g downloaded before downloads were recorded, but its
+     * size and modification time match what Moodle reports. It needn't be
+     * downloaded, only recorded.
+     */
+    UNCHANGED_UNRECORDED,
+
+    /**
+     * Intact, but may have changed since. The server is asked with its
+     * recorded validator.
+     */
+    RECORDED,
+
+    /**
+     * Missing, truncated, or of another file. It is downloaded in full.
+     */
+    STALE,
+}
+
+/**
+ * The state of [copy], the contents of the file [task] downloads as stored
+ * for its destination, given the [record] of the file last downloaded there,
+ * if any. A copy is intact if its size matches its record.
+ */
+internal fun getCopyState(copy: File, record: DownloadedFile?, task: DownloadTask): CopyState {
+    if (record != null && record.url == task.url && copy.exists() && copy.length() == record.size) {
+        val unchanged = task.timeModified > 0 && record.timeModified == task.timeModified
+                && (task.size < 0 || task.size == record.size)
+        return if (unchanged) CopyState.UNCHANGED else CopyState.RECORDED
+    }
+    if ((record == null || record.url.isEmpty()) && copy.exists() && task.size >= 0
+            && copy.length() == task.size && task.timeModified > 0
+            && copy.lastModified() / 1000 >= task.timeModified) {
+        return CopyState.UNCHANGED_UNRECORDED
+    }
+    return CopyState.STALE
+}
@@ -0,0 +1,101 @@
+package crux.bphc.cms.core
+
+import android.os.FileObserver
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Process-wide index of the files downloaded to each course's directory,
+ * shared by every [FileManager].
+ *
+ * A course's directory is listed once, the first time it is looked up.
+ * After that, the index is kept current by a [FileObserver] on the
+ * directory, by [DownloadEngine] as downloads complete, and by the Files
+ * screen and [StorageManager] as files are deleted. Lookups never touch the
+ * disk. Files still being downloaded are never indexed.
+ */
+object DownloadRegistry {
+
+    private val courses = ConcurrentHashMap<String, CourseFiles>()
+
+    fun isDownloaded(courseDir: File, fileName: String): Boolean =
+            getCourseFiles(courseDir).names.contains(fileName)
+
+    /**
+     * Records a file that was just downloaded to the course's directory
+     */
+    fun onDownloaded(courseDir: File, fileName: String) {
+        val courseFiles = getCourseFiles(courseDir)
+        courseFiles.names.add(fileName)
+        // The directory may have been created by this download
+        courseFiles.startWatching()
+    }
+
+    /**
+     * Records that [file] was just deleted. It may be a file in a course's
+     * directory, or the directory itself.
+     */
+    fun onDeleted(file: File) {
+        courses.remove(file.absolutePath)?.stopWatching()
+        file.parentFile?.let { courses[it.absolutePath] }?.names?.remove(file.name)
+    }
+
+    private fun isPartial(fileName: String): Boolean = fileName.endsWith(DownloadEngine.PARTIAL_SUFFIX)
+
+    private fun getCourseFiles(courseDir: File): CourseFiles =
+            courses.computeIfAbsent(courseDir.absolutePath) { CourseFiles(courseDir) }
+
+    private class CourseFiles(private val dir: File) {
+        val names: MutableSet<String> = ConcurrentHashMap.newKeySet()
+        private var observer: FileObserver? = null
+
+        init {
+            startWatching()
+        }
+
+        /**
+         * Starts watching the directory if it exists and isn't watched yet.
+         * The directory is listed once watching starts, so that no file
+         * created in between is missed.
+         */
+        @Synchronized
+        fun startWatching() {
+            if (observer != null || !dir.isDirectory) return
+
+            @Suppress("DEPRECATION") // The File constructor needs API 29
+            val observer = object : FileObserver(dir.path, EVENTS) {
+                override fun onEvent(event: Int, path: String?) {
+                    when (event and ALL_EVENTS) {
+                        CLOSE_WRITE, MOVED_TO -> path?.takeUnless(::isPartial)?.let { names.add(it) }
+                        DELETE, MOVED_FROM -> path?.let { names.remove(it) }
+                        DELETE_SELF, MOVED_SELF -> onDirectoryGone()
+                    }
+                }
+            }
+            observer.startWatching()
+            this.observer = observer
+            dir.list()?.let { list -> names.addAll(list.filterNot(::isPartial)) }
+        }
+
+        @Synchronized
+        fun stopWatching() {
+            observer?.stopWatching()
+            observer = null
+        }
+
+        @Synchronized
+        private fun onDirectoryGone() {
+            stopWatching()
+            names.clear()
+        }
+    }
+
+    /**
+     * A file is only counted once it has been written in full. Partially
+     * downloaded files are created long before that, and are written to
+     * under a name of their own until then.
+     */
+    private const val EVENTS = FileObserver.CLOSE_WRITE or FileObserver.MOVED_TO or
+            FileObserver.DELETE or FileObserver.MOVED_FROM or
+            FileObserver.DELETE_SELF or FileObserver.MOVED_SELF
+}
@@ -1,20 +1,16 @@
 package crux.bphc.cms.core
 
 import android.app.Activity
-import android.app.DownloadManager
 import android.content.*
-import android.net.Uri
 import android.os.Build
 import android.os.Environment
 import android.widget.Toast
 import androidx.core.content.FileProvider
 import crux.bphc.cms.BuildConfig
-import crux.bphc.cms.app.appendOrSetQueryParameter
-import crux.bphc.cms.models.UserAccount.token
 import crux.bphc.cms.models.course.Content
-import crux.bphc.cms.models.course.Module
 import crux.bphc.cms.models.forum.Attachment
 import crux.bphc.cms.utils.FileUtils
+import kotlinx.coroutines.flow.StateFlow
 import java.io.File
 
 /**
@@ -25,6 +21,8 @@ import java.io.File
  * Following the release of scoped storage on [Android Q][Build.VERSION_CODES.Q] and above,
  * files are no longer downloaded to the location specified by [Environment.DIRECTORY_DOWNLOADS].
  * All files are now downloaded to the app specific external media directory.
+ * The course's folder holds references to the files, whose contents are kept
+ * once by [ContentStore].
  *
  * @param activity An activity context, to launch new activities etc
  * @param courseName Course name the FileManager instance should be attached
@@ -39,55 +37,56 @@ class FileManager(
         private val callback: (String) -> Unit,
 ) {
 
-    private val sanitizedCourseName: String = courseName.replace("/".toRegex(), "_")
+    private val sanitizedCourseName: String = getCourseDirectoryName(courseName)
     private val baseContentDir = activity.externalMediaDirs[0]
 
-    private val fileList: MutableList<String> = emptyList<String>().toMutableList()
-    private val requestedDownloads: MutableList<String> = emptyList<String>().toMutableList()
-
-    private val onComplete: BroadcastReceiver = object : BroadcastReceiver() {
-        override fun onReceive(context: Context?, intent: Intent?) {
-            reloadFileList()
-            for (filename in requestedDownloads) {
-                if (isFileDownloaded(filename)) {
-                    requestedDownloads.remove(filename)
-                    callback.invoke(filename)
-                    return
-                }
-            }
+    private val courseDir = File(baseContentDir, getRelativePath(""))
+
+    private val onComplete = DownloadEngine.CompletionListener { file ->
+        if (file.parentFile?.absolutePath == courseDir.absolutePath) {
+            callback.invoke(file.name)
         }
     }
 
-    fun downloadModuleContent(content: Content, module: Module) {
-        deleteExistingModuleContent(content)
-        downloadFile(content.fileUrl, content.fileName, module.description)
+    /**
+     * Downloads the content, replacing any existing copy unless it is
+     * unchanged. Files the user asks for should be downloaded with
+     * [DownloadEngine.Priority.USER], so that they jump ahead of bulk
+     * downloads.
+     */
+    @JvmOverloads
+    fun downloadModuleContent(content: Content, priority: DownloadEngine.Priority = DownloadEngine.Priority.USER) {
+        downloadFile(content.fileUrl, content.fileName, priority, content.fileSize.toLong(), content.timeModified)
     }
 
-    fun downloadDiscussionAttachment(attachment: Attachment, description: String) {
-        deleteExistingDiscussionAttachment(attachment)
-        downloadFile(attachment.fileUrl, attachment.fileName, description)
+    fun downloadDiscussionAttachment(attachment: Attachment) {
+        downloadFile(attachment.fileUrl, attachment.fileName, DownloadEngine.Priority.USER,
+                attachment.fileSize.toLong(), attachment.timeModified)
     }
 
+    /**
+     * The progress of the content's download
+     */
+    fun getModuleContentProgress(content: Content): StateFlow<DownloadEngine.DownloadProgress> =
+            DownloadEngine.progressOf(File(courseDir, content.fileName))
+
     fun openModuleContent(content: Content) =
             openFile(content.fileName)
 
     fun openDiscussionAttachment(attachment: Attachment) =
             openFile(attachment.fileName)
 
-    private fun downloadFile(fileUrl: String, fileName: String, description: String) {
-        val url = Uri.parse(fileUrl).buildUpon().appendOrSetQueryParameter("token", token).build()
-        val destinationUri = Uri.fromFile(File(baseContentDir, getRelativePath(fileName)))
-
-        val request = DownloadManager.Request(url)
-        request.setDescription(description)
-        request.setTitle(fileName)
-        request.setDestinationUri(destinationUri)
-        (activity.getSystemService(Context.DOWNLOAD_SERVICE) as DownloadManager).enqueue(request)
-        requestedDownloads.add(fileName)
+    private fun downloadFile(fileUrl: String, fileName: String, priority: DownloadEngine.Priority,
+                             size: Long, timeModified: Long) {
+        // Moodle reports a size of 0 for files whose size it doesn't know
+        DownloadEngine.enqueue(fileUrl, File(courseDir, fileName), priority, if (size > 0) size else -1,
+                timeModified)
     }
 
     private fun openFile(fileName: String) {
-        val file = File(baseContentDir, getRelativePath(fileName))
+        val reference = File(baseContentDir, getRelativePath(fileName))
+        StorageManager.onOpened(reference)
+        val file = ContentStore.resolve(reference) ?: reference
         val fileUri = FileProvider.getUriForFile(activity, "${BuildConfig.APPLICATION_ID}.provider", file)
 
         val intent = Intent(Intent.ACTION_VIEW)
@@ -115,7 +114,8 @@ class FileManager(
             shareFile(attachment.fileName)
 
     private fun shareFile(fileName: String) {
-        val file = File(baseContentDir, getRelativePath(fileName))
+        val reference = File(baseContentDir, getRelativePath(fileName))
+        val file = ContentStore.resolve(reference) ?: reference
         val fileUri = FileProvider.getUriForFile(
                 activity,
                 "${BuildConfig.APPLICATION_ID}.provider",
@@ -138,29 +138,6 @@ class FileManager(
         }
     }
 
-    private fun deleteExistingModuleContent(content: Content) = deleteExistingFile(content.fileName)
-
-    private fun deleteExistingDiscussionAttachment(attachment: Attachment) =
-            deleteExistingFile(attachment.fileName)
-
-    private fun deleteExistingFile(fileName: String) {
-        val file = File(baseContentDir, getRelativePath(fileName))
-        if (file.exists()) {
-            file.delete()
-        }
-    }
-
-    fun reloadFileList() {
-        fileList.clear()
-        val courseDir = File(baseContentDir, getRelativePath(""))
-        if (courseDir.isDirectory) {
-            val files = courseDir.list()
-            if (files != null) {
-                fileList.addAll(listOf(*files))
-            }
-        }
-    }
-
     private fun getRelativePath(filename: String) =
             File.separator + sanitizedCourseName + File.separator + filename
 
@@ -168,17 +145,20 @@ class FileManager(
 
     fun isDiscussionAttachmentDownloaded(attachment: Attachment) = isFileDownloaded(attachment.fileName)
 
-    private fun isFileDownloaded(fileName: String): Boolean {
-        if (fileList.isEmpty()) {
-            reloadFileList()
-        }
-        return fileList.contains(fileName)
-    }
+    private fun isFileDownloaded(fileName: String) = DownloadRegistry.isDownloaded(courseDir, fileName)
 
     fun registerDownloadReceiver() =
-            activity.registerReceiver(onComplete, IntentFilter(DownloadManager.ACTION_DOWNLOAD_COMPLETE))
+            DownloadEngine.addCompletionListener(onComplete)
 
     fun unregisterDownloadReceiver() =
-            activity.unregisterReceiver(onComplete)
+            DownloadEngine.removeCompletionListener(onComplete)
+
+    companion object {
+        /**
+         * Name of the directory the course's files are downloaded to
+         */
+        @JvmStatic
+        fun getCourseDirectoryName(courseName: String): String = courseName.replace("/".toRegex(), "_")
+    }
 
 }
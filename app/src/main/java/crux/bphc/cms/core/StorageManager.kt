@@ -0,0 +1,289 @@
+package crux.bphc.cms.core
+
+import crux.bphc.cms.app.MyApplication
+import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.models.core.CourseStoragePolicy
+import crux.bphc.cms.models.core.DownloadTask
+import crux.bphc.cms.models.core.DownloadedFile
+import crux.bphc.cms.models.course.Course
+import crux.bphc.cms.models.course.CourseStats
+import io.realm.Realm
+import io.realm.Sort
+import java.io.File
+import java.util.concurrent.Executors
+
+/**
+ * Keeps the files downloaded to each course's directory within the budgets
+ * set by the user, by evicting the files opened least recently.
+ *
+ * The files of a course may be limited by its [CourseStoragePolicy], and all
+ * files together by [UserAccount.storageBudget]. Files of favourite and
+ * pinned courses are never evicted, but still count towards the global
+ * budget. Neither are files that are queued for download.
+ *
+ * Usage is tallied from the [DownloadedFile] records rather than by walking
+ * the disk. Files that refer to the same contents in [ContentStore] are
+ * counted once, since evicting one of them frees nothing while the others
+ * remain. [reconcile] brings the records in line with the files on disk,
+ * and [evict] evicts a bounded number of files at a time.
+ * Both are run in the background by
+ * [crux.bphc.cms.background.StorageWorker].
+ */
+object StorageManager {
+
+    private val baseContentDir: File
+        get() = MyApplication.instance.externalMediaDirs[0]
+
+    /**
+     * Writes the times files are opened, off the main thread
+     */
+    private val writer = Executors.newSingleThreadExecutor()
+
+    /**
+     * Records, in the background, that [file] was just opened
+     */
+    fun onOpened(file: File) {
+        val path = file.absolutePath
+        val now = System.currentTimeMillis()
+        writer.execute {
+            Realm.getDefaultInstance().use { realm ->
+                realm.executeTransaction { r ->
+                    r.where(DownloadedFile::class.java).equalTo("path", path).findFirst()?.lastOpened = now
+                }
+            }
+        }
+    }
+
+    /**
+     * The space taken up by downloaded files, in all and by each course's
+     * directory. Reads the disk, so must not be called on the main thread.
+     */
+    fun getUsage(): Usage {
+        val total = Tally()
+        val directories = HashMap<String, Tally>()
+        Realm.getDefaultInstance().use { realm ->
+            for (record in realm.where(DownloadedFile::class.java).findAll()) {
+                val key = getContentKey(record)
+                total.add(key, record.size)
+                directories.getOrPut(getDirectoryName(record.path)) { Tally() }.add(key, record.size)
+            }
+        }
+        return Usage(total.bytes, directories.mapValues { (_, tally) -> DirectoryUsage(tally.bytes, tally.files) })
+    }
+
+    /**
+     * The storage policy of the course whose files are in the given
+     * directory, or null if the directory isn't a course's
+     */
+    fun getPolicy(directoryName: String): CourseStoragePolicy? {
+        return Realm.getDefaultInstance().use { realm ->
+            val course = getCourses(realm)[directoryName] ?: return null
+            realm.where(CourseStoragePolicy::class.java).equalTo("courseId", course.id).findFirst()
+                    ?.let { realm.copyFromRealm(it) }
+                    ?: CourseStoragePolicy(course.id)
+        }
+    }
+
+    fun setPolicy(policy: CourseStoragePolicy) {
+        Realm.getDefaultInstance().use { realm ->
+            realm.executeTransaction { r -> r.insertOrUpdate(policy) }
+        }
+    }
+
+    /**
+     * Moves the files on disk that aren't stored yet e.g those downloaded
+     * before downloads were recorded, into [ContentStore], and drops the
+     * records of files that are gone or whose contents are.
+     */
+    fun reconcile() {
+        val directories = baseContentDir.listFiles { file ->
+            file.isDirectory && file.name != ContentStore.STORE_DIRECTORY_NAME
+        } ?: return
+        val recorded = Realm.getDefaultInstance().use { realm ->
+            realm.where(DownloadedFile::class.java).findAll().map { it.path }.toHashSet()
+        }
+        val gone = recorded.map { File(it) }.filter { !it.isFile || ContentStore.resolve(it) == null }
+        for (file in gone) {
+            // A reference whose contents are gone would still show as downloaded
+            file.delete()
+            DownloadRegistry.onDeleted(file)
+        }
+        ContentStore.onDeleted(gone)
+
+        val untracked = directories.asSequence()
+                .flatMap { it.walkTopDown() }
+                .filter { it.isFile && !it.name.endsWith(DownloadEngine.PARTIAL_SUFFIX) }
+                .filter { it.absolutePath !in recorded }
+                .toList()
+        for (file in untracked) {
+            if (file.length() > 0) {
+                ContentStore.adopt(file)
+            } else {
+                // A reference whose record is gone. It has nothing to refer to.
+                file.delete()
+                DownloadRegistry.onDeleted(file)
+            }
+        }
+    }
+
+    /**
+     * Makes up to [limit] evictions of the files opened least recently, from
+     * the courses that exceed their budget, and then from all courses while
+     * the global budget is exceeded.
+     *
+     * To stay within the global budget, the files referring to the same
+     * contents are evicted together, as one eviction, since the space is
+     * only freed once the last of them goes. Contents that are also referred
+     * to by a file that is never evicted e.g in a pinned course, are kept.
+     *
+     * @return The number of evictions whose files were all deleted
+     */
+    fun evict(limit: Int): Int {
+        val courseIds = HashMap<String, Int>()
+        val evictions = Realm.getDefaultInstance().use { realm ->
+            val courses = getCourses(realm)
+            courses.mapValuesTo(courseIds) { (_, course) -> course.id }
+            val policies = realm.where(CourseStoragePolicy::class.java).findAll()
+                    .associate { it.courseId to realm.copyFromRealm(it) }
+            val queued = realm.where(DownloadTask::class.java).findAll().map { it.path }.toHashSet()
+            val records = realm.copyFromRealm(realm.where(DownloadedFile::class.java)
+                    .sort("lastOpened", Sort.ASCENDING)
+                    .findAll())
+
+            val keys = records.associate { it.path to getContentKey(it) }
+            val total = Tally()
+            val usage = HashMap<String, Tally>()
+            for (record in records) {
+                val key = keys.getValue(record.path)
+                total.add(key, record.size)
+                usage.getOrPut(getDirectoryName(record.path)) { Tally() }.add(key, record.size)
+            }
+
+            fun getPolicy(directory: String) = courses[directory]?.let { policies[it.id] }
+            val candidates = records.filter {
+                val directory = getDirectoryName(it.path)
+                courses[directory]?.isFavorite != true && getPolicy(directory)?.isPinned != true
+                        && it.path !in queued
+            }
+
+            val victims = HashSet<String>()
+            val evictions = mutableListOf<List<DownloadedFile>>()
+            fun evict(files: List<DownloadedFile>) {
+                for (record in files) {
+                    val key = keys.getValue(record.path)
+                    victims.add(record.path)
+                    usage.getValue(getDirectoryName(record.path)).remove(key, record.size)
+                    total.remove(key, record.size)
+                }
+                evictions.add(files)
+            }
+
+            for (record in candidates) {
+                if (evictions.size >= limit) break
+                val directory = getDirectoryName(record.path)
+                val budget = getPolicy(directory)?.budget ?: 0
+                if (budget > 0 && usage.getValue(directory).bytes > budget) evict(listOf(record))
+            }
+            val budget = UserAccount.storageBudget
+            if (budget > 0) {
+                val references = keys.values.groupingBy { it }.eachCount()
+                val groups = candidates.filter { it.path !in victims }
+                        .groupBy { keys.getValue(it.path) }
+                        // Evicting some of the references to contents frees nothing
+                        .filter { (key, group) -> group.size + victims.count { keys[it] == key } == references[key] }
+                        .values
+                        .sortedBy { group -> group.maxOf { it.lastOpened } }
+                for (group in groups) {
+                    if (total.bytes <= budget || evictions.size >= limit) break
+                    evict(group)
+                }
+            }
+            evictions
+        }
+
+        val deletedByCourse = HashMap<Int, Int>()
+        var evicted = 0
+        for (eviction in evictions) {
+            var deletedAll = true
+            for (victim in eviction) {
+                val file = File(victim.path)
+                if (file.delete() || !file.exists()) {
+                    ContentStore.onDeleted(file)
+                    DownloadRegistry.onDeleted(file)
+                    courseIds[getDirectoryName(victim.path)]?.let { deletedByCourse.merge(it, 1, Int::plus) }
+                } else {
+                    deletedAll = false
+                }
+            }
+            if (deletedAll) evicted++
+        }
+        if (deletedByCourse.isNotEmpty()) {
+            Realm.getDefaultInstance().use { realm ->
+                realm.executeTransaction { r ->
+                    for ((courseId, count) in deletedByCourse) {
+                        val stats = r.where(CourseStats::class.java).equalTo("courseId", courseId).findFirst()
+                                ?: continue
+                        stats.downloadedFiles = (stats.downloadedFiles - count).coerceAtLeast(0)
+                    }
+                }
+            }
+        }
+        return evicted
+    }
+
+    /**
+     * Courses keyed by the name of the directory their files are downloaded
+     * to
+     */
+    private fun getCourses(realm: Realm): Map<String, Course> =
+            realm.where(Course::class.java).findAll()
+                    .associateBy { FileManager.getCourseDirectoryName(it.plainFullName) }
+
+    private fun getDirectoryName(path: String): String =
+            File(path).relativeTo(baseContentDir).path.substringBefore(File.separator)
+
+    /**
+     * Identifies the contents of a recorded file, so that files referring
+     * to the same contents share a key
+     */
+    private fun getContentKey(record: DownloadedFile): String = record.checksum.ifEmpty { record.path }
+
+    /**
+     * Space taken up by a set of files, counting the contents shared by
+     * several of them once
+     */
+    private class Tally {
+        private val references = HashMap<String, Int>()
+
+        var bytes = 0L
+            private set
+
+        var files = 0
+            private set
+
+        fun add(key: String, size: Long) {
+            files++
+            if (references.merge(key, 1, Int::plus) == 1) bytes += size
+        }
+
+        fun remove(key: String, size: Long) {
+            files--
+            val remaining = references.getValue(key) - 1
+            if (remaining == 0) {
+                references.remove(key)
+                bytes -= size
+            } else {
+                references[key] = remaining
+            }
+        }
+    }
+
+    /**
+     * @property totalBytes Space taken up by all downloaded files
+     * @property directories Usage of each course's directory, keyed by its
+     * name
+     */
+    data class Usage(val totalBytes: Long, val directories: Map<String, DirectoryUsage>)
+
+    data class DirectoryUsage(val bytes: Long, val files: Int)
+}
@@ -12,6 +12,7 @@ import androidx.core.text.HtmlCompat
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import crux.bphc.cms.R
 import crux.bphc.cms.adapters.CourseContentAdapter
@@ -20,7 +21,7 @@ import crux.bphc.cms.core.FileManager
 import crux.bphc.cms.databinding.FragmentCourseSectionBinding
 import crux.bphc.cms.fragments.MoreOptionsFragment.OptionsViewModel
 import crux.bphc.cms.helper.CourseDataHandler
-import crux.bphc.cms.helper.CourseRequestHandler
+import crux.bphc.cms.helper.SyncScheduler
 import crux.bphc.cms.interfaces.ClickListener
 import crux.bphc.cms.interfaces.CourseContent
 import crux.bphc.cms.models.UserAccount
@@ -29,9 +30,9 @@ import crux.bphc.cms.models.course.Module
 import crux.bphc.cms.utils.Utils
 import crux.bphc.cms.widgets.PropertiesAlertDialog
 import io.realm.Realm
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.io.IOException
 import kotlin.collections.ArrayList
 
@@ -60,7 +61,7 @@ class CourseContentFragment : Fragment() {
             courseSections.stream().filter { courseSection: CourseSection ->
                 !(courseSection.modules.isEmpty()
                         && courseSection.summary.isEmpty()
-                        && courseSection.name.matches(Regex("^Topic \\d*$")))
+                        && courseSection.plainName.matches(Regex("^Topic \\d*$")))
             }.forEach { courseSection: CourseSection ->
                 contents.add(courseSection)
                 contents.addAll(courseSection.modules)
@@ -161,7 +162,7 @@ class CourseContentFragment : Fragment() {
                             }
                             Toast.makeText(activity, "Downloading file - " + content!!.fileName,
                                 Toast.LENGTH_SHORT).show()
-                            fileManager.downloadModuleContent(content, module)
+                            fileManager.downloadModuleContent(content)
                         }
                         2 -> fileManager.shareModuleContent(content!!)
                         3 -> {
@@ -188,7 +189,7 @@ class CourseContentFragment : Fragment() {
                     val activity = activity
                     when (option.id) {
                         0 -> if (content != null) {
-                            fileManager.downloadModuleContent(content, module)
+                            fileManager.downloadModuleContent(content)
                         }
                         1 -> shareModuleLinks(module)
                         2 -> {
@@ -209,7 +210,7 @@ class CourseContentFragment : Fragment() {
             /* Show the fragment and register the observer */
             val activity = activity
             if (activity != null) {
-                val moreOptionsFragment = MoreOptionsFragment.newInstance(module.name, options)
+                val moreOptionsFragment = MoreOptionsFragment.newInstance(module.plainName, options)
                 moreOptionsFragment.show(requireActivity().supportFragmentManager,
                     moreOptionsFragment.tag)
                 moreOptionsViewModel.selection.observe(activity, observer)
@@ -243,14 +244,14 @@ class CourseContentFragment : Fragment() {
                         .commit()
                 }
                 Module.Type.LABEL -> {
-                    val desc = module.description
+                    val desc = module.descriptionWithToken
                     if (activity != null && desc.isNotEmpty()) {
                         val alertDialog: AlertDialog.Builder = if (UserAccount.isDarkModeEnabled) {
                             AlertDialog.Builder(activity, R.style.Theme_AppCompat_Dialog_Alert)
                         } else {
                             AlertDialog.Builder(activity, R.style.Theme_AppCompat_Light_Dialog_Alert)
                         }
-                        val htmlDescription = HtmlCompat.fromHtml(module.description,
+                        val htmlDescription = HtmlCompat.fromHtml(desc,
                             HtmlCompat.FROM_HTML_MODE_COMPACT)
                         val descriptionWithOutExtraSpace = htmlDescription.toString().trim { it <= ' ' }
                         alertDialog.setMessage(htmlDescription.subSequence(0, descriptionWithOutExtraSpace.length))
@@ -264,7 +265,7 @@ class CourseContentFragment : Fragment() {
                     } else {
                         Toast.makeText(getActivity(), "Downloading file - " + content.fileName,
                             Toast.LENGTH_SHORT).show()
-                        fileManager.downloadModuleContent(content, module)
+                        fileManager.downloadModuleContent(content)
                     }
                 }
                 else -> if (activity != null) {
@@ -316,63 +317,59 @@ class CourseContentFragment : Fragment() {
     }
 
     private fun refreshContent(contextUrl: String = "") {
-        CoroutineScope(Dispatchers.IO).launch {
-            val courseRequestHandler = CourseRequestHandler()
-            var sections = mutableListOf<CourseSection>()
+        // Leaving the screen cancels the sync, and what it would have written
+        viewLifecycleOwner.lifecycleScope.launch {
             try {
-                sections = courseRequestHandler.getCourseDataSync(courseId)
+                // The course being looked at jumps ahead of other syncs, and
+                // shares the sync of any that is already in flight
+                SyncScheduler.syncCourses(listOf(courseId), courseId, true) // This marks as unread
             } catch (e: IOException) {
                 Log.e(TAG, "IOException when syncing course: ${courseId}}", e)
                 if (courseSections.isEmpty()) {
-                    CoroutineScope(Dispatchers.Main).launch {
-                        binding.empty.text = resources.getText(R.string.failed_course_content_refresh)
-                        binding.empty.visibility = View.VISIBLE
-                        binding.recyclerView.visibility = View.GONE
+                    binding.empty.text = resources.getText(R.string.failed_course_content_refresh)
+                    binding.empty.visibility = View.VISIBLE
+                    binding.recyclerView.visibility = View.GONE
 
-                        Toast.makeText(activity, "Unable to connect to server!", Toast.LENGTH_SHORT).show()
-                        binding.swipeRefreshLayout.isRefreshing = false
-                    }
+                    Toast.makeText(activity, "Unable to connect to server!", Toast.LENGTH_SHORT).show()
                 }
+                binding.swipeRefreshLayout.isRefreshing = false
+                return@launch
+            }
+            val forumIds = withContext(Dispatchers.IO) {
+                Realm.getDefaultInstance().use { r ->
+                    CourseDataHandler(r).getCourseData(courseId).flatMap { it.modules }
+                        .filter { it.modType == Module.Type.FORUM }.map { it.instance }
+                }
+            }
+            val forumDiscussions = try {
+                SyncScheduler.syncForums(forumIds, SyncScheduler.Priority.VISIBLE)
+            } catch (e: IOException) {
+                Log.e(TAG, "IOException when syncing forums of course: $courseId", e)
+                emptyMap()
             }
 
-            val realm = Realm.getDefaultInstance() // tie a realm instance to this thread
-            val courseDataHandler = CourseDataHandler(realm)
-
-            courseDataHandler.isolateNewCourseData(courseId, sections) // This marks as unread
-
-            for (courseSection in sections) {
-                val modules = courseSection.modules
-                for (module in modules) {
-                    if (module.modType == Module.Type.FORUM) {
-                        val discussions = courseRequestHandler
-                            .getForumDicussionsSync(module.instance)
-                        for (d in discussions) {
-                            d.forumId = module.instance
-                        }
-
-                        val newDiscussions = courseDataHandler
-                            .setForumDiscussions(module.instance, discussions)
-                        if (newDiscussions.size > 0) {
-                            courseDataHandler.markModuleAsUnread(module);
-                        }
+            courseSections = withContext(Dispatchers.IO) {
+                val realm = Realm.getDefaultInstance() // tie a realm instance to this thread
+                val courseDataHandler = CourseDataHandler(realm)
+                val sections = courseDataHandler.getCourseData(courseId)
+                for (module in sections.flatMap { it.modules }.filter { it.modType == Module.Type.FORUM }) {
+                    if (forumDiscussions[module.instance]?.newDiscussions?.isNotEmpty() == true) {
+                        courseDataHandler.markModuleAsUnread(module)
                     }
                 }
+                realm.close()
+                sections
             }
-            courseDataHandler.replaceCourseData(courseId, sections)
-            courseSections = sections
-            CoroutineScope(Dispatchers.Main).launch {
-                setCourseContentsOnAdapter()
-                findAndScrollToPosition(contextUrl)
-                binding.swipeRefreshLayout.isRefreshing = false
-                binding.empty.visibility = View.GONE
-                binding.recyclerView.visibility = View.VISIBLE
-            }
+            setCourseContentsOnAdapter()
+            findAndScrollToPosition(contextUrl)
+            binding.swipeRefreshLayout.isRefreshing = false
+            binding.empty.visibility = View.GONE
+            binding.recyclerView.visibility = View.VISIBLE
         }
     }
 
     @MainThread
     private fun setCourseContentsOnAdapter() {
-        fileManager.reloadFileList()
         adapter.setCourseContents(courseContents)
     }
 
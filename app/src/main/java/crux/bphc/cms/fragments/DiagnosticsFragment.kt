@@ -0,0 +1,74 @@
+package crux.bphc.cms.fragments
+
+import android.os.Bundle
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import androidx.fragment.app.Fragment
+import crux.bphc.cms.R
+import crux.bphc.cms.databinding.FragmentDiagnosticsBinding
+import crux.bphc.cms.helper.SyncScheduler
+import crux.bphc.cms.network.APIClient
+import crux.bphc.cms.network.NetworkMetrics
+
+/**
+ * Shows how recent network calls performed, per web service function, along
+ * with the state of the HTTP cache and of [SyncScheduler]. Meant for tracking
+ * down slow refreshes.
+ */
+class DiagnosticsFragment : Fragment() {
+
+    private lateinit var binding: FragmentDiagnosticsBinding
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        binding = FragmentDiagnosticsBinding.inflate(layoutInflater)
+    }
+
+    override fun onStart() {
+        super.onStart()
+        requireActivity().title = getString(R.string.nav_bar_diagnostics)
+        binding.diagnosticsText.text = buildReport()
+    }
+
+    override fun onCreateView(
+        inflater: LayoutInflater,
+        container: ViewGroup?,
+        savedInstanceState: Bundle?
+    ): View {
+        return binding.root
+    }
+
+    private fun buildReport(): String = buildString {
+        appendLine("HTTP cache")
+        appendLine("  hits: ${APIClient.getCacheHitCount()} (offline: ${APIClient.getCacheOfflineHitCount()})")
+        appendLine("  misses: ${APIClient.getCacheMissCount()}")
+        appendLine()
+
+        appendLine("Sync scheduler")
+        appendLine("  concurrency: ${SyncScheduler.concurrency} of ${SyncScheduler.maxConcurrency}")
+        appendLine("  in flight: ${SyncScheduler.inFlight}, queued: ${SyncScheduler.queueDepth}")
+        appendLine()
+
+        val summaries = NetworkMetrics.getSummaries()
+        appendLine("Network calls, p50 / p95")
+        if (summaries.isEmpty()) {
+            appendLine("  No calls made yet")
+        }
+        for (summary in summaries) {
+            appendLine()
+            appendLine(summary.function)
+            appendLine("  calls: ${summary.calls} (failed: ${summary.failures})")
+            appendLine("  duration: ${format(summary.duration)} ms")
+            appendLine("  dns: ${format(summary.dns)} ms")
+            appendLine("  connect: ${format(summary.connect)} ms")
+            appendLine("  tls: ${format(summary.tls)} ms")
+            appendLine("  ttfb: ${format(summary.ttfb)} ms")
+            appendLine("  body: ${summary.bodyBytes.p50 / 1024} / ${summary.bodyBytes.p95 / 1024} KiB")
+        }
+    }
+
+    private fun format(percentiles: NetworkMetrics.Percentiles): String {
+        return "${percentiles.p50} / ${percentiles.p95}"
+    }
+}
@@ -10,6 +10,7 @@ import androidx.annotation.MainThread
 import androidx.fragment.app.Fragment
 import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
+import androidx.lifecycle.lifecycleScope
 import com.bumptech.glide.Glide
 import crux.bphc.cms.R
 import crux.bphc.cms.app.Urls
@@ -19,16 +20,16 @@ import crux.bphc.cms.databinding.RowAttachmentDetailForumBinding
 import crux.bphc.cms.fragments.MoreOptionsFragment.Companion.newInstance
 import crux.bphc.cms.fragments.MoreOptionsFragment.OptionsViewModel
 import crux.bphc.cms.helper.CourseDataHandler
-import crux.bphc.cms.helper.CourseRequestHandler
+import crux.bphc.cms.helper.SyncScheduler
 import crux.bphc.cms.models.forum.Attachment
 import crux.bphc.cms.models.forum.Discussion
 import crux.bphc.cms.utils.Utils
 import crux.bphc.cms.widgets.HtmlTextView
 import crux.bphc.cms.widgets.PropertiesAlertDialog
 import io.realm.Realm
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.io.IOException
 import java.util.*
 
@@ -88,10 +89,10 @@ class DiscussionFragment : Fragment() {
         binding.empty.visibility = View.GONE
         binding.refresh.isRefreshing = false
 
-        binding.subject.text = discussion.subject
+        binding.subject.text = discussion.plainSubject
         binding.userName.text = discussion.userFullName
         binding.modifiedTime.text = Utils.formatDate(discussion.timeModified)
-        binding.message.text = HtmlTextView.parseHtml(discussion.message)
+        binding.message.text = HtmlTextView.parseHtml(discussion.messageWithToken)
         Glide.with(requireContext())
             .load(Urls.getProfilePicUrl(discussion.userPictureUrl))
             .into(binding.userPic)
@@ -157,48 +158,43 @@ class DiscussionFragment : Fragment() {
 
     private fun refreshContent(forumId: Int, discussionId: Int) {
         binding.refresh.isRefreshing = true
-        CoroutineScope(Dispatchers.IO).launch {
-            val realm = Realm.getDefaultInstance()
-            val courseDataHandler = CourseDataHandler(realm)
-            val courseRequestHandler = CourseRequestHandler()
-
+        // Leaving the screen cancels the sync, and what it would have written
+        viewLifecycleOwner.lifecycleScope.launch {
             try {
-                val discussions = courseRequestHandler.getForumDicussionsSync(forumId)
-                discussions.forEach { it.forumId = forumId }
-                courseDataHandler.setForumDiscussions(forumId, discussions)
-
-                val discussion = discussions.firstOrNull { it.discussionId == discussionId }
-                CoroutineScope(Dispatchers.Main).launch {
-                    if (discussion != null) {
-                        binding.empty.visibility = View.GONE
-                        binding.refresh.isRefreshing = false
-                        setDiscussion(discussion)
-                    } else {
-                        binding.empty.visibility = View.VISIBLE
-                        binding.refresh.isRefreshing = false
-                        Toast.makeText(requireContext(), getString(R.string.net_req_failed),
-                            Toast.LENGTH_SHORT
-                        ).show()
+                // A forum that is fresh isn't fetched again, so look in what's stored
+                val discussion = SyncScheduler.syncForums(listOf(forumId), SyncScheduler.Priority.VISIBLE)[forumId]
+                    ?.discussions?.firstOrNull { it.discussionId == discussionId }
+                    ?: withContext(Dispatchers.IO) {
+                        Realm.getDefaultInstance().use { realm ->
+                            CourseDataHandler(realm).getForumDiscussions(forumId)
+                                .firstOrNull { it.discussionId == discussionId }?.let { realm.copyFromRealm(it) }
+                        }
                     }
-                }
-            } catch (e: IOException) {
-                CoroutineScope(Dispatchers.Main).launch {
+                if (discussion != null) {
+                    binding.empty.visibility = View.GONE
+                    binding.refresh.isRefreshing = false
+                    setDiscussion(discussion)
+                } else {
                     binding.empty.visibility = View.VISIBLE
                     binding.refresh.isRefreshing = false
                     Toast.makeText(requireContext(), getString(R.string.net_req_failed),
                         Toast.LENGTH_SHORT
                     ).show()
                 }
-
+            } catch (e: IOException) {
+                binding.empty.visibility = View.VISIBLE
+                binding.refresh.isRefreshing = false
+                Toast.makeText(requireContext(), getString(R.string.net_req_failed),
+                    Toast.LENGTH_SHORT
+                ).show()
             }
-            realm.close()
         }
     }
 
     private fun downloadAttachment(attachment: Attachment) {
         Toast.makeText(activity, getString(R.string.downloading_file) + attachment.fileName,
             Toast.LENGTH_SHORT).show()
-        fileManager.downloadDiscussionAttachment(attachment, discussion.subject)
+        fileManager.downloadDiscussionAttachment(attachment)
     }
 
     private fun oneFileDownloaded(filename: String) {
@@ -7,16 +7,20 @@ import android.view.KeyEvent
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import android.widget.Toast
 import androidx.core.content.FileProvider
 import androidx.core.view.isVisible
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.viewModels
 import androidx.lifecycle.Observer
+import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.snackbar.Snackbar
 import crux.bphc.cms.BuildConfig
 import crux.bphc.cms.R
 import crux.bphc.cms.adapters.FilesAdapter
+import crux.bphc.cms.core.ContentStore
+import crux.bphc.cms.core.StorageManager
 import crux.bphc.cms.core.getFormattedFileSize
 import crux.bphc.cms.databinding.DownloadsFragmentBinding
 import crux.bphc.cms.models.Download
@@ -24,6 +28,7 @@ import crux.bphc.cms.models.SingleLiveEvent
 import crux.bphc.cms.models.UserAccount
 import crux.bphc.cms.utils.FileUtils
 import crux.bphc.cms.viewmodels.FilesViewModel
+import kotlinx.coroutines.launch
 import java.io.File
 
 class FilesFragment : Fragment() {
@@ -72,6 +77,12 @@ class FilesFragment : Fragment() {
             showDeleteConfirmationDialog(it)
         }
 
+        downloadsAdapter.onRowLongClickListener = {
+            if (it.isDirectory && viewModel.nestingLevel == 0) {
+                showStoragePolicyDialog(it)
+            }
+        }
+
         binding.downloadsRecycler.adapter = downloadsAdapter
 
         with(viewModel) {
@@ -122,11 +133,13 @@ class FilesFragment : Fragment() {
         }
     }
 
-    private fun openFile(file: File) {
+    private fun openFile(reference: File) {
+        StorageManager.onOpened(reference)
+        val file = ContentStore.resolve(reference) ?: reference
         val fileUri = FileProvider.getUriForFile(requireContext(), "${BuildConfig.APPLICATION_ID}.provider", file)
 
         val intent = Intent(Intent.ACTION_VIEW)
-        intent.setDataAndType(fileUri, FileUtils.getFileMimeType(file.name))
+        intent.setDataAndType(fileUri, FileUtils.getFileMimeType(reference.name))
         intent.flags = Intent.FLAG_ACTIVITY_CLEAR_TOP
         intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
 
@@ -137,7 +150,7 @@ class FilesFragment : Fragment() {
             startActivity(
                 Intent.createChooser(
                     intent,
-                    "No Application found to open File - ${file.name}"
+                    "No Application found to open File - ${reference.name}"
                 )
             )
         }
@@ -147,14 +160,42 @@ class FilesFragment : Fragment() {
         val fileType = getString(if (file.isDirectory) R.string.folder else R.string.file)
         MaterialAlertDialogBuilder(requireContext())
             .setTitle(getString(R.string.delete_file_dialog_title, fileType))
-            .setMessage(getString(R.string.delete_file_dialog_message, fileType, file.getFormattedFileSize(requireContext())))
+            .setMessage(getString(R.string.delete_file_dialog_message, fileType,
+                (ContentStore.resolve(file) ?: file).getFormattedFileSize(requireContext())))
             .setNegativeButton(R.string.delete_file_dialog_neutral) { _, _ -> /* Do nothing */ }
             .setPositiveButton(R.string.delete_file_dialog_positive) { _, _ -> viewModel.deleteFile(file) }
             .show()
 
     }
 
+    private fun showStoragePolicyDialog(directory: File) {
+        viewLifecycleOwner.lifecycleScope.launch {
+            val policy = viewModel.getStoragePolicy(directory)
+            if (policy == null) {
+                Toast.makeText(requireContext(), R.string.course_storage_not_a_course, Toast.LENGTH_SHORT).show()
+                return@launch
+            }
+
+            val budgets = resources.getStringArray(R.array.course_storage_budget_values).map { it.toLong() * MIB }
+            MaterialAlertDialogBuilder(requireContext())
+                .setTitle(getString(R.string.course_storage_dialog_title, directory.name))
+                .setSingleChoiceItems(R.array.course_storage_budget_entries,
+                    budgets.indexOf(policy.budget)) { dialog, which ->
+                    policy.budget = budgets[which]
+                    viewModel.setStoragePolicy(policy)
+                    dialog.dismiss()
+                }
+                .setNeutralButton(if (policy.isPinned) R.string.course_storage_unpin else R.string.course_storage_pin) { _, _ ->
+                    policy.isPinned = !policy.isPinned
+                    viewModel.setStoragePolicy(policy)
+                }
+                .show()
+        }
+    }
+
     companion object {
+        private const val MIB = 1024L * 1024
+
         @JvmStatic
         fun newInstance(): FilesFragment = FilesFragment()
     }
@@ -81,7 +81,7 @@ class FolderModuleFragment : Fragment() {
         if (forceDownload || !mFileManager.isModuleContentDownloaded(content)) {
             Toast.makeText(activity, "Downloading file - " + content.fileName, Toast.LENGTH_SHORT)
                 .show()
-            mFileManager.downloadModuleContent(content, module!!)
+            mFileManager.downloadModuleContent(content)
         } else {
             mFileManager.openModuleContent(content)
         }
@@ -7,6 +7,7 @@ import android.view.ViewGroup
 import android.widget.Toast
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.commit
+import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.bumptech.glide.Glide
@@ -15,15 +16,15 @@ import crux.bphc.cms.app.Urls
 import crux.bphc.cms.databinding.FragmentForumBinding
 import crux.bphc.cms.databinding.RowForumBinding
 import crux.bphc.cms.helper.CourseDataHandler
-import crux.bphc.cms.helper.CourseRequestHandler
+import crux.bphc.cms.helper.SyncScheduler
 import crux.bphc.cms.interfaces.ClickListener
 import crux.bphc.cms.models.forum.Discussion
 import crux.bphc.cms.utils.Utils
 import crux.bphc.cms.widgets.HtmlTextView
 import io.realm.Realm
-import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.io.IOException
 import java.util.*
 
@@ -38,7 +39,6 @@ class ForumFragment : Fragment() {
     private var forumId = 1
     private var courseName: String = ""
 
-    private lateinit var courseRequestHandler: CourseRequestHandler
     private lateinit var binding: FragmentForumBinding
 
     private lateinit var mAdapter: Adapter
@@ -51,7 +51,6 @@ class ForumFragment : Fragment() {
         forumId = requireArguments().getInt(FORUM_ID_KEY, -1)
         courseName = requireArguments().getString(COURSE_NAME_KEY, "")
 
-        courseRequestHandler = CourseRequestHandler()
     }
 
     override fun onStart() {
@@ -95,58 +94,52 @@ class ForumFragment : Fragment() {
 
     private fun refreshContent() {
         binding.swipeRefreshLayout.isRefreshing = true
-        CoroutineScope(Dispatchers.IO).launch {
-            val realm = Realm.getDefaultInstance()
-            val courseDataHandler = CourseDataHandler(realm)
-
+        // Leaving the screen cancels the sync, and what it would have written
+        viewLifecycleOwner.lifecycleScope.launch {
             try {
-                val discussions = courseRequestHandler.getForumDicussionsSync(forumId)
-                for (discussion in discussions) {
-                    discussion.forumId = forumId
-                }
-
-                courseDataHandler.setForumDiscussions(forumId, discussions)
-                realm.close()
-
-                CoroutineScope(Dispatchers.Main).launch {
-
-                    if (discussions.size == 0) {
-                        binding.tvEmpty.text = if (forumId != -1) getString(R.string.no_announcements) else getString(R.string.no_posts_to_display)
-                        binding.tvEmpty.visibility = View.VISIBLE
-                    } else {
-                        mAdapter.clearDiscussions()
-                        mAdapter.addDiscussions(discussions)
-                    }
-
+                // A forum that is fresh isn't fetched again, so show what's stored
+                val discussions = SyncScheduler.syncForums(listOf(forumId), SyncScheduler.Priority.VISIBLE)[forumId]
+                    ?.discussions ?: withContext(Dispatchers.IO) { getStoredDiscussions() }
+
+                if (discussions.size == 0) {
+                    binding.tvEmpty.text = if (forumId != -1) getString(R.string.no_announcements) else getString(R.string.no_posts_to_display)
+                    binding.tvEmpty.visibility = View.VISIBLE
+                } else {
                     mAdapter.clearDiscussions()
                     mAdapter.addDiscussions(discussions)
-                    binding.swipeRefreshLayout.isRefreshing = false
                 }
+
+                mAdapter.clearDiscussions()
+                mAdapter.addDiscussions(discussions)
+                binding.swipeRefreshLayout.isRefreshing = false
             } catch (e: IOException) {
-                val realmDiscussions = courseDataHandler.getForumDiscussions(forumId)
-                val discussions = realm.copyFromRealm(realmDiscussions)
-                CoroutineScope(Dispatchers.Main).launch {
-
-                    if (discussions.size == 0) {
-                        binding.tvEmpty.text = if (forumId != -1) getString(R.string.no_announcements) else getString(R.string.no_posts_to_display)
-                        binding.tvEmpty.visibility = View.VISIBLE
-                        Toast
-                            .makeText(context, getString(R.string.no_cached_data), Toast.LENGTH_SHORT)
-                            .show()
-                    } else {
-                        Toast.makeText(
-                            context, getString(R.string.loading_cached_data),
-                            Toast.LENGTH_SHORT,
-                        ).show()
-                        mAdapter.clearDiscussions()
-                        mAdapter.addDiscussions(discussions)
-                    }
-                    binding.swipeRefreshLayout.isRefreshing = false
+                val discussions = withContext(Dispatchers.IO) { getStoredDiscussions() }
+
+                if (discussions.size == 0) {
+                    binding.tvEmpty.text = if (forumId != -1) getString(R.string.no_announcements) else getString(R.string.no_posts_to_display)
+                    binding.tvEmpty.visibility = View.VISIBLE
+                    Toast
+                        .makeText(context, getString(R.string.no_cached_data), Toast.LENGTH_SHORT)
+                        .show()
+                } else {
+                    Toast.makeText(
+                        context, getString(R.string.loading_cached_data),
+                        Toast.LENGTH_SHORT,
+                    ).show()
+                    mAdapter.clearDiscussions()
+                    mAdapter.addDiscussions(discussions)
                 }
+                binding.swipeRefreshLayout.isRefreshing = false
             }
         }
     }
 
+    private fun getStoredDiscussions(): List<Discussion> {
+        return Realm.getDefaultInstance().use { realm ->
+            realm.copyFromRealm(CourseDataHandler(realm).getForumDiscussions(forumId))
+        }
+    }
+
     private inner class Adapter(
         private val clickListener: ClickListener,
         val mDiscussions: MutableList<Discussion>,
@@ -184,9 +177,9 @@ class ForumFragment : Fragment() {
                     .load(Urls.getProfilePicUrl(discussion.userPictureUrl))
                     .into(itemBinding.userPic)
 
-                itemBinding.subject.text = discussion.subject
+                itemBinding.subject.text = discussion.plainSubject
                 itemBinding.userName.text = discussion.userFullName
-                itemBinding.message.text = HtmlTextView.parseHtml(discussion.message)
+                itemBinding.message.text = HtmlTextView.parseHtml(discussion.messageWithToken)
                 itemBinding.modifiedTime.text = Utils.formatDate(discussion.timeModified)
 
                 if (!discussion.isPinned) {
@@ -67,6 +67,10 @@ class MoreFragment : Fragment() {
             pushView(PreferencesFragment(), "settings")
         }
 
+        binding.diagnosticsCard.setOnClickListener {
+            pushView(DiagnosticsFragment(), "diagnostics")
+        }
+
         binding.logoutCard.setOnClickListener {
             askToLogout().show()
         }
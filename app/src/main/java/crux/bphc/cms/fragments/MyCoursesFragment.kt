@@ -18,6 +18,8 @@ import androidx.fragment.app.Fragment
 import androidx.lifecycle.lifecycleScope
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
+import androidx.work.WorkInfo
+import androidx.work.WorkManager
 import com.google.android.material.badge.BadgeDrawable
 import com.google.android.material.badge.BadgeUtils
 import com.google.android.material.badge.ExperimentalBadgeUtils
@@ -25,15 +27,16 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import crux.bphc.cms.R
 import crux.bphc.cms.activities.CourseDetailActivity
 import crux.bphc.cms.activities.MainActivity
+import crux.bphc.cms.background.InitialSyncWorker
 import crux.bphc.cms.databinding.FragmentMyCoursesBinding
 import crux.bphc.cms.databinding.RowCourseBinding
 import crux.bphc.cms.exceptions.InvalidTokenException
 import crux.bphc.cms.helper.CourseDataHandler
 import crux.bphc.cms.helper.CourseDownloader
 import crux.bphc.cms.helper.CourseRequestHandler
+import crux.bphc.cms.helper.SyncScheduler
 import crux.bphc.cms.interfaces.ClickListener
 import crux.bphc.cms.models.course.Course
-import crux.bphc.cms.models.course.CourseSection
 import crux.bphc.cms.utils.UserUtils
 import io.realm.Realm
 import kotlinx.coroutines.*
@@ -159,6 +162,7 @@ class MyCoursesFragment : Fragment() {
                 override fun onCourseDataDownloaded() {
                     course.downloadedFiles = courseDownloader.getDownloadedContentCount(course.id)
                     course.totalFiles = courseDownloader.getTotalContentCount(course.id)
+                    courseDataHandler.setDownloadedFileCount(course.id, course.downloadedFiles)
                     if (course.totalFiles == course.downloadedFiles) {
                         Toast.makeText(activity, "All files already downloaded", Toast.LENGTH_SHORT).show()
                         course.downloadStatus = -1
@@ -170,6 +174,7 @@ class MyCoursesFragment : Fragment() {
 
                 override fun onCourseContentDownloaded() {
                     course.downloadedFiles = course.downloadedFiles + 1
+                    courseDataHandler.setDownloadedFileCount(course.id, course.downloadedFiles)
                     if (course.downloadedFiles == course.totalFiles) {
                         course.downloadStatus = -1
                         courseDownloader.unregisterReceiver()
@@ -186,7 +191,7 @@ class MyCoursesFragment : Fragment() {
                     courseDownloader.unregisterReceiver()
                 }
             })
-            courseDownloader.downloadCourseData(course.id)
+            courseDownloader.downloadCourseData(viewLifecycleOwner.lifecycleScope, course.id)
             return@ClickListener true
         }
 
@@ -226,9 +231,39 @@ class MyCoursesFragment : Fragment() {
             refreshNotifications()
         }
 
+        // Course contents are backfilled in the background right after login
+        WorkManager.getInstance(requireContext())
+            .getWorkInfosForUniqueWorkLiveData(InitialSyncWorker.WORK_NAME)
+            .observe(viewLifecycleOwner) { workInfos ->
+                // The sync runs as a chain, one stage at a time
+                showInitialSyncProgress(workInfos.firstOrNull { it.state == WorkInfo.State.RUNNING }
+                        ?: workInfos.firstOrNull { !it.state.isFinished })
+            }
+
         checkEmpty()
     }
 
+    private fun showInitialSyncProgress(workInfo: WorkInfo?) {
+        if (workInfo == null || workInfo.state.isFinished) {
+            if (binding.syncProgress.isVisible) {
+                binding.syncProgress.visibility = View.GONE
+                mAdapter.filterCoursesByName(courses, binding.searchCourseET.text.toString())
+            }
+            return
+        }
+
+        val completed = workInfo.progress.getInt(InitialSyncWorker.PROGRESS_COMPLETED, 0)
+        val total = workInfo.progress.getInt(InitialSyncWorker.PROGRESS_TOTAL, 0)
+        binding.syncProgress.visibility = View.VISIBLE
+        binding.syncProgressText.text = when (workInfo.progress.getInt(InitialSyncWorker.PROGRESS_STAGE, 0)) {
+            InitialSyncWorker.Stage.FORUMS.ordinal -> getString(R.string.initial_sync_forums_progress, completed, total)
+            InitialSyncWorker.Stage.SITE_NEWS.ordinal -> getString(R.string.initial_sync_site_news_progress)
+            else -> getString(R.string.initial_sync_progress, completed, total)
+        }
+        binding.syncProgressBar.max = total.coerceAtLeast(1)
+        binding.syncProgressBar.setProgressCompat(completed, true)
+    }
+
     private fun checkEmpty() {
         if (courses.isEmpty()) {
             binding.empty?.visibility = View.VISIBLE
@@ -275,32 +310,14 @@ class MyCoursesFragment : Fragment() {
     private suspend fun updateCourseContent() {
         withContext(Dispatchers.IO) {
             Log.i(TAG, "Fetching course contents")
-            val courseRequestHandler = CourseRequestHandler()
-            val promises = courses.map map@{
-                async innerAsync@{
-                    val sections: MutableList<CourseSection>
-                    try {
-                        sections = courseRequestHandler.getCourseDataSync(it.id)
-                    } catch (e: IOException) {
-                        Log.e(TAG, "IOException when syncing course: ${it.id}}", e)
-                        return@innerAsync false
-                    }
-
-                    val realm = Realm.getDefaultInstance() // tie a realm instance to this thread
-                    val courseDataHandler = CourseDataHandler(realm)
-                    val newPartsInSections = courseDataHandler.isolateNewCourseData(it.id, sections)
-                    courseDataHandler.replaceCourseData(it.id, sections)
-
-                    realm.close() // let's not forget to do this
-                    if (newPartsInSections.isNotEmpty()) {
-                        return@innerAsync true
-                    }
-                    return@innerAsync false
-                }
+            coursesUpdated = try {
+                // Only the modules that changed since the last sync are fetched
+                SyncScheduler.syncCourses(courses.map { it.id }).size
+            } catch (e: IOException) {
+                Log.e(TAG, "IOException when syncing course contents", e)
+                0
             }
 
-            coursesUpdated = promises.awaitAll().fold(0) { i, x -> if (x) i + 1 else i }
-
             withContext(Dispatchers.Main) {
                 binding.swipeRefreshLayout?.isRefreshing = false
                 mAdapter.filterCoursesByName(courses, binding.searchCourseET.text.toString())
@@ -352,7 +369,7 @@ class MyCoursesFragment : Fragment() {
         val realm = Realm.getDefaultInstance()
         val courseDataHandler = CourseDataHandler(realm)
         val notifCount: Int = courseDataHandler.unreadNotificationCount
-        val visibility: Boolean = courseDataHandler.unreadNotificationCount > 0
+        val visibility: Boolean = notifCount > 0
         badge = BadgeDrawable.create(requireContext()).apply {
             badgeGravity = BadgeDrawable.TOP_END
             number = notifCount
@@ -416,7 +433,7 @@ class MyCoursesFragment : Fragment() {
         private fun sortCourses(courseList: List<Course>): List<Course> {
             return courseList.sortedWith { o1, o2 ->
                 if (o1.isFavorite == o2.isFavorite) {
-                    o1.shortName.compareTo(o2.shortName)
+                    o1.plainShortName.compareTo(o2.plainShortName)
                 } else {
                     if (!o1.isFavorite && o2.isFavorite) 1 else -1
                 }
@@ -427,7 +444,7 @@ class MyCoursesFragment : Fragment() {
             var filteredCourses: MutableList<Course> = ArrayList()
             if (courseName.isNotEmpty()) {
                 for (course in courseList) {
-                    if (course.shortName.lowercase(Locale.ROOT).contains(courseName)) {
+                    if (course.plainShortName.lowercase(Locale.ROOT).contains(courseName)) {
                         filteredCourses.add(course)
                     }
                 }
@@ -3,10 +3,12 @@ package crux.bphc.cms.fragments
 import android.os.Bundle
 import android.widget.Toast
 import androidx.lifecycle.lifecycleScope
+import androidx.preference.ListPreference
 import androidx.preference.Preference
 import androidx.preference.PreferenceFragmentCompat
 import androidx.preference.SwitchPreference
 import crux.bphc.cms.R
+import crux.bphc.cms.background.StorageWorker
 import crux.bphc.cms.core.PushNotifRegManager
 import crux.bphc.cms.models.UserAccount
 import kotlinx.coroutines.launch
@@ -85,6 +87,18 @@ class PreferencesFragment : PreferenceFragmentCompat() {
                     true
                 }
         }
+
+        val storageBudget: ListPreference? = findPreference("storage_budget")
+        storageBudget?.apply {
+            value = (UserAccount.storageBudget / MIB).toString()
+            summaryProvider = ListPreference.SimpleSummaryProvider.getInstance()
+            onPreferenceChangeListener =
+                Preference.OnPreferenceChangeListener { _: Preference?, o: Any? ->
+                    UserAccount.storageBudget = (o as String).toLong() * MIB
+                    StorageWorker.enqueue(requireContext())
+                    true
+                }
+        }
     }
 
     override fun onSaveInstanceState(outState: Bundle) {
@@ -94,5 +108,7 @@ class PreferencesFragment : PreferenceFragmentCompat() {
 
     companion object {
         const val KEY_SHOW_SETTINGS = "showSettings"
+
+        private const val MIB = 1024L * 1024
     }
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+package crux.bphc.cms.helper;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import crux.bphc.cms.models.course.Content;
+
+/**
+ * Resolves the names of contents of a course that share the same file name,
+ * so that they don't overwrite each other on disk. Contents must be passed in
+ * the order they appear in the course. A content whose name has already been
+ * seen is renamed to the format <code>&lt;original&gt;(count)[.ext]</code>.
+ */
+class ContentNameResolver {
+
+    private final Set<String> fileNames = new HashSet<>();
+
+    void resolve(@NonNull Content content) {
+        while (!fileNames.add(content.getFileName())) {
+            changeName(content);
+        }
+    }
+
+    private static void changeName(Content content) {
+        String fileName = content.getFileName();
+        String newFileName = fileName;
+
+        // new file name will be of the format <original>(count)[.ext]
+        int lastIndex = fileName.lastIndexOf('(');
+        int closingIndex = fileName.lastIndexOf(')');
+        boolean countUpdated = false;
+        if (lastIndex != -1 && closingIndex > lastIndex) {
+            String fileNum = fileName.substring(lastIndex + 1, closingIndex);
+            try {
+                int count = Integer.parseInt(fileNum);
+                newFileName = fileName.substring(0, lastIndex + 1)
+                        + ++count
+                        + fileName.substring(closingIndex);
+                countUpdated = true;
+            } catch (NumberFormatException e) {
+            }
+        }
+
+        if (!countUpdated) {
+            int extension = fileName.lastIndexOf('.');
+            if (extension != -1) {
+                newFileName = fileName.substring(0, extension) + "(1)" +
+                        fileName.substring(extension);
+            } else {
+                newFileName = fileName + "(1)";
+            }
+        }
+        content.setFileName(newFileName);
+    }
+}
@@ -0,0 +1,270 @@
+package crux.bphc.cms.helper;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import crux.bphc.cms.models.course.Content;
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.Module;
+
+/**
+ * The difference between the locally stored contents of a course and
+ * incoming contents from Moodle.
+ * <p>
+ * Incoming sections and modules are compared, as they are fed in, against a
+ * {@link CourseIndex} of the stored course, so the whole diff is a single
+ * pass over the incoming data. A section is <em>modified</em> if its name or
+ * summary changed. A module is <em>added</em> if it isn't stored for the
+ * course and <em>modified</em> if it has contents that aren't stored for that
+ * module. Contents are compared by file name, file url and modified time,
+ * the same way as {@link Content#equals}. Stored contents that a module no
+ * longer has are <em>removed</em>, even if the module is kept.
+ * <p>
+ * Removed sections and modules are only known once all incoming data has
+ * been fed in, and only make sense if it covers the entire course. See
+ * {@link #finish}. Only ids and content keys are recorded, so that a
+ * changeset stays small even when the incoming data is streamed.
+ */
+public class CourseChangeset {
+
+    private final CourseIndex index;
+
+    private final Set<Integer> addedSectionIds = new HashSet<>();
+    private final Set<Integer> modifiedSectionIds = new HashSet<>();
+    private final Set<Integer> removedSectionIds = new HashSet<>();
+    private final Set<Integer> addedModuleIds = new HashSet<>();
+    private final Set<Integer> modifiedModuleIds = new HashSet<>();
+    private final Set<Integer> removedModuleIds = new HashSet<>();
+    private final List<ContentKey> addedContents = new ArrayList<>();
+    private final List<ContentKey> removedContents = new ArrayList<>();
+
+    private final Set<Integer> seenSectionIds = new HashSet<>();
+    private final Set<Integer> seenModuleIds = new HashSet<>();
+
+    CourseChangeset(@NonNull CourseIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Computes the changeset of an entire set of incoming sections.
+     *
+     * @param complete If <code>sections</code> holds the entire course. If
+     *                 not, nothing is reported as removed.
+     */
+    @NonNull
+    static CourseChangeset diff(@NonNull CourseIndex index, @NonNull List<CourseSection> sections,
+                                boolean complete) {
+        CourseChangeset changeset = new CourseChangeset(index);
+        for (CourseSection section : sections) {
+            changeset.diffSection(section);
+            for (Module module : section.getModules()) {
+                changeset.diffModule(module);
+            }
+        }
+        if (complete) {
+            changeset.finish();
+        }
+        return changeset;
+    }
+
+    /**
+     * Compares an incoming section, ignoring its modules. Modules must be
+     * compared separately using {@link #diffModule}.
+     *
+     * @return <code>true</code> if the section is not stored locally
+     */
+    boolean diffSection(@NonNull CourseSection section) {
+        seenSectionIds.add(section.getId());
+        CourseIndex.SectionEntry entry = index.getSection(section.getId());
+        if (entry == null) {
+            addedSectionIds.add(section.getId());
+            return true;
+        }
+        if (!entry.name.equals(section.getName()) || !entry.summary.equals(section.getSummary())) {
+            modifiedSectionIds.add(section.getId());
+        }
+        return false;
+    }
+
+    /**
+     * Compares an incoming module, along with its contents. Only new
+     * contents make a module modified; contents it dropped are just recorded
+     * as removed.
+     *
+     * @return <code>true</code> if the module is new or modified
+     */
+    boolean diffModule(@NonNull Module module) {
+        seenModuleIds.add(module.getId());
+        CourseIndex.ModuleEntry entry = index.getModule(module.getId());
+        if (entry == null) {
+            addedModuleIds.add(module.getId());
+            for (Content content : module.getContents()) {
+                addedContents.add(new ContentKey(content));
+            }
+            return true;
+        }
+
+        boolean modified = false;
+        Set<ContentKey> keys = new HashSet<>();
+        for (Content content : module.getContents()) {
+            ContentKey key = new ContentKey(content);
+            keys.add(key);
+            if (!entry.contents.contains(key)) {
+                addedContents.add(key);
+                modified = true;
+            }
+        }
+        for (ContentKey key : entry.contents) {
+            if (!keys.contains(key)) {
+                removedContents.add(key);
+            }
+        }
+        if (modified) {
+            modifiedModuleIds.add(module.getId());
+        }
+        return modified;
+    }
+
+    /**
+     * Records everything stored locally that wasn't part of the incoming
+     * data as removed. Must only be called once all incoming data has been
+     * compared, and only if it covers the entire course.
+     */
+    void finish() {
+        for (Integer sectionId : index.getSectionIds()) {
+            if (!seenSectionIds.contains(sectionId)) {
+                removedSectionIds.add(sectionId);
+            }
+        }
+        for (Map.Entry<Integer, CourseIndex.ModuleEntry> entry : index.getModules().entrySet()) {
+            if (!seenModuleIds.contains(entry.getKey())) {
+                removedModuleIds.add(entry.getKey());
+                removedContents.addAll(entry.getValue().contents);
+            }
+        }
+    }
+
+    /**
+     * @return If the module should be marked as unread once written. A module
+     *         is unread if it was added or modified, or was already unread.
+     *         New sections, and courses that have never been stored, don't
+     *         mark their modules as unread.
+     */
+    boolean isUnread(@NonNull Module module, @NonNull CourseSection section) {
+        if (index.isEmpty() || !index.hasSection(section.getId())) {
+            return module.isUnread();
+        }
+        CourseIndex.ModuleEntry entry = index.getModule(module.getId());
+        return entry == null || entry.unread || modifiedModuleIds.contains(module.getId());
+    }
+
+    /**
+     * @return <code>true</code> if nothing was stored for the course before,
+     *         in which case everything is reported as added
+     */
+    public boolean isInitialSync() {
+        return index.isEmpty();
+    }
+
+    /**
+     * @return <code>true</code> if there are new sections, or new or modified
+     *         modules
+     */
+    public boolean hasNewContent() {
+        return !addedSectionIds.isEmpty() || !addedModuleIds.isEmpty() || !modifiedModuleIds.isEmpty();
+    }
+
+    @NonNull
+    public Set<Integer> getAddedSectionIds() {
+        return addedSectionIds;
+    }
+
+    /**
+     * @return The sections that are stored, but whose name or summary changed
+     */
+    @NonNull
+    public Set<Integer> getModifiedSectionIds() {
+        return modifiedSectionIds;
+    }
+
+    @NonNull
+    public Set<Integer> getRemovedSectionIds() {
+        return removedSectionIds;
+    }
+
+    @NonNull
+    public Set<Integer> getAddedModuleIds() {
+        return addedModuleIds;
+    }
+
+    @NonNull
+    public Set<Integer> getModifiedModuleIds() {
+        return modifiedModuleIds;
+    }
+
+    @NonNull
+    public Set<Integer> getRemovedModuleIds() {
+        return removedModuleIds;
+    }
+
+    @NonNull
+    public List<ContentKey> getAddedContents() {
+        return addedContents;
+    }
+
+    @NonNull
+    public List<ContentKey> getRemovedContents() {
+        return removedContents;
+    }
+
+    /**
+     * Identifies a content by its file name, file url and modified time.
+     */
+    public static final class ContentKey {
+
+        private final String fileName;
+        private final String fileUrl;
+        private final long timeModified;
+
+        ContentKey(@NonNull Content content) {
+            fileName = content.getFileName();
+            fileUrl = content.getFileUrl();
+            timeModified = content.getTimeModified();
+        }
+
+        @NonNull
+        public String getFileName() {
+            return fileName;
+        }
+
+        @NonNull
+        public String getFileUrl() {
+            return fileUrl;
+        }
+
+        public long getTimeModified() {
+            return timeModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ContentKey)) return false;
+            ContentKey that = (ContentKey) o;
+            return timeModified == that.timeModified
+                    && fileName.equals(that.fileName)
+                    && fileUrl.equals(that.fileUrl);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileName, fileUrl, timeModified);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package crux.bphc.cms.helper;
 
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -7,20 +8,34 @@ import androidx.annotation.Nullable;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import crux.bphc.cms.models.UserAccount;
 import crux.bphc.cms.models.core.Notification;
+import crux.bphc.cms.models.core.SyncCheckpoint;
 import crux.bphc.cms.models.course.Content;
 import crux.bphc.cms.models.course.Course;
 import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.CourseStats;
+import crux.bphc.cms.models.course.CourseSyncState;
 import crux.bphc.cms.models.course.Module;
 import crux.bphc.cms.models.forum.Discussion;
+import crux.bphc.cms.network.APIClient;
 import io.realm.Realm;
 import io.realm.RealmList;
+import io.realm.RealmModel;
 import io.realm.RealmResults;
 import io.realm.Sort;
 
@@ -53,7 +68,9 @@ public class CourseDataHandler {
 
     /**
      * Replaces the courses present in the db with the incoming
-     * <code>courses</code> list.
+     * <code>courses</code> list. Only courses that are new or have changed
+     * are written, and only courses absent from <code>courses</code> are
+     * deleted. The favorite status of existing courses is left untouched.
      *
      * @param courses the list of new courses to be replaced in db.
      * @throws NullPointerException if the Realm instance has not been set during
@@ -61,19 +78,23 @@ public class CourseDataHandler {
      */
     public void replaceCourses(@NotNull List<Course> courses) {
         if (realm != null) {
-            for (Course c : courses) {
-                // We query the db each iteration, this should be more efficient
-                // than doing an O(n^2) search or multiple O(n) maps for each
-                // field we want to transfer over
-                Course inDb = realm.where(Course.class).equalTo("id", c.getId()).findFirst();
-                if (inDb != null) {
-                    c.setFavorite(inDb.isFavorite());
+            realm.executeTransaction(r -> {
+                Set<Integer> ids = new HashSet<>();
+                for (Course course : courses) {
+                    ids.add(course.getId());
+                    Course inDb = r.where(Course.class).equalTo("id", course.getId()).findFirst();
+                    if (inDb == null) {
+                        HtmlNormalizer.normalize(course);
+                        r.insertOrUpdate(course);
+                    } else if (!inDb.getShortName().equals(course.getShortName())
+                            || !inDb.getFullName().equals(course.getFullName())) {
+                        course.setFavorite(inDb.isFavorite()); // local only
+                        HtmlNormalizer.normalize(course);
+                        r.insertOrUpdate(course);
+                    }
                 }
-            }
-            realm.beginTransaction();
-            realm.delete(Course.class);
-            realm.copyToRealm(courses);
-            realm.commitTransaction();
+                deleteAbsent(r.where(Course.class).findAll(), Course::getId, ids);
+            });
         } else {
             throw new NullPointerException("Realm instance is null");
         }
@@ -88,12 +109,31 @@ public class CourseDataHandler {
         }
     }
 
+    /**
+     * Replaces the notifications present in the db with the incoming
+     * <code>notifications</code>, writing only those that are new or have
+     * changed and deleting only those absent from the list.
+     */
     public void replaceNotifications(@NotNull List<Notification> notifications) {
         if (realm != null) {
-            realm.beginTransaction();
-            realm.delete(Notification.class);
-            realm.copyToRealm(notifications);
-            realm.commitTransaction();
+            realm.executeTransaction(r -> {
+                Set<Integer> ids = new HashSet<>();
+                for (Notification notification : notifications) {
+                    ids.add(notification.getNotificationId());
+                    Notification inDb = r.where(Notification.class)
+                            .equalTo("notificationId", notification.getNotificationId())
+                            .findFirst();
+                    if (inDb == null || inDb.getUserIdTo() != notification.getUserIdTo()
+                            || inDb.getRead() != notification.getRead()
+                            || !inDb.getSubject().equals(notification.getSubject())
+                            || !inDb.getTimeCreated().equals(notification.getTimeCreated())
+                            || !inDb.getMessage().equals(notification.getMessage())
+                            || !Objects.equals(inDb.getUrl(), notification.getUrl())) {
+                        r.insertOrUpdate(notification);
+                    }
+                }
+                deleteAbsent(r.where(Notification.class).findAll(), Notification::getNotificationId, ids);
+            });
         } else {
             throw new NullPointerException("Realm instance is null");
         }
@@ -112,9 +152,9 @@ public class CourseDataHandler {
     }
 
     public int getUnreadNotificationCount() {
-        return realm.where(Notification.class)
+        return (int) realm.where(Notification.class)
                 .equalTo("read", false)
-                .findAll().size();
+                .count();
     }
 
     /**
@@ -153,152 +193,331 @@ public class CourseDataHandler {
     }
 
     /**
+     * Replaces the contents of a course with <code>sections</code>. Only
+     * sections and modules that are new or have changed are written, and only
+     * those absent from <code>sections</code> are deleted. A module's unread
+     * flag is only ever set by this, never cleared.
+     *
      * @param courseId courseId for which the sectionList data is given
      * @param sections sectionList data
      */
     public void replaceCourseData(int courseId, @NonNull List<CourseSection> sections) {
-        realm.executeTransaction(realm -> {
-            sections.forEach(section -> {
-                section.setCourseId(courseId);
-                section.getModules().forEach(module -> { // Worst case complexity is O(n^3).
-                    module.setCourseSectionId(section.getId());                      // Let's hope it never gets that bad.
-                    module.getContents().forEach(content -> content.setModuleId(module.getId()));
-                });
-            });
-            realm.where(CourseSection.class).equalTo("courseId", courseId).findAll().deleteAllFromRealm();
-            realm.copyToRealmOrUpdate(sections);
+        realm.executeTransaction(r -> {
+            CourseChangeset changeset = CourseChangeset.diff(CourseIndex.load(r, courseId), sections, true);
+            for (CourseSection section : sections) {
+                RealmList<Module> modules = new RealmList<>();
+                for (Module module : section.getModules()) {
+                    modules.add(upsertModule(r, section.getId(), module));
+                }
+                upsertSection(r, courseId, section, modules);
+            }
+            deleteRemoved(r, changeset);
+            updateCourseStats(r, courseId);
         });
     }
 
     /**
-     * Return a list of <code>CourseSection</code> for a course that contains
-     * only new course sections or contain course sections with only new modules.
-     * Note that if a CourseSection has new modules, only those modules will be
-     * available through {@link CourseSection#getModules}.
-     * @param courseId The courseId for which data is to be isolated
-     * @param sections The list of course sections to compare against the local
-     *                 database
-     * @return List of <code>CourseSection</code> that either contains new
-     *         course sections or contain <code>CourseSection</code> with only
-     *         new modules.
+     * Replaces the contents of a course with those read from <code>reader</code>,
+     * decoding and writing one module at a time so that the entire course is
+     * never held in memory. The reader is expected to be positioned at the
+     * JSON array of sections returned by <code>core_course_get_contents</code>.
+     * Realm's write lock is held while the reader is read, which blocks writes
+     * on every other thread, including the main thread. So, the reader must
+     * not read off the network; see
+     * {@link CourseRequestHandler#openCourseDataReaderSync}.
+     * <p>
+     * Names of contents are resolved the same way as
+     * {@link CourseRequestHandler#getCourseDataSync}, and modules are marked as
+     * unread the same way as {@link #diffCourseData}. If the response can't be
+     * read completely, the local data is left untouched.
+     *
+     * @return The changes made to the course
+     * @throws IOException If the response could not be read or was malformed
      */
-    @NotNull
-    public List<CourseSection> isolateNewCourseData(int courseId, @NonNull List<CourseSection> sections) {
-        final List<CourseSection> newData = new ArrayList<>();
+    @NonNull
+    public CourseChangeset replaceCourseData(int courseId, @NonNull JsonReader reader) throws IOException {
+        Gson gson = APIClient.getGson();
+        ContentNameResolver resolver = new ContentNameResolver();
+        CourseChangeset changeset = new CourseChangeset(CourseIndex.load(realm, courseId));
 
-        if (realm.where(CourseSection.class).equalTo("courseId", courseId).findAll().isEmpty()) {
-            newData.addAll(sections); // Everything is new
-        } else {
-            newData.addAll(isolateNewSections(sections));
-            newData.addAll(isolateNewAndModifiedModulesInSections(sections.stream()
-                    .filter(section -> !newData.contains(section))
-                    .collect(Collectors.toList())));
+        realm.beginTransaction();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                CourseSection section = new CourseSection();
+                RealmList<Module> modules = new RealmList<>();
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    switch (name) {
+                        case "id":
+                            section.setId(reader.nextInt());
+                            break;
+                        case "name":
+                            section.setName(reader.nextString());
+                            break;
+                        case "section":
+                            section.setSectionNum(reader.nextInt());
+                            break;
+                        case "summary":
+                            section.setSummary(reader.nextString());
+                            break;
+                        case "modules":
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                Module module = gson.fromJson(reader, Module.class);
+                                for (Content content : module.getContents()) {
+                                    resolver.resolve(content);
+                                    content.setModuleId(module.getId());
+                                }
+                                changeset.diffModule(module);
+                                modules.add(upsertModule(realm, section.getId(), module));
+                            }
+                            reader.endArray();
+                            break;
+                        default:
+                            reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                changeset.diffSection(section);
+                for (Module module : modules) {
+                    if (module.getCourseSectionId() != section.getId()) {
+                        module.setCourseSectionId(section.getId());
+                    }
+                    if (changeset.isUnread(module, section) && !module.isUnread()) {
+                        module.setUnread(true);
+                    }
+                }
+                upsertSection(realm, courseId, section, modules);
+            }
+            reader.endArray();
+
+            changeset.finish();
+            deleteRemoved(realm, changeset);
+            updateCourseStats(realm, courseId);
+        } catch (IOException | RuntimeException e) {
+            realm.cancelTransaction();
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException("Malformed contents of course: " + courseId, e);
         }
-        return newData;
+        realm.commitTransaction();
+        return changeset;
     }
 
     /**
-     * Return a list of <code>CourseSection</code> that are new and are not
-     * present locally.
-     * @param sections The sections that should be compared against the database
-     * @return List of <code>CourseSection</code> that are new
+     * Replaces only the given modules, leaving the rest of the course untouched.
+     * The modules are expected to already be present locally, in the same
+     * sections.
+     *
+     * @param sections Sections containing only the modules that are to be replaced
      */
-    private List<CourseSection> isolateNewSections(@NonNull List<CourseSection> sections) {
-        Set<Integer> sectionsIds = sections.stream().map(CourseSection::getId).collect(Collectors.toSet());
-        RealmResults<CourseSection> results = realm.where(CourseSection.class)
-                .in("id", sectionsIds.toArray(new Integer[0]))
-                .findAll();
-        Set<Integer> inDBIds = results.stream().map(CourseSection::getId).collect(Collectors.toSet());
-
-        sectionsIds.removeAll(inDBIds); // contains ids of new sections
-        return sections.stream().filter(section -> sectionsIds.contains(section.getId())).collect(Collectors.toList());
+    public void replaceModules(@NonNull List<CourseSection> sections) {
+        realm.executeTransaction(r -> {
+            Set<Integer> courseIds = new HashSet<>();
+            for (CourseSection section : sections) {
+                section.getModules().forEach(module -> upsertModule(r, section.getId(), module));
+                CourseSection inDb = r.where(CourseSection.class).equalTo("id", section.getId()).findFirst();
+                if (inDb != null) courseIds.add(inDb.getCourseId());
+            }
+            courseIds.forEach(courseId -> updateCourseStats(r, courseId));
+        });
     }
 
-
     /**
-     * Return a list of <code>CourseSection</code> that differ from the local
-     * copy. The difference can be either by the existence of new modules or
-     * modification of existing modules. Note that If a
-     * <code>CourseSection</code> instance not present locally is passed to the
-     * function, it will treat all its modules as new.
+     * Writes <code>module</code> if it is new or differs from the stored copy.
+     * The stored unread flag is kept, unless <code>module</code> is unread.
      *
-     * @param sections The sections that should be compared against the database
-     * @return List of <code>CourseSection</code> that have been modified.
+     * @return The managed module
      */
-    private List<CourseSection> isolateNewAndModifiedModulesInSections(@NonNull List<CourseSection> sections) {
-        List<CourseSection> retSections = new ArrayList<>();
-        for (CourseSection section : sections) {
-            CourseSection retSection = section.deepCopy();
-            List<Module> modules = section.getModules();
-            List<Module> retModules = new ArrayList<>();
-
-            RealmResults<Module> results = realm.where(Module.class)
-                    .in("id", sections.stream().flatMap(courseSection -> courseSection.getModules().stream())
-                    .map(Module::getId).distinct().toArray(Integer[]::new))
-                    .findAll();
-            Set<Integer> inDBIds = results.stream().map(Module::getId).collect(Collectors.toSet());
-
-            for (Module module : modules) {
-                if (!inDBIds.contains(module.getId())) {
-                    // Add the modules that are brand new
-                    module.setUnread(true);
-                    retModules.add(module);
-                } else {
-                    Module mod = isolateNewContentInModules(module);
-                    if (mod != null) {
-                        retModules.add(mod);
-                    }
-                }
+    @NonNull
+    private static Module upsertModule(@NonNull Realm r, int sectionId, @NonNull Module module) {
+        module.setCourseSectionId(sectionId);
+        module.getContents().forEach(content -> content.setModuleId(module.getId()));
+
+        Module inDb = r.where(Module.class).equalTo("id", module.getId()).findFirst();
+        if (inDb != null && isSameModule(inDb, module)) {
+            if (module.isUnread() && !inDb.isUnread()) {
+                inDb.setUnread(true);
             }
-            if (!retModules.isEmpty()) {
-                retSection.setModules(new RealmList<>(retModules.toArray(new Module[0])));
-                retSections.add(retSection);
+            return inDb;
+        }
+
+        if (inDb != null) {
+            module.setUnread(module.isUnread() || inDb.isUnread()); // local only
+            inDb.getContents().deleteAllFromRealm(); // contents have no primary key
+        }
+        HtmlNormalizer.normalize(module, UserAccount.INSTANCE.getToken());
+        r.insertOrUpdate(module);
+        return r.where(Module.class).equalTo("id", module.getId()).findFirst();
+    }
+
+    /**
+     * Writes <code>section</code>, linked to the already managed
+     * <code>modules</code>, if it is new or differs from the stored copy.
+     */
+    private static void upsertSection(@NonNull Realm r, int courseId, @NonNull CourseSection section,
+                                      @NonNull RealmList<Module> modules) {
+        section.setCourseId(courseId);
+        CourseSection inDb = r.where(CourseSection.class).equalTo("id", section.getId()).findFirst();
+        if (inDb != null && inDb.getCourseId() == courseId
+                && inDb.getSectionNum() == section.getSectionNum()
+                && inDb.getName().equals(section.getName())
+                && inDb.getSummary().equals(section.getSummary())
+                && inDb.getModules().equals(modules)) {
+            return;
+        }
+        // Managed modules in the list are linked, not written again
+        section.setModules(modules);
+        HtmlNormalizer.normalize(section, UserAccount.INSTANCE.getToken());
+        r.insertOrUpdate(section);
+    }
+
+    private static boolean isSameModule(@NonNull Module inDb, @NonNull Module module) {
+        if (inDb.getInstance() != module.getInstance()
+                || inDb.getCourseSectionId() != module.getCourseSectionId()
+                || inDb.getModType() != module.getModType()
+                || !inDb.getName().equals(module.getName())
+                || !inDb.getUrl().equals(module.getUrl())
+                || !inDb.getModIcon().equals(module.getModIcon())
+                || !inDb.getDescription().equals(module.getDescription())
+                || inDb.getContents().size() != module.getContents().size()) {
+            return false;
+        }
+        for (int i = 0; i < module.getContents().size(); i++) {
+            Content a = inDb.getContents().get(i);
+            Content b = module.getContents().get(i);
+            if (a == null || b == null || !a.equals(b) || a.getFileSize() != b.getFileSize()
+                    || a.getTimeCreated() != b.getTimeCreated()) {
+                return false;
             }
         }
-        return retSections;
+        return true;
     }
 
     /**
-     * Return an instance of <code>Module</code> with a list of new contents only.
-     * The a new <code>Content</code> is determined by using it's file name,
-     * file url and modified time, the same way as <code>Content</code> {@link
-     * Content#equals equality}. If there is no new content in this module,
-     * <code>null</code> is returned.
-     *
-     * @param module The module that should be compared against the database
-     * @return <code>Module</code> instance with contents set to list of new
-     *         Contents, if any, else a null instance
+     * Deletes the modules, along with their contents, and sections that the
+     * changeset reports as removed.
      */
-    @Nullable
-    private Module isolateNewContentInModules(Module module) {
-        Module realmModule = realm.where(Module.class).equalTo("id", module.getId()).findFirst();
+    private static void deleteRemoved(@NonNull Realm r, @NonNull CourseChangeset changeset) {
+        for (Integer moduleId : changeset.getRemovedModuleIds()) {
+            Module module = r.where(Module.class).equalTo("id", moduleId).findFirst();
+            if (module != null) {
+                module.getContents().deleteAllFromRealm();
+                module.deleteFromRealm();
+            }
+        }
+        for (Integer sectionId : changeset.getRemovedSectionIds()) {
+            r.where(CourseSection.class).equalTo("id", sectionId).findAll().deleteAllFromRealm();
+        }
+    }
 
-        if (realmModule == null) {
-            module.setUnread(true);
-            return module; // Everything is new
+    /**
+     * Deletes the objects in <code>results</code> whose id isn't in
+     * <code>ids</code>.
+     */
+    private static <T extends RealmModel> void deleteAbsent(@NonNull RealmResults<T> results,
+                                                            @NonNull Function<T, Integer> id,
+                                                            @NonNull Set<Integer> ids) {
+        for (int i = results.size() - 1; i >= 0; i--) {
+            T object = results.get(i);
+            if (object != null && !ids.contains(id.apply(object))) {
+                results.deleteFromRealm(i);
+            }
         }
+    }
+
+    /**
+     * Checks if the module is present locally, in the given section.
+     */
+    public boolean isModuleInSection(int moduleId, int sectionId) {
+        return realm.where(Module.class)
+                .equalTo("id", moduleId)
+                .equalTo("courseSectionId", sectionId)
+                .count() > 0;
+    }
 
-        // Always copy over flag in case user manually set unread and for it
-        // to persist across multiple data requests, irrespective of whether
-        // content is new or not
-        module.setUnread(realmModule.isUnread());
+    /**
+     * Checks if a file name is used by the content of any module of the
+     * course other than <code>moduleId</code>. Such content may have been
+     * renamed when the entire course was fetched, so it cannot be updated in
+     * isolation. Names are only made unique within a course, so other
+     * courses aren't looked at.
+     */
+    public boolean isFileNameTaken(int courseId, int moduleId, @NonNull String fileName) {
+        Integer[] moduleIds = realm.where(CourseSection.class)
+                .equalTo("courseId", courseId)
+                .findAll().stream()
+                .flatMap(section -> section.getModules().stream())
+                .map(Module::getId)
+                .filter(id -> id != moduleId)
+                .toArray(Integer[]::new);
+        if (moduleIds.length == 0) return false;
+        return realm.where(Content.class)
+                .equalTo("fileName", fileName)
+                .in("moduleId", moduleIds)
+                .count() > 0;
+    }
 
-        RealmResults<Content> results = realm.where(Content.class)
-                .in("fileName", module.getContents().stream().map(Content::getFileName).toArray(String[]::new))
-                .in("fileUrl", module.getContents().stream().map(Content::getFileUrl).toArray(String[]::new))
-                .in("timeModified", module.getContents().stream().map(Content::getTimeModified).toArray(Long[]::new))
-                .findAll();
+    /**
+     * @return The sync state of the course. If the course has never been synced,
+     *         an unmanaged instance with all timestamps set to 0 is returned.
+     */
+    @NotNull
+    public CourseSyncState getSyncState(int courseId) {
+        CourseSyncState state = realm.where(CourseSyncState.class).equalTo("courseId", courseId).findFirst();
+        if (state == null) return new CourseSyncState(courseId, 0, 0);
+        return realm.copyFromRealm(state);
+    }
 
-        List<Content> newContents = module.getContents().stream().filter(content -> !results.contains(content))
-                .map(Content::copy).collect(Collectors.toList());
-        if (newContents.isEmpty()) {
-            return null;
-        }
+    /**
+     * Record that the contents of the course have been synced up to
+     * <code>syncTime</code>.
+     *
+     * @param fullSync If all the contents of the course were fetched
+     */
+    public void setSyncTime(int courseId, long syncTime, boolean fullSync) {
+        realm.executeTransaction(r -> {
+            CourseSyncState state = r.where(CourseSyncState.class).equalTo("courseId", courseId).findFirst();
+            if (state == null) {
+                state = r.createObject(CourseSyncState.class, courseId);
+            }
+            state.setLastSynced(syncTime);
+            if (fullSync) {
+                state.setLastFullSync(syncTime);
+            }
+            getCourseStats(r, courseId).setLastSynced(syncTime);
+        });
+    }
 
-        module.setUnread(true);
-        Module retModule = module.deepCopy();
-        retModule.setContents(new RealmList<>(newContents.toArray(new Content[0])));
-        return retModule;
+    /**
+     * Compares <code>sections</code> against the locally stored contents of the
+     * course. As a side effect, modules in <code>sections</code> that are new
+     * or have new content are marked as unread, and the unread flag of the
+     * rest is carried over from the local copy, so that it persists across
+     * refreshes. Modules of new sections, or of a course that has never been
+     * stored, are left as they are.
+     *
+     * @param courseId The courseId for which data is to be compared
+     * @param sections The sections to compare against the local database
+     * @param complete If <code>sections</code> holds the entire course, so
+     *                 that anything not in it can be reported as removed
+     */
+    @NotNull
+    public CourseChangeset diffCourseData(int courseId, @NonNull List<CourseSection> sections, boolean complete) {
+        CourseChangeset changeset = CourseChangeset.diff(CourseIndex.load(realm, courseId), sections, complete);
+        for (CourseSection section : sections) {
+            for (Module module : section.getModules()) {
+                module.setUnread(changeset.isUnread(module, section));
+            }
+        }
+        return changeset;
     }
 
     public List<Discussion> setForumDiscussions(int forumId, List<Discussion> discussions) {
@@ -306,19 +525,65 @@ public class CourseDataHandler {
             return null;
         }
         List<Discussion> newDiscussions = new ArrayList<>();
+        String token = UserAccount.INSTANCE.getToken();
 
         for (Discussion discussion : discussions) {
+            HtmlNormalizer.normalize(discussion, token);
             if (realm.where(Discussion.class).equalTo("id", discussion.getId()).findFirst() == null) {
                 newDiscussions.add(discussion);
             }
         }
-        realm.executeTransactionAsync(r -> {
+        Realm.Transaction transaction = r -> {
             r.where(Discussion.class).equalTo("forumId", forumId).findAll().deleteAllFromRealm();
             r.copyToRealm(discussions);
-        });
+        };
+        executeForumTransaction(transaction);
+        return newDiscussions;
+    }
+
+    /**
+     * Adds discussions to a forum, updating the ones that are already
+     * stored. Unlike {@link #setForumDiscussions}, stored discussions that
+     * aren't part of <code>discussions</code> are kept.
+     *
+     * @return The discussions that weren't stored before
+     */
+    public List<Discussion> mergeForumDiscussions(int forumId, List<Discussion> discussions) {
+        if (!UserAccount.INSTANCE.isLoggedIn()) {
+            return null;
+        }
+        List<Discussion> newDiscussions = new ArrayList<>();
+        String token = UserAccount.INSTANCE.getToken();
+
+        for (Discussion discussion : discussions) {
+            discussion.setForumId(forumId);
+            HtmlNormalizer.normalize(discussion, token);
+            if (realm.where(Discussion.class).equalTo("id", discussion.getId()).findFirst() == null) {
+                newDiscussions.add(discussion);
+            }
+        }
+        executeForumTransaction(r -> r.insertOrUpdate(discussions));
         return newDiscussions;
     }
 
+    /**
+     * @return The Unix epoch the latest of a forum's stored discussions was
+     *         modified, or <code>0</code> if none are stored
+     */
+    public int getForumWatermark(int forumId) {
+        Number watermark = realm.where(Discussion.class).equalTo("forumId", forumId).max("timeModified");
+        return watermark != null ? watermark.intValue() : 0;
+    }
+
+    private void executeForumTransaction(@NonNull Realm.Transaction transaction) {
+        // Async transactions need a looper, which background workers don't have
+        if (Looper.myLooper() != null) {
+            realm.executeTransactionAsync(transaction);
+        } else {
+            realm.executeTransaction(transaction);
+        }
+    }
+
     @Nullable
     public Module getModuleByModId(int modId) {
         RealmResults<Module> modules = realm.where(Module.class).equalTo("id", modId).findAll();
@@ -343,14 +608,21 @@ public class CourseDataHandler {
         }
     }
 
+    /**
+     * @return The stored discussions of a forum, pinned ones first, and then
+     *         most recently modified first, the same order Moodle lists them in
+     */
     public List<Discussion> getForumDiscussions(int forumId) {
-        return realm.where(Discussion.class).equalTo("forumId", forumId).findAll();
+        return realm.where(Discussion.class).equalTo("forumId", forumId).findAll()
+                .sort(new String[]{"isPinned", "timeModified"}, new Sort[]{Sort.DESCENDING, Sort.DESCENDING});
     }
 
     public void deleteCourse(int courseId) {
         realm.executeTransactionAsync(r -> {
             r.where(Course.class).equalTo("id", courseId).findAll().deleteAllFromRealm();
             r.where(CourseSection.class).equalTo("courseId", courseId).findAll().deleteAllFromRealm();
+            r.where(CourseSyncState.class).equalTo("courseId", courseId).findAll().deleteAllFromRealm();
+            r.where(CourseStats.class).equalTo("courseId", courseId).findAll().deleteAllFromRealm();
         });
     }
 
@@ -377,7 +649,7 @@ public class CourseDataHandler {
                     .boxed().toArray(Integer[]::new);
             r.where(Module.class).in("courseSectionId", sections).findAll()
                     .setBoolean("isUnread", false);
-
+            getCourseStats(r, courseId).setUnreadModules(0);
         });
     }
 
@@ -387,30 +659,40 @@ public class CourseDataHandler {
     public void markAllAsRead() {
         realm.executeTransaction(r -> {
             r.where(Module.class).findAll().setBoolean("isUnread", false);
+            r.where(CourseStats.class).findAll().setInt("unreadModules", 0);
             r.where(Notification.class).findAll().setBoolean("read", true);
         });
     }
 
     public void markModuleAsRead(Module module) {
         module.setUnread(false);
-        realm.executeTransaction(r -> {
-            realm.where(Module.class).equalTo("id", module.getId()).findAll()
-                    .setBoolean("isUnread", false);
-        });
+        realm.executeTransaction(r -> setModuleUnread(r, module.getId(), false));
     }
 
     public void markModuleAsUnread(Module module) {
         module.setUnread(true);
-        realm.executeTransaction(r -> {
-            realm.where(Module.class).equalTo("id", module.getId()).findAll()
-                    .setBoolean("isUnread", true);
-        });
+        realm.executeTransaction(r -> setModuleUnread(r, module.getId(), true));
+    }
+
+    private static void setModuleUnread(@NonNull Realm r, int moduleId, boolean unread) {
+        Module inDb = r.where(Module.class).equalTo("id", moduleId).findFirst();
+        if (inDb == null || inDb.isUnread() == unread) return;
+        inDb.setUnread(unread);
+
+        CourseSection section = r.where(CourseSection.class).equalTo("id", inDb.getCourseSectionId()).findFirst();
+        if (section == null) return;
+        CourseStats stats = r.where(CourseStats.class).equalTo("courseId", section.getCourseId()).findFirst();
+        if (stats == null) {
+            updateCourseStats(r, section.getCourseId()); // Counts the change as well
+        } else {
+            stats.setUnreadModules(Math.max(0, stats.getUnreadModules() + (unread ? 1 : -1)));
+        }
     }
 
     public String getCourseName(int courseId) {
         Course course = realm.where(Course.class).equalTo("id", courseId).findFirst();
         if (course == null) return "";
-        return course.getFullName();
+        return course.getPlainFullName();
     }
 
     public String getCourseNameForActionBarTitle(int courseId){
@@ -436,7 +718,13 @@ public class CourseDataHandler {
         realm.commitTransaction();
     }
 
+    /**
+     * @return Number of unread modules in the course, from its
+     *         {@link CourseStats} if they have been computed
+     */
     public int getUnreadCount(int courseId) {
+        CourseStats stats = realm.where(CourseStats.class).equalTo("courseId", courseId).findFirst();
+        if (stats != null) return stats.getUnreadModules();
         return realm.where(Module.class)
                 .in("courseSectionId", getCourseData(courseId).stream()
                         .map(CourseSection::getId)
@@ -444,4 +732,83 @@ public class CourseDataHandler {
                 ).equalTo("isUnread", true)
                 .findAll().size();
     }
+
+    /**
+     * Records the number of files of the course that are downloaded.
+     */
+    public void setDownloadedFileCount(int courseId, int count) {
+        realm.executeTransaction(r -> {
+            CourseStats stats = getCourseStats(r, courseId);
+            if (stats.getDownloadedFiles() != count) {
+                stats.setDownloadedFiles(count);
+            }
+        });
+    }
+
+    /**
+     * Returns the keys of the initial sync's completed steps.
+     */
+    @NonNull
+    public Set<String> getSyncCheckpoints() {
+        Set<String> keys = new HashSet<>();
+        for (SyncCheckpoint checkpoint : realm.where(SyncCheckpoint.class).findAll()) {
+            keys.add(checkpoint.getKey());
+        }
+        return keys;
+    }
+
+    /**
+     * Marks the initial sync's steps with the given keys as complete.
+     */
+    public void addSyncCheckpoints(@NonNull Collection<String> keys) {
+        if (keys.isEmpty()) return;
+
+        long now = System.currentTimeMillis() / 1000;
+        realm.executeTransaction(r -> {
+            for (String key : keys) {
+                r.insertOrUpdate(new SyncCheckpoint(key, now));
+            }
+        });
+    }
+
+    /**
+     * Forgets the initial sync's completed steps, once it has finished.
+     */
+    public void clearSyncCheckpoints() {
+        realm.executeTransaction(r -> r.delete(SyncCheckpoint.class));
+    }
+
+    /**
+     * Returns the managed stats of the course, computing them if they don't
+     * exist yet. Must be called inside a transaction.
+     */
+    @NonNull
+    private static CourseStats getCourseStats(@NonNull Realm r, int courseId) {
+        CourseStats stats = r.where(CourseStats.class).equalTo("courseId", courseId).findFirst();
+        return stats != null ? stats : updateCourseStats(r, courseId);
+    }
+
+    /**
+     * Recounts the unread modules and downloadable files of the course. Must
+     * be called inside the transaction that changed the course's contents.
+     */
+    @NonNull
+    private static CourseStats updateCourseStats(@NonNull Realm r, int courseId) {
+        CourseStats stats = r.where(CourseStats.class).equalTo("courseId", courseId).findFirst();
+        if (stats == null) {
+            stats = r.createObject(CourseStats.class, courseId);
+        }
+
+        int unreadModules = 0;
+        int totalFiles = 0;
+        for (CourseSection section : r.where(CourseSection.class).equalTo("courseId", courseId).findAll()) {
+            for (Module module : section.getModules()) {
+                if (module.isUnread()) unreadModules++;
+                if (module.isDownloadable()) totalFiles += module.getContents().size();
+            }
+        }
+        if (stats.getUnreadModules() != unreadModules) stats.setUnreadModules(unreadModules);
+        if (stats.getTotalFiles() != totalFiles) stats.setTotalFiles(totalFiles);
+        return stats;
+    }
 }
@@ -5,6 +5,7 @@ import android.content.Context;
 
 import java.util.List;
 
+import crux.bphc.cms.core.DownloadEngine;
 import crux.bphc.cms.core.FileManager;
 import crux.bphc.cms.models.course.Content;
 import crux.bphc.cms.models.course.CourseSection;
@@ -12,6 +13,7 @@ import crux.bphc.cms.models.course.Module;
 import io.realm.Realm;
 import io.realm.RealmResults;
 import kotlin.Unit;
+import kotlinx.coroutines.CoroutineScope;
 
 /**
  * @author Harshit Agarwal
@@ -38,53 +40,46 @@ public class CourseDownloader {
         this.downloadCallback = downloadCallback;
     }
 
-    public void downloadCourseData(final int courseId) {
-        CourseRequestHandler courseRequestHandler = new CourseRequestHandler();
+    /**
+     * Syncs the course, and then downloads the files that aren't downloaded
+     * yet. The sync is cancelled along with <code>scope</code>.
+     */
+    public void downloadCourseData(CoroutineScope scope, final int courseId) {
         final CourseDataHandler courseDataHandler = new CourseDataHandler(realm);
-        courseRequestHandler.getCourseData(courseId, new CourseRequestHandler.CallBack<List<CourseSection>>() {
-            @Override
-            public void onResponse(List<CourseSection> sectionList) {
-                if (sectionList == null) {
-                    if (downloadCallback != null)
-                        downloadCallback.onFailure();
-                    return;
-                }
-
-                courseDataHandler.replaceCourseData(courseId, sectionList);
-
+        // Shares the sync of the course if it's already being synced elsewhere
+        SyncScheduler.syncCourseAsync(scope, courseId, success -> {
+            if (!success) {
                 if (downloadCallback != null)
-                    downloadCallback.onCourseDataDownloaded();
-                for (CourseSection section : sectionList) {
-                    downloadSection(section);
-                }
-
+                    downloadCallback.onFailure();
+                return;
             }
 
-            @Override
-            public void onFailure(String message, Throwable t) {
-                if (downloadCallback != null)
-                    downloadCallback.onFailure();
+            realm.refresh(); // The course was written on another thread
+            List<CourseSection> sectionList = courseDataHandler.getCourseData(courseId);
+
+            if (downloadCallback != null)
+                downloadCallback.onCourseDataDownloaded();
+            for (CourseSection section : sectionList) {
+                downloadSection(section);
             }
         });
     }
 
 
     public void downloadSection(CourseSection section) {
-        fileManager.reloadFileList();
         List<Module> modules = section.getModules();
         for (Module module : modules) {
             if (!module.isDownloadable())
                 continue;
             for (Content content : module.getContents()) {
                 if (!fileManager.isModuleContentDownloaded(content)) {
-                    fileManager.downloadModuleContent(content, module);
+                    fileManager.downloadModuleContent(content, DownloadEngine.Priority.BULK);
                 }
             }
         }
     }
 
     public int getDownloadedContentCount(int courseID) {
-        fileManager.reloadFileList();
         int count = 0;
         RealmResults<CourseSection> courseSections = realm.where(CourseSection.class).equalTo("courseId", courseID).findAll();
         for (CourseSection section : courseSections) {
@@ -103,7 +98,6 @@ public class CourseDownloader {
     }
 
     public int getTotalContentCount(int courseID) {
-        fileManager.reloadFileList();
         int count = 0;
         RealmResults<CourseSection> courseSections = realm.where(CourseSection.class).equalTo("courseId", courseID).findAll();
         for (CourseSection section : courseSections) {
@@ -0,0 +1,108 @@
+package crux.bphc.cms.helper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import crux.bphc.cms.models.course.Content;
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.Module;
+import io.realm.Realm;
+
+/**
+ * A compact, unmanaged snapshot of the sections, modules and contents of a
+ * course that are stored locally. It is built by walking the stored course
+ * once, and is what incoming course data is compared against by
+ * {@link CourseChangeset}.
+ */
+class CourseIndex {
+
+    private final Map<Integer, SectionEntry> sections = new HashMap<>();
+    private final Map<Integer, ModuleEntry> modules = new HashMap<>();
+
+    private CourseIndex() {
+    }
+
+    @NonNull
+    static CourseIndex load(@NonNull Realm realm, int courseId) {
+        return of(realm.where(CourseSection.class).equalTo("courseId", courseId).findAll());
+    }
+
+    /**
+     * Builds an index of the given sections, along with their modules
+     */
+    @NonNull
+    static CourseIndex of(@NonNull Iterable<CourseSection> sections) {
+        CourseIndex index = new CourseIndex();
+        for (CourseSection section : sections) {
+            index.sections.put(section.getId(), new SectionEntry(section.getName(), section.getSummary()));
+            for (Module module : section.getModules()) {
+                ModuleEntry entry = new ModuleEntry(module.isUnread());
+                for (Content content : module.getContents()) {
+                    entry.contents.add(new CourseChangeset.ContentKey(content));
+                }
+                index.modules.put(module.getId(), entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return <code>true</code> if nothing is stored for the course
+     */
+    boolean isEmpty() {
+        return sections.isEmpty();
+    }
+
+    boolean hasSection(int sectionId) {
+        return sections.containsKey(sectionId);
+    }
+
+    @NonNull
+    Set<Integer> getSectionIds() {
+        return sections.keySet();
+    }
+
+    @Nullable
+    SectionEntry getSection(int sectionId) {
+        return sections.get(sectionId);
+    }
+
+    @Nullable
+    ModuleEntry getModule(int moduleId) {
+        return modules.get(moduleId);
+    }
+
+    @NonNull
+    Map<Integer, ModuleEntry> getModules() {
+        return modules;
+    }
+
+    static class SectionEntry {
+
+        /**
+         * The name and summary as sent by Moodle, i.e HTML
+         */
+        final String name;
+        final String summary;
+
+        SectionEntry(@NonNull String name, @NonNull String summary) {
+            this.name = name;
+            this.summary = summary;
+        }
+    }
+
+    static class ModuleEntry {
+
+        final boolean unread;
+        final Set<CourseChangeset.ContentKey> contents = new HashSet<>();
+
+        ModuleEntry(boolean unread) {
+            this.unread = unread;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package crux.bphc.cms.helper;
 
 import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -10,29 +12,44 @@ import androidx.annotation.Nullable;
 import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.jetbrains.annotations.NotNull;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.function.Function;
 
+import crux.bphc.cms.app.MyApplication;
 import crux.bphc.cms.exceptions.InvalidTokenException;
 import crux.bphc.cms.models.UserAccount;
+import crux.bphc.cms.models.core.ExternalFunctionResponse;
+import crux.bphc.cms.models.core.ExternalFunctionsResponse;
 import crux.bphc.cms.models.core.Notification;
 import crux.bphc.cms.models.course.Content;
 import crux.bphc.cms.models.course.Course;
 import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.CourseUpdates;
 import crux.bphc.cms.models.course.Module;
 import crux.bphc.cms.models.forum.Discussion;
 import crux.bphc.cms.models.forum.ForumData;
 import crux.bphc.cms.network.APIClient;
 import crux.bphc.cms.network.MoodleServices;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.HttpException;
@@ -52,13 +69,52 @@ public class CourseRequestHandler {
     public static final String NETWORK_ERROR = "Network error";
     public static final String ACCESS_EXCEPTION = "accessexception";
 
+    private static final String WS_COURSE_CONTENTS = "core_course_get_contents";
+    private static final String WS_FORUM_DISCUSSIONS = "mod_forum_get_forum_discussions_paginated";
+    private static final String WS_COURSE_UPDATES = "core_course_get_updates_since";
+
+    /**
+     * Maximum number of function calls packed into a single batched request.
+     * Keeps a single response from growing unbounded for heavy accounts.
+     */
+    private static final int MAX_BATCH_SIZE = 20;
+
+    /**
+     * Number of discussions per page when fetching only the discussions
+     * modified since a watermark
+     */
+    static final int DISCUSSIONS_PAGE_SIZE = 10;
+
+    private static final Type COURSE_LIST_TYPE = new TypeToken<List<Course>>() {}.getType();
+    private static final Type NOTIFICATION_LIST_TYPE = new TypeToken<List<Notification>>() {}.getType();
+    private static final Type COURSE_SECTION_LIST_TYPE = new TypeToken<List<CourseSection>>() {}.getType();
+
+    /**
+     * Set once the site refuses <code>tool_mobile_call_external_functions</code>,
+     * so that we don't pay for a failing round-trip on every refresh.
+     */
+    private static volatile boolean batchingUnsupported = false;
+
     final UserAccount userAccount;
     final MoodleServices moodleServices;
+    private final Gson gson = APIClient.getGson();
+    @Nullable
+    private final CancellationSignal cancellationSignal;
 
     public CourseRequestHandler() {
+        this(null);
+    }
+
+    /**
+     * @param cancellationSignal Cancelling it cancels the request in flight,
+     *                           and makes every later request throw
+     *                           {@link OperationCanceledException}
+     */
+    public CourseRequestHandler(@Nullable CancellationSignal cancellationSignal) {
         userAccount = UserAccount.INSTANCE;
         Retrofit retrofit = APIClient.getRetrofitInstance();
         moodleServices = retrofit.create(MoodleServices.class);
+        this.cancellationSignal = cancellationSignal;
     }
 
     public List<Course> fetchCourseListSync() throws IOException, RuntimeException, InvalidTokenException {
@@ -67,7 +123,7 @@ public class CourseRequestHandler {
         // user. Let the caller handle that using a callback they provide.
         Call<ResponseBody> courseCall = moodleServices.fetchCourses(userAccount.getToken(), userAccount.getUserID());
         try {
-            Response<ResponseBody> response = courseCall.execute();
+            Response<ResponseBody> response = execute(courseCall);
             if (response.code() != 200) { // Moodle returns 200 for all API calls
                 HttpException e = new HttpException(response);
                 Log.e(TAG, "Response code not 200!", e);
@@ -78,12 +134,13 @@ public class CourseRequestHandler {
                 throw new RuntimeException("Response body is null");
             }
 
-            String responseString = response.body().string();
-            if (responseString.contains("Invalid token")) {
-                throw new InvalidTokenException();
+            try (JsonReader reader = new JsonReader(response.body().charStream())) {
+                if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    // Moodle replies with an exception object instead of the list
+                    readMoodleException(reader, null);
+                }
+                return gson.fromJson(reader, COURSE_LIST_TYPE);
             }
-            Gson gson = new Gson();
-            return gson.fromJson(responseString, new TypeToken<List<Course>>() {}.getType());
         } catch (IOException e) {
             Log.e(TAG, "IOException when fetching Course List", e);
             throw e;
@@ -116,7 +173,6 @@ public class CourseRequestHandler {
                         }
                         return;
                     }
-                    Gson gson = new Gson();
 
                     // TODO shouldn't crash for empty course list, but it did once
                     // User wasn't registered in any courses. Bug could not be replicated.
@@ -159,7 +215,7 @@ public class CourseRequestHandler {
         Call<ResponseBody> courseListCall = moodleServices.fetchCourses(userAccount.getToken(), userAccount.getUserID());
 
         try {
-            Response<ResponseBody> courseListResp = courseListCall.execute(); // sync call
+            Response<ResponseBody> courseListResp = execute(courseListCall); // sync call
             if (courseListResp.code() != 200) {
                 return null;
             }
@@ -168,7 +224,6 @@ public class CourseRequestHandler {
             if (responseString.contains("Invalid token")) {
                 return null;
             }
-            Gson gson = new Gson();
             return gson
                     .fromJson(responseString, new TypeToken<List<Course>>() {
                     }.getType());
@@ -187,7 +242,7 @@ public class CourseRequestHandler {
 
         Call<List<CourseSection>> courseCall = moodleServices.fetchCourseContent(userAccount.getToken(), course.getId());
         try {
-            Response<List<CourseSection>> response = courseCall.execute();
+            Response<List<CourseSection>> response = execute(courseCall);
             if (response.code() != 200) {
                 return null;
             }
@@ -204,12 +259,539 @@ public class CourseRequestHandler {
     public List<CourseSection> getCourseDataSync(int courseId) throws IOException {
         Call<List<CourseSection>> courseCall = moodleServices
                 .fetchCourseContent(userAccount.getToken(), courseId);
-        Response<List<CourseSection>> response = courseCall.execute();
+        Response<List<CourseSection>> response = execute(courseCall);
         List<CourseSection> responseCourseSections = response.body();
         if (responseCourseSections == null) return new ArrayList<>(0);
         return resolve(responseCourseSections);
     }
 
+    /**
+     * Opens the contents of a course for incremental decoding, without reading
+     * the entire response into memory. The response is downloaded to a file
+     * in the cache directory first, so that it isn't read off the network
+     * while {@link CourseDataHandler#replaceCourseData(int, JsonReader)} holds
+     * Realm's write lock. The caller is responsible for closing the returned
+     * reader, which removes the file.
+     *
+     * @return Reader positioned at the start of the JSON array of sections
+     * @see CourseDataHandler#replaceCourseData(int, JsonReader)
+     */
+    @NotNull
+    public JsonReader openCourseDataReaderSync(int courseId) throws IOException {
+        Call<ResponseBody> courseCall = moodleServices
+                .fetchCourseContentStream(userAccount.getToken(), courseId);
+        Response<ResponseBody> response = execute(courseCall);
+        ResponseBody body = response.body();
+        if (response.code() != 200 || body == null) {
+            if (body != null) body.close();
+            throw new IOException("Unable to fetch contents of course: " + courseId);
+        }
+
+        File buffer = File.createTempFile("course_" + courseId, ".json",
+                MyApplication.Companion.getInstance().getCacheDir());
+        try (ResponseBody b = body; BufferedSink sink = Okio.buffer(Okio.sink(buffer))) {
+            sink.writeAll(b.source());
+        } catch (IOException | RuntimeException e) {
+            buffer.delete();
+            throw e;
+        }
+        return openCourseDataReader(buffer);
+    }
+
+    /**
+     * Opens the contents of a course written to <code>file</code> e.g by
+     * {@link #getCourseDataBatchFilesSync}, for incremental decoding. The
+     * file is removed once the returned reader is closed, or right away if
+     * it can't be opened.
+     *
+     * @return Reader positioned at the start of the JSON array of sections
+     */
+    @NotNull
+    public static JsonReader openCourseDataReader(@NotNull File file) throws IOException {
+        try {
+            FileInputStream input = new FileInputStream(file);
+            return new JsonReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        } finally {
+            // An open file stays readable once unlinked, and is removed once closed
+            if (!file.delete()) {
+                Log.w(TAG, "Failed to delete " + file);
+            }
+        }
+    }
+
+    /**
+     * Fetches the contents of multiple courses, packing as many
+     * <code>core_course_get_contents</code> calls as possible into a single
+     * request. The response is read as it arrives, and the contents of each
+     * course are written to a file in the cache directory, so that only one
+     * course is held in memory at a time. The files can be ingested using
+     * {@link #openCourseDataReader(File)} and
+     * {@link CourseDataHandler#replaceCourseData(int, JsonReader)}.
+     *
+     * @param courseIds Ids of the courses whose contents are to be fetched
+     * @return Map of course id to the file holding the JSON encoded sections
+     *         of the course. Courses that could not be fetched as part of a
+     *         batch, or all of them if the site does not allow batched calls,
+     *         are absent from the map. These should be fetched using
+     *         {@link #openCourseDataReaderSync}. The caller is responsible for
+     *         deleting the files it doesn't open.
+     */
+    @NotNull
+    public Map<Integer, File> getCourseDataBatchFilesSync(@NotNull List<Integer> courseIds)
+            throws IOException {
+        File directory = MyApplication.Companion.getInstance().getCacheDir();
+        Map<Integer, File> result = new HashMap<>();
+        try {
+            for (int start = 0; start < courseIds.size() && !batchingUnsupported; start += MAX_BATCH_SIZE) {
+                List<Integer> chunk = courseIds.subList(start, Math.min(courseIds.size(), start + MAX_BATCH_SIZE));
+                List<Map<String, Object>> arguments = new ArrayList<>(chunk.size());
+                for (Integer courseId : chunk) {
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("courseid", courseId);
+                    arguments.add(args);
+                }
+
+                Response<ResponseBody> response = execute(moodleServices.callExternalFunctionsStream(
+                        userAccount.getToken(), getExternalFunctionsFields(WS_COURSE_CONTENTS, arguments)));
+                ResponseBody body = response.body();
+                if (response.code() != 200 || body == null) {
+                    if (body != null) body.close();
+                    break;
+                }
+
+                Map<Integer, File> files;
+                try (ResponseBody b = body; JsonReader reader = new JsonReader(b.charStream())) {
+                    files = splitBatchedData(reader, chunk, directory);
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Malformed batched response", e);
+                    break;
+                }
+                if (files == null) break;
+                result.putAll(files);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (File file : result.values()) {
+                file.delete();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Reads the response of a batched request, and writes the JSON encoded
+     * data of each call that succeeded to a file of its own in
+     * <code>directory</code>.
+     *
+     * @param ids The ids the calls were made for, in order
+     * @return Map of id to the file holding its data, or <code>null</code> if
+     *         the batched request itself was refused
+     */
+    @Nullable
+    static Map<Integer, File> splitBatchedData(@NotNull JsonReader reader, @NotNull List<Integer> ids,
+                                               @NotNull File directory) throws IOException {
+        Map<Integer, File> files = new HashMap<>();
+        boolean complete = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("responses") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    int count = 0;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String data = readExternalFunctionData(reader);
+                        if (data != null && count < ids.size()) {
+                            File file = File.createTempFile("course_" + ids.get(count), ".json", directory);
+                            files.put(ids.get(count), file);
+                            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                                    StandardCharsets.UTF_8)) {
+                                writer.write(data);
+                            }
+                        }
+                        count++;
+                    }
+                    reader.endArray();
+                    complete = count == ids.size();
+                } else if (name.equals("errorcode") && reader.peek() == JsonToken.STRING) {
+                    String errorCode = reader.nextString();
+                    if (!errorCode.equals("invalidtoken")) {
+                        Log.i(TAG, "Batched requests refused by site: " + errorCode);
+                        batchingUnsupported = true;
+                    }
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            if (!complete) {
+                for (File file : files.values()) {
+                    file.delete();
+                }
+            }
+        }
+        return complete ? files : null;
+    }
+
+    /**
+     * Reads the response of a single call in a batched request.
+     *
+     * @return The JSON encoded data of the call, or <code>null</code> if it
+     *         failed
+     */
+    @Nullable
+    private static String readExternalFunctionData(@NotNull JsonReader reader) throws IOException {
+        boolean error = false;
+        String data = null;
+        String exception = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("error") && reader.peek() == JsonToken.BOOLEAN) {
+                error = reader.nextBoolean();
+            } else if (name.equals("data") && reader.peek() == JsonToken.STRING) {
+                data = reader.nextString();
+            } else if (name.equals("exception") && reader.peek() == JsonToken.STRING) {
+                exception = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (error) {
+            Log.w(TAG, WS_COURSE_CONTENTS + " failed in batch: " + exception);
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Fetches the discussions of multiple forums, packing as many
+     * <code>mod_forum_get_forum_discussions_paginated</code> calls as possible
+     * into a single request. Falls back to one request per forum if the site
+     * does not allow batched calls.
+     *
+     * @param forumIds Instance ids of the forums whose discussions are to be fetched
+     * @return Map of forum id to its discussions. Forums that could not be
+     *         fetched are absent from the map.
+     */
+    @NotNull
+    public Map<Integer, List<Discussion>> getForumDiscussionsBatchSync(@NotNull List<Integer> forumIds)
+            throws IOException {
+        Map<Integer, Integer> since = new HashMap<>();
+        for (Integer forumId : forumIds) {
+            since.put(forumId, 0);
+        }
+        return getForumDiscussionsBatchSync(since);
+    }
+
+    /**
+     * Fetches the discussions of multiple forums that were modified since a
+     * watermark. Discussions are sorted by the time they were last modified,
+     * so a forum's pages are fetched only until a discussion older than its
+     * watermark turns up. The first page of every forum is packed into as few
+     * requests as possible. Forums with a watermark of <code>0</code> are
+     * fetched in full.
+     * <p>
+     * Discussions modified at the watermark itself are fetched again, since
+     * others may have been modified in the same second.
+     *
+     * @param since Map of forum instance id to its watermark, i.e the Unix
+     *              epoch the latest of its stored discussions was modified
+     * @return Map of forum id to its discussions modified at or after the
+     *         watermark. Forums that could not be fetched entirely are absent
+     *         from the map.
+     */
+    @NotNull
+    public Map<Integer, List<Discussion>> getForumDiscussionsBatchSync(@NotNull Map<Integer, Integer> since)
+            throws IOException {
+        Map<Integer, List<Discussion>> firstPages = batchSync(WS_FORUM_DISCUSSIONS, new ArrayList<>(since.keySet()),
+                forumId -> {
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("forumid", forumId);
+                    args.put("sortby", "timemodified");
+                    args.put("sortdirection", "DESC");
+                    args.put("page", 0);
+                    args.put("perpage", getDiscussionsPageSize(since.get(forumId)));
+                    return args;
+                },
+                data -> {
+                    ForumData forumData = gson.fromJson(data, ForumData.class);
+                    return forumData != null ? forumData.getDiscussions() : new ArrayList<>(0);
+                },
+                forumId -> getForumDiscussionsPageSync(forumId, 0, getDiscussionsPageSize(since.get(forumId))));
+
+        Map<Integer, List<Discussion>> result = new HashMap<>();
+        for (Map.Entry<Integer, List<Discussion>> entry : firstPages.entrySet()) {
+            int forumId = entry.getKey();
+            int watermark = since.get(forumId);
+            if (watermark == 0) {
+                result.put(forumId, entry.getValue());
+                continue;
+            }
+
+            List<Discussion> discussions;
+            try {
+                discussions = collectDiscussionsSince(entry.getValue(), watermark,
+                        page -> getForumDiscussionsPageSync(forumId, page, DISCUSSIONS_PAGE_SIZE));
+            } catch (IOException e) {
+                // Storing only some of the discussions would move the
+                // watermark past the ones that are missing
+                Log.e(TAG, "IOException when paging discussions of forum: " + forumId, e);
+                continue;
+            }
+            result.put(forumId, discussions);
+        }
+        return result;
+    }
+
+    private static int getDiscussionsPageSize(int watermark) {
+        return watermark == 0 ? 0 : DISCUSSIONS_PAGE_SIZE; // 0 fetches every discussion
+    }
+
+    /**
+     * Collects the discussions of a forum that were modified at or after the
+     * watermark, starting with its first page. Later pages are fetched using
+     * <code>pages</code> until one has a discussion older than the watermark,
+     * or is the last page.
+     */
+    @NotNull
+    static List<Discussion> collectDiscussionsSince(@NotNull List<Discussion> firstPage, int watermark,
+                                                    @NotNull SyncFetcher<List<Discussion>> pages)
+            throws IOException {
+        List<Discussion> discussions = new ArrayList<>();
+        List<Discussion> page = firstPage;
+        boolean complete = collectDiscussionsSince(page, watermark, discussions)
+                || page.size() < DISCUSSIONS_PAGE_SIZE;
+        for (int pageNum = 1; !complete; pageNum++) {
+            page = pages.fetch(pageNum);
+            complete = collectDiscussionsSince(page, watermark, discussions)
+                    || page.size() < DISCUSSIONS_PAGE_SIZE;
+        }
+        return discussions;
+    }
+
+    /**
+     * Adds the discussions of a page that were modified at or after the
+     * watermark to <code>discussions</code>. Pinned discussions are listed
+     * first regardless of when they were modified, so they don't end the
+     * paging.
+     *
+     * @return <code>true</code> if the page has a discussion older than the
+     *         watermark i.e no more pages need to be fetched
+     */
+    private static boolean collectDiscussionsSince(@NotNull List<Discussion> page, int watermark,
+                                                   @NotNull List<Discussion> discussions) {
+        boolean reachedWatermark = false;
+        for (Discussion discussion : page) {
+            if (discussion.getTimeModified() >= watermark) {
+                discussions.add(discussion);
+            } else if (!discussion.isPinned()) {
+                reachedWatermark = true;
+            }
+        }
+        return reachedWatermark;
+    }
+
+    @NotNull
+    private List<Discussion> getForumDiscussionsPageSync(int forumId, int page, int perPage) throws IOException {
+        Call<ForumData> call = moodleServices.getForumDiscussions(userAccount.getToken(), forumId, page, perPage);
+        Response<ForumData> response = execute(call);
+        if (response.body() == null) return new ArrayList<>(0);
+        return response.body().getDiscussions();
+    }
+
+    @NotNull
+    private <T> Map<Integer, T> batchSync(@NotNull String function, @NotNull List<Integer> ids,
+                                          @NotNull Function<Integer, Map<String, Object>> arguments,
+                                          @NotNull Function<String, T> decoder,
+                                          @NotNull SyncFetcher<T> fallback) throws IOException {
+        Map<Integer, T> result = new HashMap<>();
+        for (int start = 0; start < ids.size() && !batchingUnsupported; start += MAX_BATCH_SIZE) {
+            List<Integer> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_BATCH_SIZE));
+            List<Map<String, Object>> chunkArgs = new ArrayList<>(chunk.size());
+            for (Integer id : chunk) {
+                chunkArgs.add(arguments.apply(id));
+            }
+
+            List<String> responses = callExternalFunctionsSync(function, chunkArgs);
+            if (responses == null) break;
+            for (int i = 0; i < chunk.size(); i++) {
+                String data = responses.get(i);
+                if (data == null) continue; // Retried individually below
+                try {
+                    result.put(chunk.get(i), decoder.apply(data));
+                } catch (JsonSyntaxException e) {
+                    Log.w(TAG, "Malformed " + function + " response for id: " + chunk.get(i), e);
+                }
+            }
+        }
+
+        for (Integer id : ids) {
+            if (result.containsKey(id)) continue;
+            try {
+                result.put(id, fallback.fetch(id));
+            } catch (IOException e) {
+                Log.e(TAG, "IOException when calling " + function + " for id: " + id, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Packs one call to <code>function</code> per element of
+     * <code>arguments</code> into a single request.
+     *
+     * @return The JSON encoded data of each call, in order, with
+     *         <code>null</code> for calls that failed. If the batched request
+     *         itself was refused, <code>null</code> is returned.
+     */
+    @Nullable
+    private List<String> callExternalFunctionsSync(@NotNull String function,
+                                                   @NotNull List<Map<String, Object>> arguments)
+            throws IOException {
+        Map<String, String> fields = getExternalFunctionsFields(function, arguments);
+
+        Response<ExternalFunctionsResponse> response;
+        try {
+            response = execute(moodleServices.callExternalFunctions(userAccount.getToken(), fields));
+        } catch (JsonSyntaxException e) {
+            Log.w(TAG, "Malformed batched response", e);
+            return null;
+        }
+
+        ExternalFunctionsResponse body = response.body();
+        if (response.code() != 200 || body == null || body.getResponses() == null
+                || body.getResponses().size() != arguments.size()) {
+            String errorCode = body != null ? body.getErrorCode() : null;
+            if (errorCode != null && !errorCode.equals("invalidtoken")) {
+                Log.i(TAG, "Batched requests refused by site: " + errorCode);
+                batchingUnsupported = true;
+            }
+            return null;
+        }
+
+        List<String> data = new ArrayList<>(arguments.size());
+        for (ExternalFunctionResponse r : body.getResponses()) {
+            if (r.getError()) {
+                Log.w(TAG, function + " failed in batch: " + r.getException());
+                data.add(null);
+            } else {
+                data.add(r.getData());
+            }
+        }
+        return data;
+    }
+
+    /**
+     * The form fields packing one call to <code>function</code> per element
+     * of <code>arguments</code> into a single request
+     */
+    @NotNull
+    private Map<String, String> getExternalFunctionsFields(@NotNull String function,
+                                                           @NotNull List<Map<String, Object>> arguments) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            fields.put("requests[" + i + "][function]", function);
+            fields.put("requests[" + i + "][arguments]", gson.toJson(arguments.get(i)));
+        }
+        return fields;
+    }
+
+    /**
+     * Fetches a single module of a course.
+     *
+     * @return The sections of the course, with only the module's section
+     *         containing any modules
+     */
+    @NotNull
+    public List<CourseSection> getModuleDataSync(int courseId, int moduleId) throws IOException {
+        Call<List<CourseSection>> call = moodleServices
+                .fetchModuleContent(userAccount.getToken(), courseId, moduleId);
+        Response<List<CourseSection>> response = execute(call);
+        List<CourseSection> responseCourseSections = response.body();
+        if (responseCourseSections == null) return new ArrayList<>(0);
+        return responseCourseSections;
+    }
+
+    /**
+     * Fetches multiple modules, packing the calls into as few requests as
+     * possible.
+     *
+     * @param moduleCourseIds Map of module id to the id of the course it belongs to
+     * @return Map of module id to the sections of its course, with only the
+     *         module's section containing any modules. Modules that could not be
+     *         fetched are absent from the map.
+     */
+    @NotNull
+    public Map<Integer, List<CourseSection>> getModuleDataBatchSync(@NotNull Map<Integer, Integer> moduleCourseIds)
+            throws IOException {
+        return batchSync(WS_COURSE_CONTENTS, new ArrayList<>(moduleCourseIds.keySet()),
+                moduleId -> {
+                    Map<String, Object> option = new HashMap<>();
+                    option.put("name", "cmid");
+                    option.put("value", moduleId);
+                    List<Map<String, Object>> options = new ArrayList<>(1);
+                    options.add(option);
+
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("courseid", moduleCourseIds.get(moduleId));
+                    args.put("options", options);
+                    return args;
+                },
+                data -> {
+                    List<CourseSection> sections = gson.fromJson(data, COURSE_SECTION_LIST_TYPE);
+                    return sections != null ? sections : new ArrayList<>(0);
+                },
+                moduleId -> getModuleDataSync(moduleCourseIds.get(moduleId), moduleId));
+    }
+
+    /**
+     * Fetches the ids of the modules of a course that have been updated since
+     * <code>since</code>.
+     *
+     * @return List of updated module ids, or <code>null</code> if the updates
+     *         could not be determined
+     */
+    @Nullable
+    public List<Integer> getCourseUpdatesSync(int courseId, long since) throws IOException {
+        Call<CourseUpdates> call = moodleServices
+                .fetchCourseUpdatesSince(userAccount.getToken(), courseId, since);
+        Response<CourseUpdates> response = execute(call);
+        CourseUpdates updates = response.body();
+        if (updates == null || updates.getInstances() == null) return null;
+        return updates.getUpdatedModuleIds();
+    }
+
+    /**
+     * Fetches the ids of updated modules of multiple courses, packing the calls
+     * into as few requests as possible.
+     *
+     * @param since Map of course id to the Unix epoch, in seconds, to check for
+     *              updates from
+     * @return Map of course id to the ids of its updated modules. Courses whose
+     *         updates could not be determined are absent from the map or
+     *         mapped to <code>null</code>.
+     */
+    @NotNull
+    public Map<Integer, List<Integer>> getCourseUpdatesBatchSync(@NotNull Map<Integer, Long> since)
+            throws IOException {
+        return batchSync(WS_COURSE_UPDATES, new ArrayList<>(since.keySet()),
+                courseId -> {
+                    Map<String, Object> args = new HashMap<>();
+                    args.put("courseid", courseId);
+                    args.put("since", since.get(courseId));
+                    return args;
+                },
+                data -> {
+                    CourseUpdates updates = gson.fromJson(data, CourseUpdates.class);
+                    if (updates == null || updates.getInstances() == null) return null;
+                    return updates.getUpdatedModuleIds();
+                },
+                courseId -> getCourseUpdatesSync(courseId, since.get(courseId)));
+    }
+
     public void getCourseData(int courseId, @Nullable final CallBack<List<CourseSection>> callBack) {
         Call<List<CourseSection>> courseCall = moodleServices.fetchCourseContent(userAccount.getToken(), courseId);
         courseCall.enqueue(new Callback<List<CourseSection>>() {
@@ -237,7 +819,7 @@ public class CourseRequestHandler {
         Call<ResponseBody> notificationCall = moodleServices.fetchNotifications(userAccount.getToken(), userAccount.getUserID());
 
         try {
-            Response<ResponseBody> response = notificationCall.execute();
+            Response<ResponseBody> response = execute(notificationCall);
             if (response.code() != 200) { // Moodle returns 200 for all API calls
                 HttpException e = new HttpException(response);
                 Log.e(TAG, "Response code not 200!", e);
@@ -248,27 +830,70 @@ public class CourseRequestHandler {
                 throw new RuntimeException("Response body is null");
             }
 
-            String responseString = response.body().string();
-            if (responseString.contains("Invalid token")) {
-                throw new InvalidTokenException();
+            try (JsonReader reader = new JsonReader(response.body().charStream())) {
+                List<Notification> notifications = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (name.equals("notifications")) {
+                        notifications = gson.fromJson(reader, NOTIFICATION_LIST_TYPE);
+                    } else if (name.equals("errorcode")) {
+                        readMoodleException(reader, reader.nextString());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (notifications == null) {
+                    throw new RuntimeException("Response has no notifications");
+                }
+                return notifications;
+            } catch (IllegalStateException e) {
+                throw new RuntimeException(e);
             }
-            JSONObject json = new JSONObject(responseString);
-            Gson gson = new Gson();
-            return gson.fromJson(
-                    json.getJSONArray("notifications").toString(), new TypeToken<List<Notification>>() {}.getType());
         } catch (IOException e) {
             Log.e(TAG, "IOException when fetching Notification List", e);
             throw e;
-        } catch (JSONException e) {
-            throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Reads the rest of a Moodle exception object and throws it as an
+     * exception.
+     *
+     * @param errorCode The error code, if it has already been read from the
+     *                  object
+     * @throws InvalidTokenException If the token of the user is invalid
+     */
+    private static void readMoodleException(@NonNull JsonReader reader, @Nullable String errorCode)
+            throws IOException, InvalidTokenException {
+        String message = null;
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+        }
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("errorcode") && reader.peek() == JsonToken.STRING) {
+                errorCode = reader.nextString();
+            } else if (name.equals("message") && reader.peek() == JsonToken.STRING) {
+                message = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        if ("invalidtoken".equals(errorCode)) {
+            throw new InvalidTokenException();
+        }
+        throw new RuntimeException("Moodle returned an exception: " + errorCode + ": " + message);
+    }
+
     public void markNotificationAsRead(int notificationId) throws IOException, RuntimeException {
         Call<ResponseBody> notificationCall = moodleServices.markNotificationRead(userAccount.getToken(), notificationId);
 
         try {
-            Response<ResponseBody> response = notificationCall.execute();
+            Response<ResponseBody> response = execute(notificationCall);
 
             if (response.code() != 200) { // Moodle returns 200 for all API calls
                 HttpException e = new HttpException(response);
@@ -289,7 +914,7 @@ public class CourseRequestHandler {
         Call<Boolean> notificationCall = moodleServices.markAllNotificationsAsRead(userAccount.getToken(), userAccount.getUserID());
 
         try {
-            Response<Boolean> response = notificationCall.execute();
+            Response<Boolean> response = execute(notificationCall);
 
             if (response.code() != 200) { // Moodle returns 200 for all API calls
                 HttpException e = new HttpException(response);
@@ -312,7 +937,7 @@ public class CourseRequestHandler {
     public List<Discussion> getForumDiscussions(int moduleId) {
         Call<ForumData> callForumData = moodleServices.getForumDiscussions(userAccount.getToken(), moduleId, 0, 0);
         try {
-            Response<ForumData> response = callForumData.execute();
+            Response<ForumData> response = execute(callForumData);
             if (response.code() != 200) {
                 return null;
             }
@@ -328,10 +953,7 @@ public class CourseRequestHandler {
 
     @NotNull
     public List<Discussion> getForumDicussionsSync(int moduleId) throws IOException {
-        Call<ForumData> call = moodleServices.getForumDiscussions(userAccount.getToken(), moduleId, 0, 0);
-        Response<ForumData> response = call.execute();
-        if (response.body() == null) return new ArrayList<>(0);
-        return response.body().getDiscussions();
+        return getForumDiscussionsPageSync(moduleId, 0, 0);
     }
 
     public void getForumDiscussions(int moduleId, @Nullable final CallBack<List<Discussion>> callBack) {
@@ -357,59 +979,51 @@ public class CourseRequestHandler {
 
     //This method resolves the names of files with same names
     private List<CourseSection> resolve(List<CourseSection> courseSections) {
-        List<Content> contents = new ArrayList<>();
+        ContentNameResolver resolver = new ContentNameResolver();
         for (CourseSection courseSection : courseSections) {
             for (Module module : courseSection.getModules()) {
-                List<Content> currContents = module.getContents();
-                    contents.addAll(currContents);
-            }
-        }
-
-        Set<Content> set = new TreeSet<>((c1, c2) -> c1.getFileName().compareTo(c2.getFileName()));
-        for (Content c : contents) {
-            while (!set.add(c)) {
-                changeName(c);
+                for (Content content : module.getContents()) {
+                    resolver.resolve(content);
+                }
             }
         }
-
         return courseSections;
     }
 
-    private void changeName(Content content) {
-        String fileName = content.getFileName();
-        String newFileName = fileName;
+    public interface CallBack<T> {
 
-        // new file name will be of the format <original>(count)[.ext]
-        int lastIndex = fileName.lastIndexOf('(');
-        boolean countUpdated = false;
-        if (lastIndex != -1) {
-            String fileNum = fileName.substring(lastIndex + 1, fileName.lastIndexOf(')'));
-            try {
-                int count = Integer.parseInt(fileNum);
-                newFileName = fileName.substring(0, lastIndex + 1)
-                        + ++count
-                        + fileName.substring(fileName.lastIndexOf(')'));
-                countUpdated = true;
-            } catch (NumberFormatException e) {
-            }
+        void onResponse(T responseObject);
+
+        void onFailure(String message, Throwable t);
+    }
+
+    /**
+     * Executes the call, cancelling it if the handler's cancellation signal
+     * is cancelled while it is in flight.
+     *
+     * @throws OperationCanceledException If the signal was cancelled
+     */
+    @NonNull
+    private <T> Response<T> execute(@NonNull Call<T> call) throws IOException {
+        if (cancellationSignal == null) {
+            return call.execute();
         }
 
-        if (!countUpdated) {
-            int extension = fileName.lastIndexOf('.');
-            if (extension != -1) {
-                newFileName = fileName.substring(0, extension) + "(1)" +
-                        fileName.substring(extension);
-            } else {
-                newFileName = fileName + "(1)";
-            }
+        cancellationSignal.throwIfCanceled();
+        // The listener is left in place once the call returns, so that a
+        // streamed body that is still being read is cancelled too
+        cancellationSignal.setOnCancelListener(call::cancel);
+        try {
+            return call.execute();
+        } catch (IOException e) {
+            // OkHttp fails cancelled calls with an IOException
+            cancellationSignal.throwIfCanceled();
+            throw e;
         }
-        content.setFileName(newFileName);
     }
 
-    public interface CallBack<T> {
-
-        void onResponse(T responseObject);
+    interface SyncFetcher<T> {
 
-        void onFailure(String message, Throwable t);
+        T fetch(int id) throws IOException;
     }
 }
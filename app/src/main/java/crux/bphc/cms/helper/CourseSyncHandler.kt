@@ -0,0 +1,176 @@
+package crux.bphc.cms.helper
+
+import android.os.CancellationSignal
+import android.os.OperationCanceledException
+import android.util.Log
+import crux.bphc.cms.models.course.CourseSection
+import io.realm.RealmList
+import java.io.IOException
+
+/**
+ * Syncs the contents of courses with Moodle, fetching only what has changed
+ * since the last sync wherever possible.
+ *
+ * Moodle is asked, through `core_course_get_updates_since`, which modules of
+ * a course were updated since the course was last synced. Only those modules
+ * are fetched and written. The entire course is fetched only if it has never
+ * been synced, was last fully synced more than [FULL_SYNC_INTERVAL] ago, or
+ * the updates point to a structural change (e.g new or moved modules).
+ *
+ * All functions block, and must not be called on the main thread. The
+ * [CourseDataHandler]'s Realm instance must belong to the calling thread.
+ *
+ * Once [cancellationSignal] is cancelled, nothing more is written, and
+ * [OperationCanceledException] is thrown. Pass the same signal to the
+ * [CourseRequestHandler] to cancel the request in flight as well.
+ */
+class CourseSyncHandler(
+    private val courseDataHandler: CourseDataHandler,
+    private val courseRequestHandler: CourseRequestHandler = CourseRequestHandler(),
+    private val cancellationSignal: CancellationSignal? = null,
+) {
+
+    private val _syncedCourseIds = mutableSetOf<Int>()
+
+    /**
+     * The courses synced by [syncCourses], whether or not they changed
+     */
+    val syncedCourseIds: Set<Int>
+        get() = _syncedCourseIds
+
+    /**
+     * Syncs the contents of the given courses.
+     *
+     * @param forceFullSync Fetch the entire courses, even if they could be
+     *                      synced incrementally
+     * @return Changes made to the courses that have new or modified content,
+     *         keyed by course id
+     * @throws IOException If none of the courses could be synced
+     */
+    @Throws(IOException::class)
+    fun syncCourses(courseIds: List<Int>, forceFullSync: Boolean = false): Map<Int, CourseChangeset> {
+        val now = System.currentTimeMillis() / 1000
+        // Changes made on the server around the time of the sync should be
+        // checked for again the next time
+        val syncTime = now - CLOCK_SKEW_MARGIN
+
+        val fullSync = mutableSetOf<Int>()
+        val since = mutableMapOf<Int, Long>()
+        for (courseId in courseIds) {
+            val state = courseDataHandler.getSyncState(courseId)
+            if (forceFullSync || state.lastSynced == 0L || now - state.lastFullSync > FULL_SYNC_INTERVAL) {
+                fullSync.add(courseId)
+            } else {
+                since[courseId] = state.lastSynced
+            }
+        }
+
+        val updatedCourses = mutableMapOf<Int, CourseChangeset>()
+
+        /* Find out which modules have been updated */
+        val moduleCourseIds = mutableMapOf<Int, Int>()
+        val updates = if (since.isEmpty()) emptyMap()
+            else courseRequestHandler.getCourseUpdatesBatchSync(since)
+        for (courseId in since.keys) {
+            val moduleIds = updates[courseId]
+            when {
+                moduleIds == null -> fullSync.add(courseId)
+                moduleIds.isEmpty() -> {
+                    courseDataHandler.setSyncTime(courseId, syncTime, false)
+                    _syncedCourseIds.add(courseId)
+                }
+                moduleIds.any { courseDataHandler.getModuleByModId(it) == null } -> fullSync.add(courseId)
+                else -> moduleIds.forEach { moduleCourseIds[it] = courseId }
+            }
+        }
+
+        /* Fetch only the updated modules */
+        val moduleData = if (moduleCourseIds.isEmpty()) emptyMap()
+            else courseRequestHandler.getModuleDataBatchSync(moduleCourseIds)
+        val partialSections = mutableMapOf<Int, MutableList<CourseSection>>()
+        for ((moduleId, courseId) in moduleCourseIds) {
+            if (courseId in fullSync) continue
+
+            val section = moduleData[moduleId]?.firstOrNull { s -> s.modules.any { it.id == moduleId } }
+            val module = section?.modules?.firstOrNull { it.id == moduleId }
+            if (section == null || module == null || !courseDataHandler.isModuleInSection(moduleId, section.id)) {
+                // The module was deleted or moved
+                fullSync.add(courseId)
+                continue
+            }
+            // Contents of the module with the same name are renamed the way
+            // a full sync renames them
+            val resolver = ContentNameResolver()
+            module.contents.forEach { resolver.resolve(it) }
+            if (module.contents.any { courseDataHandler.isFileNameTaken(courseId, moduleId, it.fileName) }) {
+                // The module can't be updated in isolation
+                fullSync.add(courseId)
+                continue
+            }
+            section.modules = RealmList(module)
+            partialSections.getOrPut(courseId) { mutableListOf() }.add(section)
+        }
+
+        for ((courseId, sections) in partialSections) {
+            if (courseId in fullSync) continue
+            cancellationSignal?.throwIfCanceled()
+            val changeset = courseDataHandler.diffCourseData(courseId, sections, false)
+            if (changeset.hasNewContent()) {
+                updatedCourses[courseId] = changeset
+            }
+            courseDataHandler.replaceModules(sections)
+            courseDataHandler.setSyncTime(courseId, syncTime, false)
+            _syncedCourseIds.add(courseId)
+        }
+
+        /* Fetch everything for the rest */
+        var failures = 0
+        var lastError: IOException? = null
+        val batchedFiles = if (fullSync.size > 1) courseRequestHandler.getCourseDataBatchFilesSync(fullSync.toList())
+            else emptyMap()
+        try {
+            for (courseId in fullSync) {
+                cancellationSignal?.throwIfCanceled()
+                val file = batchedFiles[courseId]
+                try {
+                    val reader = if (file != null) CourseRequestHandler.openCourseDataReader(file)
+                        else courseRequestHandler.openCourseDataReaderSync(courseId)
+                    val changeset = reader.use { courseDataHandler.replaceCourseData(courseId, it) }
+                    if (changeset.hasNewContent()) {
+                        updatedCourses[courseId] = changeset
+                    }
+                    courseDataHandler.setSyncTime(courseId, syncTime, true)
+                    _syncedCourseIds.add(courseId)
+                } catch (e: IOException) {
+                    Log.e(TAG, "IOException when syncing course: $courseId", e)
+                    failures++
+                    lastError = e
+                }
+            }
+        } finally {
+            // Files of courses that weren't reached e.g on cancellation
+            batchedFiles.values.forEach { it.delete() }
+        }
+        if (lastError != null && failures == courseIds.size) {
+            throw lastError
+        }
+
+        return updatedCourses
+    }
+
+    companion object {
+        private const val TAG = "CourseSyncHandler"
+
+        /**
+         * Deleted modules and changes to sections aren't reported as updates.
+         * So, the entire course is fetched at least this often (in seconds).
+         */
+        const val FULL_SYNC_INTERVAL = 24 * 60 * 60L
+
+        /**
+         * Margin (in seconds) to account for the device's clock being ahead
+         * of the server's.
+         */
+        const val CLOCK_SKEW_MARGIN = 5 * 60L
+    }
+}
@@ -0,0 +1,48 @@
+package crux.bphc.cms.helper;
+
+import androidx.annotation.NonNull;
+
+import crux.bphc.cms.models.course.Course;
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.Module;
+import crux.bphc.cms.models.forum.Discussion;
+import crux.bphc.cms.utils.Utils;
+
+/**
+ * Derives the display variants of the HTML formatted fields of the models,
+ * right before they are written to Realm. Names are stored as plain text,
+ * and descriptions with the user's token appended to links, next to the HTML
+ * sent by Moodle. Reads, e.g from sort comparators and adapter binds, are
+ * then plain field loads.
+ * <p>
+ * The HTML itself is left untouched, so that it can still be compared with
+ * the server's copy and the variants derived again if needed.
+ */
+final class HtmlNormalizer {
+
+    private HtmlNormalizer() {
+    }
+
+    static void normalize(@NonNull Course course) {
+        course.setPlainShortName(Utils.htmlToPlainText(course.getShortName()));
+        course.setPlainFullName(Utils.htmlToPlainText(course.getFullName()));
+    }
+
+    /**
+     * Normalizes only the section's own fields, not those of its modules
+     */
+    static void normalize(@NonNull CourseSection section, @NonNull String token) {
+        section.setPlainName(Utils.htmlToPlainText(section.getName()));
+        section.setSummaryWithToken(Utils.appendTokenToLinks(section.getSummary(), token));
+    }
+
+    static void normalize(@NonNull Module module, @NonNull String token) {
+        module.setPlainName(Utils.htmlToPlainText(module.getName()));
+        module.setDescriptionWithToken(Utils.appendTokenToLinks(module.getDescription(), token));
+    }
+
+    static void normalize(@NonNull Discussion discussion, @NonNull String token) {
+        discussion.setPlainSubject(Utils.htmlToPlainText(discussion.getSubject()));
+        discussion.setMessageWithToken(Utils.appendTokenToLinks(discussion.getMessage(), token));
+    }
+}
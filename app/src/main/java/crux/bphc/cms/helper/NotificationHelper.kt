@@ -3,6 +3,7 @@
 
 package crux.bphc.cms.helper
 
+import android.app.NotificationChannel
 import android.app.NotificationManager
 import android.content.Context
 import android.os.Build
@@ -18,6 +19,21 @@ import crux.bphc.cms.widgets.HtmlTextView
 const val NOTIFICATION_CHANNEL_UPDATES_BUNDLE: String = "channel_content_updates_bundle"
 const val NOTIFICATION_CHANNEL_UPDATES: String = "channel_content_updates"
 
+/**
+ * Creates the channels notifications are posted to. Creating a channel that
+ * already exists does nothing, so this is safe to call more than once.
+ */
+fun createNotificationChannels(context: Context, notifManager: NotificationManager) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+        notifManager.createNotificationChannel(NotificationChannel(NOTIFICATION_CHANNEL_UPDATES,
+                context.getString(R.string.notif_channel_updates),
+                NotificationManager.IMPORTANCE_DEFAULT))
+        notifManager.createNotificationChannel(NotificationChannel(NOTIFICATION_CHANNEL_UPDATES_BUNDLE,
+                context.getString(R.string.notif_channel_updates_bundle),
+                NotificationManager.IMPORTANCE_LOW))
+    }
+}
+
 fun pushCourseSectionNotif(context: Context, notifManager: NotificationManager,
                            section: CourseSection, course: Course) {
     for (module in section.modules) {
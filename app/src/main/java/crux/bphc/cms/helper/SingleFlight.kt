@@ -0,0 +1,102 @@
+package crux.bphc.cms.helper
+
+import android.os.SystemClock
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+
+/**
+ * Coalesces concurrent fetches of the same keys (e.g course or forum ids).
+ *
+ * A key that is already being fetched isn't fetched again; callers asking
+ * for it wait for, and share, the result of the fetch in flight. A key that
+ * was fetched less than [freshnessWindow] milliseconds ago isn't fetched at
+ * all, and is left out of the results.
+ *
+ * @param clock Source of the time, in milliseconds, that freshness is
+ *              measured with
+ *
+ * If the caller fetching a key is cancelled, callers waiting on it fetch
+ * the key themselves, instead of being cancelled along with it.
+ */
+class SingleFlight<K, V : Any>(
+    private val freshnessWindow: Long,
+    private val clock: () -> Long = SystemClock::elapsedRealtime,
+) {
+
+    private val inFlight = HashMap<K, CompletableDeferred<V?>>()
+    private val fetchedAt = HashMap<K, Long>()
+
+    /**
+     * Fetches the given keys using [fetch], which is called only with the
+     * keys that are neither in flight nor fresh. Only the keys that [fetch]
+     * returns results for become fresh. The rest, e.g keys that failed to
+     * be fetched, are fetched again by the next call.
+     *
+     * If [fetch] fails, its exception is thrown to every caller waiting on
+     * its keys, and the keys aren't considered fresh.
+     *
+     * @param force Fetch keys even if they are fresh, e.g when the user asks
+     *              for a refresh. Keys in flight are still waited on.
+     * @return The results of the keys fetched by this call or the calls it
+     *         waited on
+     */
+    suspend fun fetch(keys: Collection<K>, force: Boolean = false,
+                      fetch: suspend (List<K>) -> Map<K, V>): Map<K, V> {
+        val owned = mutableListOf<K>()
+        val joined = mutableMapOf<K, Deferred<V?>>()
+        synchronized(this) {
+            val now = clock()
+            for (key in keys.distinct()) {
+                val flight = inFlight[key]
+                val lastFetched = fetchedAt[key]
+                when {
+                    flight != null -> joined[key] = flight
+                    !force && lastFetched != null && now - lastFetched < freshnessWindow -> Unit
+                    else -> {
+                        inFlight[key] = CompletableDeferred()
+                        owned.add(key)
+                    }
+                }
+            }
+        }
+
+        val results = mutableMapOf<K, V>()
+        if (owned.isNotEmpty()) {
+            val fetched = try {
+                fetch(owned)
+            } catch (e: Throwable) {
+                val error = if (e is CancellationException) FetchCancelledException() else e
+                synchronized(this) {
+                    owned.forEach { inFlight.remove(it)?.completeExceptionally(error) }
+                }
+                throw e
+            }
+            synchronized(this) {
+                val now = clock()
+                for (key in owned) {
+                    if (key in fetched) fetchedAt[key] = now
+                    inFlight.remove(key)?.complete(fetched[key])
+                }
+            }
+            results.putAll(fetched)
+        }
+        val cancelled = mutableListOf<K>()
+        for ((key, flight) in joined) {
+            try {
+                flight.await()?.let { results[key] = it }
+            } catch (e: FetchCancelledException) {
+                cancelled.add(key)
+            }
+        }
+        if (cancelled.isNotEmpty()) {
+            results.putAll(fetch(cancelled, force, fetch))
+        }
+        return results
+    }
+
+    /**
+     * Thrown to callers waiting on a fetch whose caller was cancelled
+     */
+    private class FetchCancelledException : Exception()
+}
@@ -0,0 +1,378 @@
+package crux.bphc.cms.helper
+
+import android.os.CancellationSignal
+import android.os.SystemClock
+import android.util.Log
+import crux.bphc.cms.BuildConfig
+import crux.bphc.cms.models.course.Course
+import crux.bphc.cms.models.forum.Discussion
+import io.realm.Realm
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import java.io.IOException
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Runs sync jobs on a small, shared pool of threads, so that refreshing many
+ * courses at once doesn't burst the server or pile up on Realm's write lock.
+ *
+ * Jobs are queued in priority lanes: the course the user is looking at,
+ * then favourite courses, then the rest. Jobs in the same lane run in the
+ * order they were submitted. At most [maxConcurrency] jobs run at a time.
+ * Within that cap, the number of jobs run at a time adapts to how jobs fare.
+ * It is halved when a job fails, lowered when jobs are slow, and raised
+ * while jobs are fast and more are waiting.
+ *
+ * Each job is given a Realm instance of its own thread, which is closed once
+ * the job completes, and a [CancellationSignal]. Cancelling the coroutine
+ * waiting on a job cancels its signal, which stops its requests in flight
+ * and skips its writes.
+ *
+ * Syncs of courses and forums go through a [SingleFlight] each. A course or
+ * forum that is already being synced isn't synced again, and one that was
+ * synced within the last [FRESHNESS_WINDOW] isn't synced at all.
+ */
+object SyncScheduler {
+    private const val TAG = "SyncScheduler"
+
+    enum class Priority {
+        VISIBLE, FAVORITE, DEFAULT
+    }
+
+    /**
+     * Default upper limit on the number of jobs run at a time
+     */
+    const val DEFAULT_MAX_CONCURRENCY = 3
+
+    /**
+     * Courses synced in a single job. Courses in a job share the batched
+     * requests made by [CourseSyncHandler].
+     */
+    private const val COURSES_PER_JOB = 4
+
+    /**
+     * A job taking longer than this (in milliseconds) per course is slow,
+     * and one taking less than [FAST_LATENCY] per course is fast.
+     */
+    private const val SLOW_LATENCY = 4000L
+    private const val FAST_LATENCY = 1500L
+
+    /**
+     * How long (in milliseconds) a synced course or forum is considered
+     * fresh
+     */
+    private const val FRESHNESS_WINDOW = 30 * 1000L
+
+    private val sequence = AtomicLong()
+    private var averageLatency = 0.0
+
+    private val courseFlights = SingleFlight<Int, CourseSync>(FRESHNESS_WINDOW)
+    private val forumFlights = SingleFlight<Int, ForumDiscussions>(FRESHNESS_WINDOW)
+
+    private val executor = ThreadPoolExecutor(DEFAULT_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY,
+            30, TimeUnit.SECONDS, PriorityBlockingQueue()).apply {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Upper limit on the number of jobs run at a time. Must be at least 1.
+     */
+    var maxConcurrency: Int
+        get() = executor.maximumPoolSize
+        @Synchronized set(value) {
+            require(value >= 1) { "maxConcurrency must be at least 1" }
+            // The core size may never exceed the maximum size
+            if (value < executor.corePoolSize) executor.corePoolSize = value
+            executor.maximumPoolSize = value
+        }
+
+    /**
+     * Number of jobs currently allowed to run at a time
+     */
+    val concurrency: Int
+        get() = executor.corePoolSize
+
+    /**
+     * Number of jobs waiting to be run
+     */
+    val queueDepth: Int
+        get() = executor.queue.size
+
+    /**
+     * Number of jobs currently running
+     */
+    val inFlight: Int
+        get() = executor.activeCount
+
+    /**
+     * Runs [task] on the scheduler's pool, suspending until it completes.
+     * Cancelling the caller removes the job if it hasn't started yet, and
+     * cancels the signal passed to [task] if it has.
+     *
+     * @param units The number of units of work (e.g courses) the task covers.
+     *              Used to compare its latency to that of other jobs.
+     */
+    suspend fun <T> run(priority: Priority, units: Int = 1, task: (Realm, CancellationSignal) -> T): T {
+        return suspendCancellableCoroutine { cont ->
+            val job = Job(QueueOrder(priority, sequence.getAndIncrement()), units, task) { job ->
+                try {
+                    cont.resume(job.get())
+                } catch (e: ExecutionException) {
+                    cont.resumeWithException(e.cause ?: e)
+                } catch (e: CancellationException) {
+                    // The caller has already been cancelled
+                }
+            }
+            cont.invokeOnCancellation {
+                job.cancel(false)
+                job.cancellationSignal.cancel()
+            }
+            executor.execute(job)
+        }
+    }
+
+    /**
+     * Syncs the contents of the given courses through [CourseSyncHandler],
+     * with the visible course and favourites ahead of the rest. Courses that
+     * are fresh are skipped.
+     *
+     * @param visibleCourseId The course the user is looking at, if any
+     * @param forceFullSync Fetch the entire courses, even if they are fresh
+     *                      or could be synced incrementally
+     * @param onSynced Called with the ids of the courses synced by each job,
+     *                 as the jobs complete. Courses that are fresh, or that
+     *                 failed to sync, aren't reported.
+     * @return Changes made to the courses that have new or modified content,
+     *         keyed by course id
+     * @throws IOException If none of the courses could be synced
+     */
+    @Throws(IOException::class)
+    suspend fun syncCourses(courseIds: List<Int>, visibleCourseId: Int = 0,
+                            forceFullSync: Boolean = false,
+                            onSynced: (suspend (Set<Int>) -> Unit)? = null): Map<Int, CourseChangeset> {
+        if (courseIds.isEmpty()) return emptyMap()
+
+        val favorites = withContext(Dispatchers.IO) {
+            Realm.getDefaultInstance().use { realm ->
+                realm.where(Course::class.java).equalTo("isFavorite", true).findAll().map { it.id }.toSet()
+            }
+        }
+        val lanes = courseIds.groupBy { laneOf(it, visibleCourseId, favorites) }
+
+        val results = coroutineScope {
+            lanes.flatMap { (priority, ids) ->
+                ids.chunked(COURSES_PER_JOB).map { chunk ->
+                    async {
+                        try {
+                            courseFlights.fetch(chunk, forceFullSync) { owned ->
+                                run(priority, owned.size) { realm, signal ->
+                                    val handler = CourseSyncHandler(CourseDataHandler(realm),
+                                            CourseRequestHandler(signal), signal)
+                                    val updated = handler.syncCourses(owned, forceFullSync)
+                                    handler.syncedCourseIds.associateWith { CourseSync(updated[it]) }
+                                }
+                            }.also { onSynced?.invoke(it.keys) }
+                        } catch (e: IOException) {
+                            Log.e(TAG, "IOException when syncing courses: $chunk", e)
+                            e
+                        }
+                    }
+                }
+            }.awaitAll()
+        }
+
+        val updatedCourses = mutableMapOf<Int, CourseChangeset>()
+        for (result in results) {
+            if (result is Map<*, *>) {
+                @Suppress("UNCHECKED_CAST")
+                for ((courseId, sync) in result as Map<Int, CourseSync>) {
+                    sync.changeset?.let { updatedCourses[courseId] = it }
+                }
+            }
+        }
+        if (results.all { it is IOException }) {
+            throw results.first() as IOException
+        }
+        return updatedCourses
+    }
+
+    /**
+     * Syncs a single course, for callers that can't suspend. [callback] is
+     * called on the main thread once the course has been synced, or is
+     * fresh. The sync is cancelled along with [scope], e.g when the screen
+     * that started it is destroyed, and [callback] is then never called.
+     */
+    @JvmStatic
+    fun syncCourseAsync(scope: CoroutineScope, courseId: Int, callback: SyncCallback) {
+        scope.launch(Dispatchers.Main) {
+            val success = try {
+                syncCourses(listOf(courseId))
+                true
+            } catch (e: IOException) {
+                false
+            }
+            callback.onComplete(success)
+        }
+    }
+
+    /**
+     * Fetches the discussions of the given forums, and writes them to Realm.
+     * Only discussions modified since the latest stored one are fetched,
+     * unless nothing is stored for a forum. Forums that are fresh are
+     * skipped.
+     *
+     * @param force Sync the forums even if they are fresh
+     * @return The stored discussions of each forum that was synced, along
+     *         with the ones that weren't stored before
+     */
+    @Throws(IOException::class)
+    suspend fun syncForums(forumIds: List<Int>, priority: Priority = Priority.DEFAULT,
+                           force: Boolean = false): Map<Int, ForumDiscussions> {
+        if (forumIds.isEmpty()) return emptyMap()
+
+        return forumFlights.fetch(forumIds, force) { owned ->
+            run(priority, owned.size) { realm, signal ->
+                val courseDataHandler = CourseDataHandler(realm)
+                val watermarks = owned.associateWith { courseDataHandler.getForumWatermark(it) }
+                val fetched = CourseRequestHandler(signal).getForumDiscussionsBatchSync(watermarks)
+                signal.throwIfCanceled()
+                fetched.mapValues { (forumId, discussions) ->
+                    discussions.forEach { it.forumId = forumId }
+                    val newDiscussions = if (watermarks[forumId] == 0) {
+                        courseDataHandler.setForumDiscussions(forumId, discussions)
+                    } else {
+                        courseDataHandler.mergeForumDiscussions(forumId, discussions)
+                    }
+                    ForumDiscussions(realm.copyFromRealm(courseDataHandler.getForumDiscussions(forumId)),
+                            newDiscussions ?: emptyList())
+                }
+            }
+        }
+    }
+
+    /**
+     * Adapts the number of jobs run at a time to a job that just completed.
+     */
+    @Synchronized
+    private fun onJobComplete(latency: Long, units: Int, failed: Boolean) {
+        averageLatency = nextAverageLatency(averageLatency, latency.toDouble() / units.coerceAtLeast(1))
+
+        val current = executor.corePoolSize
+        val next = nextConcurrency(current, maxConcurrency, averageLatency, queueDepth, failed)
+        if (next != current) {
+            executor.corePoolSize = next
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "concurrency: $next, in flight: $inFlight, queued: $queueDepth, " +
+                    "latency: ${averageLatency.toLong()}ms")
+        }
+    }
+
+    /**
+     * The lane a course's job is queued in: the visible course first, then
+     * favourites, then the rest
+     */
+    internal fun laneOf(courseId: Int, visibleCourseId: Int, favorites: Set<Int>): Priority {
+        return when (courseId) {
+            visibleCourseId -> Priority.VISIBLE
+            in favorites -> Priority.FAVORITE
+            else -> Priority.DEFAULT
+        }
+    }
+
+    /**
+     * Folds the latency (in milliseconds) per unit of a completed job into
+     * the moving average of the latencies, weighing recent jobs more. An
+     * average of 0 means no job has completed yet.
+     */
+    internal fun nextAverageLatency(average: Double, unitLatency: Double): Double {
+        return if (average == 0.0) unitLatency else 0.7 * average + 0.3 * unitLatency
+    }
+
+    /**
+     * The number of jobs to run at a time once a job completes. It is halved
+     * when the job failed, lowered by one while jobs are slow, and raised by
+     * one while jobs are fast and [queued] jobs are waiting, staying within
+     * 1 and [max].
+     */
+    internal fun nextConcurrency(current: Int, max: Int, averageLatency: Double,
+                                 queued: Int, failed: Boolean): Int {
+        return when {
+            failed -> (current / 2).coerceAtLeast(1)
+            averageLatency > SLOW_LATENCY -> (current - 1).coerceAtLeast(1)
+            averageLatency < FAST_LATENCY && queued > 0 -> (current + 1).coerceAtMost(max)
+            else -> current
+        }
+    }
+
+    /**
+     * The discussions of a forum, once synced
+     *
+     * @property discussions All of the forum's stored discussions
+     * @property newDiscussions Discussions that weren't stored before
+     */
+    class ForumDiscussions(val discussions: List<Discussion>, val newDiscussions: List<Discussion>)
+
+    /**
+     * A course that was synced, along with its changes if it has new or
+     * modified content
+     */
+    private class CourseSync(val changeset: CourseChangeset?)
+
+    /**
+     * Where a job sits in the queue: by lane, then in the order jobs were
+     * submitted
+     */
+    internal data class QueueOrder(val priority: Priority, val sequence: Long) : Comparable<QueueOrder> {
+        override fun compareTo(other: QueueOrder): Int {
+            return compareValuesBy(this, other, { it.priority }, { it.sequence })
+        }
+    }
+
+    fun interface SyncCallback {
+        fun onComplete(success: Boolean)
+    }
+
+    private class Job<T>(
+        val order: QueueOrder,
+        units: Int,
+        task: (Realm, CancellationSignal) -> T,
+        val cancellationSignal: CancellationSignal = CancellationSignal(),
+        private val onDone: (Job<T>) -> Unit,
+    ) : FutureTask<T>(Callable {
+        val start = SystemClock.elapsedRealtime()
+        var failed = true
+        val realm = Realm.getDefaultInstance() // tie a realm instance to this thread
+        try {
+            task(realm, cancellationSignal).also { failed = false }
+        } finally {
+            realm.close()
+            // A cancelled job says nothing about how the server is doing
+            if (!cancellationSignal.isCanceled) {
+                onJobComplete(SystemClock.elapsedRealtime() - start, units, failed)
+            }
+        }
+    }), Comparable<Job<*>> {
+
+        override fun compareTo(other: Job<*>): Int = order.compareTo(other.order)
+
+        override fun done() {
+            onDone(this)
+        }
+    }
+}
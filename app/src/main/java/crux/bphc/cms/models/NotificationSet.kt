@@ -43,8 +43,8 @@ data class NotificationSet(
                     intent,
                     PendingIntent.FLAG_UPDATE_CURRENT
             )
-            return NotificationSet(module.id, course.id, section.name, module.name,
-                    course.shortName, pendingIntent)
+            return NotificationSet(module.id, course.id, section.plainName, module.plainName,
+                    course.plainShortName, pendingIntent)
         }
 
         /**
@@ -67,8 +67,8 @@ data class NotificationSet(
                     intent,
                     PendingIntent.FLAG_UPDATE_CURRENT
             )
-            return NotificationSet(discussion.id, course.id, module.name, discussion.message,
-                    course.shortName, pendingIntent)
+            return NotificationSet(discussion.id, course.id, module.plainName, discussion.messageWithToken,
+                    course.plainShortName, pendingIntent)
         }
 
         fun createNotificationSetForSiteNews(context: Context, discussion: Discussion)
@@ -86,7 +86,7 @@ data class NotificationSet(
                     intent,
                     PendingIntent.FLAG_UPDATE_CURRENT
             )
-            return NotificationSet(1, 0, "Site News", discussion.message,
+            return NotificationSet(1, 0, "Site News", discussion.messageWithToken,
                     "Site News", pendingIntent)
         }
     }
@@ -71,6 +71,18 @@ object UserAccount {
                     .apply()
         }
 
+    /**
+     * Size, in bytes, all downloaded files may take up before the ones
+     * opened least recently are evicted, or 0 if unlimited
+     */
+    var storageBudget: Long
+        get() = prefs.getLong("storageBudget", 0)
+        set(bytes) {
+            prefs.edit()
+                    .putLong("storageBudget", bytes)
+                    .apply()
+        }
+
     /**
      * Denotes user's Dark mode preferences
      */
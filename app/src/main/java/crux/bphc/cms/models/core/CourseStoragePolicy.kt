@@ -0,0 +1,24 @@
+package crux.bphc.cms.models.core
+
+import io.realm.RealmObject
+import io.realm.annotations.PrimaryKey
+
+/**
+ * How much of a course's downloaded files [crux.bphc.cms.core.StorageManager]
+ * may keep, as set by the user. Courses without a policy are only subject to
+ * the global budget.
+ */
+open class CourseStoragePolicy(
+    @PrimaryKey var courseId: Int = 0,
+
+    /**
+     * Size, in bytes, the course's files may take up, or 0 if unlimited
+     */
+    var budget: Long = 0,
+
+    /**
+     * Whether the course's files are never evicted, even to stay within the
+     * global budget
+     */
+    var isPinned: Boolean = false,
+) : RealmObject()
@@ -0,0 +1,47 @@
+package crux.bphc.cms.models.core
+
+import io.realm.RealmObject
+import io.realm.annotations.PrimaryKey
+
+/**
+ * A file queued for download by [crux.bphc.cms.core.DownloadEngine]. Tasks
+ * are kept until the file is downloaded, so that downloads that were cut
+ * short continue the next time the app starts.
+ */
+open class DownloadTask(
+    /**
+     * Absolute path the file is downloaded to
+     */
+    @PrimaryKey var path: String = "",
+
+    /**
+     * URL of the file, without the user's token
+     */
+    var url: String = "",
+
+    /**
+     * Ordinal of the task's [crux.bphc.cms.core.DownloadEngine.Priority]
+     */
+    var priority: Int = 0,
+
+    /**
+     * The `ETag` or `Last-Modified` of the partially downloaded file, if the
+     * server sent one. A partial file is only resumed if it still matches.
+     */
+    var validator: String = "",
+
+    /**
+     * Unix epoch, in milliseconds, of when the task was queued
+     */
+    var createdAt: Long = 0,
+
+    /**
+     * Size, in bytes, Moodle reported for the file, or -1 if unknown
+     */
+    var size: Long = -1,
+
+    /**
+     * The `timemodified` Moodle reported for the file, or 0 if unknown
+     */
+    var timeModified: Long = 0,
+) : RealmObject()
@@ -0,0 +1,54 @@
+package crux.bphc.cms.models.core
+
+import io.realm.RealmObject
+import io.realm.annotations.Index
+import io.realm.annotations.PrimaryKey
+
+/**
+ * Records a file downloaded by [crux.bphc.cms.core.DownloadEngine], so that
+ * a later download of the same file can be skipped if it hasn't changed, and
+ * a copy that doesn't match can be told apart and repaired.
+ *
+ * The file at [path] is only a reference. Its contents are kept once, as the
+ * [StoredFile] with the same [checksum].
+ */
+open class DownloadedFile(
+    /**
+     * Absolute path the file was downloaded to, e.g in a course's directory
+     */
+    @PrimaryKey var path: String = "",
+
+    /**
+     * URL the file was downloaded from, without the user's token
+     */
+    @Index var url: String = "",
+
+    /**
+     * Size, in bytes, of the file as downloaded
+     */
+    var size: Long = 0,
+
+    /**
+     * The `timemodified` Moodle reported for the file, or 0 if unknown
+     */
+    var timeModified: Long = 0,
+
+    /**
+     * Hex encoded SHA-256 of the file's contents. Identifies the
+     * [StoredFile] holding them.
+     */
+    @Index var checksum: String = "",
+
+    /**
+     * The `ETag` or `Last-Modified` the server sent with the file, if any.
+     * Used to check whether the file has changed with a conditional request.
+     */
+    var validator: String = "",
+
+    /**
+     * Unix epoch, in milliseconds, of when the file was last downloaded or
+     * opened. Files opened least recently are evicted first by
+     * [crux.bphc.cms.core.StorageManager].
+     */
+    var lastOpened: Long = 0,
+) : RealmObject()
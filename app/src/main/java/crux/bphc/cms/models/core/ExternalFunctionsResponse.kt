@@ -0,0 +1,28 @@
+package crux.bphc.cms.models.core
+
+import com.google.gson.annotations.SerializedName
+
+/**
+ * Model class to represent the response from
+ * [crux.bphc.cms.network.MoodleServices.callExternalFunctions]. The
+ * responses are in the same order as the requests that were packed into
+ * the call.
+ *
+ * If the site does not allow `tool_mobile_call_external_functions`, Moodle
+ * replies with a top level exception instead and [responses] is `null`.
+ */
+data class ExternalFunctionsResponse(
+    @SerializedName("responses") val responses: List<ExternalFunctionResponse>? = null,
+    @SerializedName("errorcode") val errorCode: String? = null,
+)
+
+/**
+ * The response of a single function call inside a batched request.
+ * [data] holds the JSON encoded return value of the function and is only
+ * present if [error] is false.
+ */
+data class ExternalFunctionResponse(
+    @SerializedName("error") val error: Boolean = false,
+    @SerializedName("data") val data: String? = null,
+    @SerializedName("exception") val exception: String? = null,
+)
@@ -0,0 +1,33 @@
+package crux.bphc.cms.models.core
+
+import io.realm.RealmObject
+import io.realm.annotations.PrimaryKey
+
+/**
+ * Contents kept by [crux.bphc.cms.core.ContentStore], once however many
+ * places they were downloaded to. Each place is a [DownloadedFile] with the
+ * same checksum.
+ */
+open class StoredFile(
+    /**
+     * Hex encoded SHA-256 of the contents
+     */
+    @PrimaryKey var checksum: String = "",
+
+    /**
+     * Absolute path of the file holding the contents, in the store's
+     * directory
+     */
+    var path: String = "",
+
+    /**
+     * Size, in bytes, of the contents
+     */
+    var size: Long = 0,
+
+    /**
+     * Number of [DownloadedFile]s that refer to the contents. The contents
+     * are deleted along with the last of them.
+     */
+    var references: Int = 0,
+) : RealmObject()
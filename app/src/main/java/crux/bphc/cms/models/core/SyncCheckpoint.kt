@@ -0,0 +1,36 @@
+package crux.bphc.cms.models.core
+
+import io.realm.RealmObject
+import io.realm.annotations.PrimaryKey
+
+/**
+ * Marks a step of the initial sync, done right after login, as complete.
+ * The sync skips completed steps, so that it resumes from where it stopped
+ * if the app is killed partway through.
+ */
+open class SyncCheckpoint(
+    /**
+     * Identifies the step. See [courseKey] and [forumKey].
+     */
+    @PrimaryKey var key: String = "",
+
+    /**
+     * Unix epoch, in seconds, of when the step completed
+     */
+    var completedAt: Long = 0,
+) : RealmObject() {
+
+    companion object {
+        /**
+         * Key of the step that syncs a course's contents
+         */
+        @JvmStatic
+        fun courseKey(courseId: Int): String = "course:$courseId"
+
+        /**
+         * Key of the step that syncs a forum's discussions
+         */
+        @JvmStatic
+        fun forumKey(forumId: Int): String = "forum:$forumId"
+    }
+}
@@ -2,6 +2,7 @@ package crux.bphc.cms.models.course
 
 import com.google.gson.annotations.SerializedName
 import io.realm.RealmObject
+import io.realm.annotations.Index
 import java.util.*
 
 /**
@@ -16,7 +17,7 @@ open class Content (
         @SerializedName("filesize") var fileSize: Int = 0,
         @SerializedName("timecreated") var timeCreated: Long = 0,
         @SerializedName("timemodified") var timeModified: Long = 0,
-        var moduleId: Int = 0,
+        @Index var moduleId: Int = 0,
 ) : RealmObject() {
 
 
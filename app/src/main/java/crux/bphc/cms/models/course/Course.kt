@@ -1,8 +1,8 @@
 package crux.bphc.cms.models.course
 
-import androidx.core.text.HtmlCompat
 import com.google.gson.annotations.SerializedName
 import crux.bphc.cms.models.enrol.SearchedCourseDetail
+import crux.bphc.cms.utils.Utils
 import io.realm.RealmObject
 import io.realm.annotations.Ignore
 import io.realm.annotations.PrimaryKey
@@ -19,19 +19,33 @@ open class Course(
         var isFavorite: Boolean = false,
 ) : RealmObject() {
 
+    /**
+     * HTML, as sent by Moodle. Display [plainShortName] instead.
+     */
     @SerializedName("shortname")
     var shortName = shortName
-        get() = HtmlCompat.fromHtml(field, HtmlCompat.FROM_HTML_MODE_COMPACT).toString().trim()
 
+    /**
+     * HTML, as sent by Moodle. Display [plainFullName] instead.
+     */
     @SerializedName("fullname")
     var fullName = fullName
-        get() = HtmlCompat.fromHtml(field, HtmlCompat.FROM_HTML_MODE_COMPACT).toString().trim()
+
+    /**
+     * [shortName] as plain text, derived when the course is stored
+     */
+    var plainShortName = ""
+
+    /**
+     * [fullName] as plain text, derived when the course is stored
+     */
+    var plainFullName = ""
 
     @Ignore private var _courseName: Array<String>? = null
     @Ignore var courseName: Array<String> = emptyArray() // The entire courseName
         get() {
             if (_courseName == null) {
-                val courseName = fullName
+                val courseName = plainFullName
                 // Specifies the string pattern which is to be searched
                 val pattern = Pattern.compile(NAME_REGEX, Pattern.MULTILINE)
                 val matcher = pattern.matcher(courseName)
@@ -51,7 +65,10 @@ open class Course(
     @Ignore var totalFiles = 0
     @Ignore var downloadedFiles = 0
 
-    constructor(course: SearchedCourseDetail) : this(course.id, course.shortName, course.fullName)
+    constructor(course: SearchedCourseDetail) : this(course.id, course.shortName, course.fullName) {
+        plainShortName = Utils.htmlToPlainText(shortName)
+        plainFullName = Utils.htmlToPlainText(fullName)
+    }
 
     override fun equals(other: Any?): Boolean {
         return other is Course && other.id == id
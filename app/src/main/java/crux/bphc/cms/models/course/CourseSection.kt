@@ -1,14 +1,11 @@
 package crux.bphc.cms.models.course
 
-import androidx.core.text.HtmlCompat
 import com.google.gson.annotations.SerializedName
 import crux.bphc.cms.interfaces.CourseContent
-import crux.bphc.cms.models.UserAccount
 import io.realm.RealmList
 import io.realm.RealmObject
+import io.realm.annotations.Index
 import io.realm.annotations.PrimaryKey
-import java.util.regex.Matcher
-import java.util.regex.Pattern
 
 /**
  * @author Harshit Agarwal (17-Dec-2016)
@@ -20,31 +17,29 @@ open class CourseSection(
         @SerializedName("section") var sectionNum: Int = 0,
         summary: String = "",
         @SerializedName("modules") var modules: RealmList<Module> = RealmList<Module>(),
-        var courseId: Int = 0,
+        @Index var courseId: Int = 0,
 ) : RealmObject(), CourseContent {
 
+    /**
+     * HTML, as sent by Moodle. Display [plainName] instead.
+     */
     @SerializedName("name") var name: String = name
-        get() {
-            return HtmlCompat.fromHtml(field, HtmlCompat.FROM_HTML_MODE_COMPACT).toString()
-                .trim { it <= ' ' }
-        }
 
+    /**
+     * HTML, as sent by Moodle. Display [summaryWithToken] instead.
+     */
     @SerializedName("summary") var summary: String = summary
-        get() {
-            val pattern: Pattern = Pattern.compile(URL_REGEX)
-            val matcher: Matcher = pattern.matcher(field)
 
-            val summaryBuffer = StringBuffer(field.length)
+    /**
+     * [name] as plain text, derived when the section is stored
+     */
+    var plainName: String = ""
 
-            while (matcher.find()) {
-                val foundLink = matcher.group(1)
-                val replaceWith = "<a href=\"$foundLink?token=${UserAccount.token}\">"
-                matcher.appendReplacement(summaryBuffer, replaceWith)
-            }
-            matcher.appendTail(summaryBuffer)
-
-            return summaryBuffer.toString().trim { it <= ' ' }
-        }
+    /**
+     * [summary] with the user's token appended to links, derived when the
+     * section is stored
+     */
+    var summaryWithToken: String = ""
 
     fun deepCopy(): CourseSection  = CourseSection(
         id,
@@ -53,7 +48,10 @@ open class CourseSection(
         summary,
         RealmList<Module>(*modules.map { it.deepCopy() }.toTypedArray()),
         courseId,
-    )
+    ).also {
+        it.plainName = plainName
+        it.summaryWithToken = summaryWithToken
+    }
 
     override fun equals(other: Any?): Boolean {
         return other is CourseSection && other.id == id
@@ -62,8 +60,4 @@ open class CourseSection(
     override fun hashCode(): Int {
         return id
     }
-
-    companion object {
-        private const val URL_REGEX = "<a href=\"(.*?)\">"
-    }
 }
\ No newline at end of file
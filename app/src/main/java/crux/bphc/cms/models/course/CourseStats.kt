@@ -0,0 +1,36 @@
+package crux.bphc.cms.models.course
+
+import io.realm.RealmObject
+import io.realm.annotations.PrimaryKey
+
+/**
+ * Precomputed counters of a course, so that lists of courses don't have to
+ * query the course's contents for every row. These are kept up to date by
+ * [crux.bphc.cms.helper.CourseDataHandler], in the same transaction as the
+ * change that affects them.
+ */
+open class CourseStats(
+    @PrimaryKey var courseId: Int = 0,
+
+    /**
+     * Number of modules of the course that are marked as unread.
+     */
+    var unreadModules: Int = 0,
+
+    /**
+     * Number of downloadable files in the course.
+     */
+    var totalFiles: Int = 0,
+
+    /**
+     * Number of downloadable files of the course that were present on disk
+     * the last time they were counted.
+     */
+    var downloadedFiles: Int = 0,
+
+    /**
+     * Unix epoch, in seconds, of the last time the course's contents were
+     * synced.
+     */
+    var lastSynced: Long = 0,
+) : RealmObject()
@@ -0,0 +1,23 @@
+package crux.bphc.cms.models.course
+
+import io.realm.RealmObject
+import io.realm.annotations.PrimaryKey
+
+/**
+ * Book-keeping for the incremental sync of a course's contents.
+ */
+open class CourseSyncState(
+    @PrimaryKey var courseId: Int = 0,
+
+    /**
+     * Unix epoch, in seconds, of the last time the course's contents were
+     * synced. Changes made after this instant are yet to be fetched.
+     */
+    var lastSynced: Long = 0,
+
+    /**
+     * Unix epoch, in seconds, of the last time the course's entire
+     * contents were fetched.
+     */
+    var lastFullSync: Long = 0,
+) : RealmObject()
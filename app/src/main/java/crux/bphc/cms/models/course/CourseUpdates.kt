@@ -0,0 +1,35 @@
+package crux.bphc.cms.models.course
+
+import com.google.gson.annotations.SerializedName
+
+/**
+ * Model class to represent the response from
+ * [crux.bphc.cms.network.MoodleServices.fetchCourseUpdatesSince].
+ *
+ * [instances] is `null` if Moodle responded with an exception, which must
+ * not be confused with a course that has no updates.
+ */
+data class CourseUpdates(
+    @SerializedName("instances") val instances: List<UpdatedInstance>? = null,
+) {
+    /**
+     * Ids of the modules which have been updated.
+     */
+    val updatedModuleIds: List<Int>
+        get() = instances?.filter { it.contextLevel == "module" }?.map { it.id } ?: emptyList()
+}
+
+/**
+ * A single instance (i.e a module or the course itself) that has been
+ * updated, along with the areas of the instance that were updated.
+ */
+data class UpdatedInstance(
+    @SerializedName("contextlevel") val contextLevel: String = "",
+    @SerializedName("id") val id: Int = 0,
+    @SerializedName("updates") val updates: List<InstanceUpdate> = emptyList(),
+)
+
+data class InstanceUpdate(
+    @SerializedName("name") val name: String = "",
+    @SerializedName("timeupdated") val timeUpdated: Long = 0,
+)
@@ -1,18 +1,15 @@
 package crux.bphc.cms.models.course
 
-import androidx.core.text.HtmlCompat
 import com.google.gson.annotations.SerializedName
 import crux.bphc.cms.R
 import crux.bphc.cms.interfaces.CourseContent
-import crux.bphc.cms.models.UserAccount
 import crux.bphc.cms.utils.FileUtils
 import io.realm.RealmList
 import io.realm.RealmObject
 import io.realm.annotations.Ignore
+import io.realm.annotations.Index
 import io.realm.annotations.PrimaryKey
 import java.util.*
-import java.util.regex.Matcher
-import java.util.regex.Pattern
 
 /**
  * @author Harshit Agarwal (16-Dec-2016)
@@ -27,35 +24,33 @@ open class Module(
     @SerializedName("modname") private var modName: String = "",
     description: String  = "",
     @SerializedName("contents") var contents: RealmList<Content> = RealmList(),
-    var courseSectionId: Int = 0,
-    var isUnread: Boolean = false,
+    @Index var courseSectionId: Int = 0,
+    @Index var isUnread: Boolean = false,
 ) : RealmObject(), CourseContent {
     enum class Type {
         RESOURCE, FORUM, LABEL, ASSIGNMENT, FOLDER, QUIZ, URL, PAGE, DEFAULT, BOOK
     }
 
+    /**
+     * HTML, as sent by Moodle. Display [plainName] instead.
+     */
     @SerializedName("name") var name: String = name
-        get() {
-            return HtmlCompat.fromHtml(field, HtmlCompat.FROM_HTML_MODE_COMPACT).toString()
-                .trim{ it <= ' ' }
-        }
 
+    /**
+     * HTML, as sent by Moodle. Display [descriptionWithToken] instead.
+     */
     @SerializedName("description") var description: String = description
-        get() {
-            val pattern: Pattern = Pattern.compile(URL_REGEX)
-            val matcher: Matcher = pattern.matcher(field)
 
-            val descriptionBuffer = StringBuffer(field.length)
+    /**
+     * [name] as plain text, derived when the module is stored
+     */
+    var plainName: String = ""
 
-            while (matcher.find()) {
-                val foundLink = matcher.group(1)
-                val replaceWith = "<a href=\"$foundLink?token=${UserAccount.token}\">"
-                matcher.appendReplacement(descriptionBuffer, replaceWith)
-            }
-            matcher.appendTail(descriptionBuffer)
-
-            return descriptionBuffer.toString().trim { it <= ' ' }
-        }
+    /**
+     * [description] with the user's token appended to links, derived when
+     * the module is stored
+     */
+    var descriptionWithToken: String = ""
 
     @Ignore var modType: Type = Type.DEFAULT
         get() {
@@ -97,7 +92,10 @@ open class Module(
         RealmList<Content>(*contents.map { it.copy() }.toTypedArray()),
         courseSectionId,
         isUnread,
-    )
+    ).also {
+        it.plainName = plainName
+        it.descriptionWithToken = descriptionWithToken
+    }
 
     private fun inferModuleTypeFromModuleName(): Type {
         return when (modName.lowercase(Locale.ROOT)) {
@@ -120,8 +118,4 @@ open class Module(
     override fun hashCode(): Int {
         return id
     }
-
-    companion object {
-        private const val URL_REGEX = "<a href=\"(.*?)\">"
-    }
 }
\ No newline at end of file
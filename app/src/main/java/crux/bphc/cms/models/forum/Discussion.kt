@@ -1,13 +1,10 @@
 package crux.bphc.cms.models.forum
 
-import androidx.core.text.HtmlCompat
 import com.google.gson.annotations.SerializedName
-import crux.bphc.cms.models.UserAccount.token
 import io.realm.RealmList
 import io.realm.RealmObject
+import io.realm.annotations.Index
 import io.realm.annotations.PrimaryKey
-import java.util.regex.Matcher
-import java.util.regex.Pattern
 
 
 /**
@@ -31,7 +28,7 @@ open class Discussion(
      * Discussion of the ID. Uniquely identifies a thread of discussions. Used
      * when querying the replies in a thread.
      */
-    @SerializedName("discussion")  var discussionId:Int = 0,
+    @Index @SerializedName("discussion")  var discussionId:Int = 0,
 
     /**
      * The name i.e subject of the thread.
@@ -77,38 +74,30 @@ open class Discussion(
      * The id of the Forum instance that the Discussion is a part of. This is not
      * a part of the [crux.bphc.cms.network.MoodleServices.getForumDiscussions].
      */
-    var forumId:Int = 0,
+    @Index var forumId:Int = 0,
 ) : RealmObject() {
 
+    /**
+     * HTML, as sent by Moodle. Display [plainSubject] instead.
+     */
     var subject: String = subject
-        get() {
-            return HtmlCompat.fromHtml(field, HtmlCompat.FROM_HTML_MODE_COMPACT).toString()
-                .trim { it < ' ' }
-        }
         private set
 
     /**
-     * The content of this discussion.
+     * The content of this discussion. HTML, as sent by Moodle. Display
+     * [messageWithToken] instead.
      */
     @SerializedName("message") var message: String = message
-        get() {
-            val pattern: Pattern = Pattern.compile(URL_REGEX)
-            val matcher: Matcher = pattern.matcher(field)
-
-            val messageBuffer = StringBuffer(field.length)
-
-            while (matcher.find()) {
-                val foundLink = matcher.group(1)
-                val replaceWith = "<a href=\"$foundLink?token=$token\">"
-                matcher.appendReplacement(messageBuffer, replaceWith)
-            }
-            matcher.appendTail(messageBuffer)
-
-            return messageBuffer.toString().trim { it <= ' ' }
-        }
         private set
 
-    companion object {
-        private const val URL_REGEX = "<a href=\"(.*?)\">"
-    }
+    /**
+     * [subject] as plain text, derived when the discussion is stored
+     */
+    var plainSubject: String = ""
+
+    /**
+     * [message] with the user's token appended to links, derived when the
+     * discussion is stored
+     */
+    var messageWithToken: String = ""
 }
\ No newline at end of file
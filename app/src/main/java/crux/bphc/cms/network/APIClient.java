@@ -1,8 +1,26 @@
 package crux.bphc.cms.network;
 
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.IOException;
+
 import crux.bphc.cms.BuildConfig;
+import crux.bphc.cms.app.MyApplication;
 import crux.bphc.cms.app.Urls;
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
@@ -12,28 +30,163 @@ import retrofit2.converter.gson.GsonConverterFactory;
  */
 
 public class APIClient {
+    private static final String TAG = "APIClient";
+
+    /**
+     * Size (in bytes) of the on-disk HTTP cache
+     */
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Requests made at a time to Moodle, through {@link OkHttpClient#dispatcher()}.
+     * OkHttp allows only 5 by default. Over HTTP/2, they are multiplexed onto
+     * a single connection.
+     */
+    static final int MAX_REQUESTS_PER_HOST = 8;
 
     private static Retrofit retrofit = null;
+    private static OkHttpClient client = null;
+    private static Gson gson = null;
+    private static Cache cache = null;
+
+    private static final CacheInterceptor cacheInterceptor = new CacheInterceptor();
 
     private static final HttpLoggingInterceptor interceptor = new HttpLoggingInterceptor();
-    private static final OkHttpClient.Builder builder = new OkHttpClient.Builder();
 
     private APIClient() {
     }
 
     public static Retrofit getRetrofitInstance() {
         if (retrofit == null) {
-            interceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
-            if (BuildConfig.DEBUG) {
-                builder.addInterceptor(interceptor);
-            }
-
             retrofit = new Retrofit.Builder()
-                    .addConverterFactory(GsonConverterFactory.create())
+                    .addConverterFactory(GsonConverterFactory.create(getGson()))
                     .baseUrl(Urls.MOODLE_URL.toString())
-                    .client(builder.build())
+                    .client(getClient())
                     .build();
         }
         return retrofit;
     }
+
+    /**
+     * The OkHttp client shared by every request to Moodle. Like every OkHttp
+     * client, it prefers HTTP/2 where the server supports it, and pools
+     * connections, so that requests share a connection instead of opening
+     * one each.
+     */
+    public static synchronized OkHttpClient getClient() {
+        if (client == null) {
+            client = buildClient(getCache());
+        }
+        return client;
+    }
+
+    @NonNull
+    static OkHttpClient buildClient(@Nullable Cache cache) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        // Logging bodies is slow on large responses, and skews the timings
+        // recorded by CallTimingListener
+        interceptor.setLevel(HttpLoggingInterceptor.Level.BASIC);
+        if (BuildConfig.DEBUG) {
+            builder.addInterceptor(interceptor);
+        }
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+        return builder.eventListenerFactory(CallTimingListener.FACTORY)
+                .cache(cache)
+                .addInterceptor(cacheInterceptor)
+                .addNetworkInterceptor(cacheInterceptor)
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /**
+     * Resolves the Moodle host and completes a TLS handshake in the
+     * background, unless a connection is already open, so that the next
+     * request doesn't pay for them. OkHttp keeps an idle connection alive for
+     * five minutes.
+     */
+    public static void warmUpConnection() {
+        OkHttpClient client = getClient();
+        if (client.connectionPool().connectionCount() > 0) return;
+
+        Request request = new Request.Builder()
+                .url(Urls.MOODLE_URL.toString())
+                .head()
+                .build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+            }
+
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                Log.w(TAG, "Failed to warm up connection", e);
+            }
+        });
+    }
+
+    /**
+     * The on-disk cache of HTTP responses. See {@link CacheInterceptor} for
+     * what is cached.
+     */
+    public static synchronized Cache getCache() {
+        if (cache == null) {
+            File directory = new File(MyApplication.Companion.getInstance().getCacheDir(), "http");
+            cache = new Cache(directory, CACHE_SIZE);
+        }
+        return cache;
+    }
+
+    /**
+     * Number of responses served from the cache, including those revalidated
+     * with the server, and those served because the server couldn't be reached
+     */
+    public static int getCacheHitCount() {
+        return getCache().hitCount();
+    }
+
+    /**
+     * Number of responses served from the cache because the server couldn't
+     * be reached. These are included in {@link #getCacheHitCount()}.
+     */
+    public static int getCacheOfflineHitCount() {
+        return cacheInterceptor.getOfflineHitCount();
+    }
+
+    /**
+     * Number of responses that had to be fetched in full
+     */
+    public static int getCacheMissCount() {
+        // The failed request preceding an offline hit isn't a miss
+        return getCache().requestCount() - getCache().hitCount() - cacheInterceptor.getOfflineHitCount();
+    }
+
+    /**
+     * Removes every cached response, e.g when the user logs out, since the
+     * responses are specific to the user.
+     */
+    public static void clearCache() {
+        try {
+            getCache().evictAll();
+        } catch (IOException e) {
+            Log.e(TAG, "IOException when clearing the HTTP cache", e);
+        }
+    }
+
+    /**
+     * The Gson instance used to decode responses. Gson instances cache the
+     * type adapters they create, so this should be preferred over creating
+     * new instances when decoding responses manually. Models are decoded
+     * without reflection using {@link ModelTypeAdapterFactory}.
+     */
+    public static synchronized Gson getGson() {
+        if (gson == null) {
+            gson = new GsonBuilder()
+                    .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                    .create();
+        }
+        return gson;
+    }
 }
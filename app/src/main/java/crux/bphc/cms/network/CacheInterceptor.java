@@ -0,0 +1,124 @@
+package crux.bphc.cms.network;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.CacheControl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Makes responses of read-only web service functions cacheable, and serves
+ * them from the cache when the network can't be reached.
+ * <p>
+ * Moodle marks every web service response as expired. Responses of the
+ * functions in {@link #READ_ONLY_FUNCTIONS} are stored, but are always
+ * revalidated while online, using their <code>ETag</code> or
+ * <code>Last-Modified</code> validators when Moodle sends them. If the request
+ * fails, a cached response up to {@link #OFFLINE_MAX_STALE} days old is used
+ * instead, except for the functions in {@link #SYNC_FUNCTIONS}. Responses of
+ * every other function are never stored, since they may have side effects e.g
+ * marking notifications as read.
+ * <p>
+ * Add an instance as both an application interceptor and a network
+ * interceptor; the former serves stale responses, the latter rewrites the
+ * headers of responses before they are cached.
+ */
+public class CacheInterceptor implements Interceptor {
+
+    /**
+     * How old (in days) a cached response may be, to be used when offline
+     */
+    private static final int OFFLINE_MAX_STALE = 1;
+
+    private static final Set<String> READ_ONLY_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "core_enrol_get_users_courses",
+            "core_course_get_contents",
+            "core_course_get_updates_since",
+            "core_course_search_courses",
+            "mod_forum_get_forum_discussions_paginated"
+    ));
+
+    /**
+     * Read-only functions whose responses are synced into the database. A
+     * stale response would be taken as the current state of the course, so
+     * files and modules missing from it would be deleted and the course
+     * marked as synced. These are revalidated like the others, but the
+     * request fails instead when offline.
+     */
+    private static final Set<String> SYNC_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "core_course_get_contents",
+            "core_course_get_updates_since"
+    ));
+
+    private final AtomicInteger offlineHits = new AtomicInteger();
+
+    /**
+     * Number of responses served from the cache because the network
+     * couldn't be reached
+     */
+    public int getOfflineHitCount() {
+        return offlineHits.get();
+    }
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        String function = request.url().queryParameter("wsfunction");
+        if (function == null) {
+            // Not a web service call e.g pluginfile.php. Use the response's own headers.
+            return chain.proceed(request);
+        }
+
+        boolean readOnly = READ_ONLY_FUNCTIONS.contains(function);
+        if (chain.connection() != null) {
+            // Network interceptor
+            return rewriteHeaders(chain.proceed(request), readOnly);
+        }
+
+        try {
+            return chain.proceed(request);
+        } catch (IOException e) {
+            if (!readOnly || SYNC_FUNCTIONS.contains(function) || !request.method().equals("GET")) {
+                throw e;
+            }
+
+            Response cached = chain.proceed(request.newBuilder()
+                    .cacheControl(new CacheControl.Builder()
+                            .onlyIfCached()
+                            .maxStale(OFFLINE_MAX_STALE, TimeUnit.DAYS)
+                            .build())
+                    .build());
+            if (!cached.isSuccessful()) {
+                // Nothing fresh enough in the cache
+                cached.close();
+                throw e;
+            }
+            offlineHits.incrementAndGet();
+            return cached;
+        }
+    }
+
+    @NonNull
+    private static Response rewriteHeaders(@NonNull Response response, boolean readOnly) {
+        // Headers of a 304 are merged into the cached response, so rewrite those too
+        if (!response.isSuccessful() && response.code() != HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return response;
+        }
+
+        return response.newBuilder()
+                .removeHeader("Pragma")
+                .removeHeader("Expires")
+                .header("Cache-Control", readOnly ? "private, no-cache" : "no-store")
+                .build();
+    }
+}
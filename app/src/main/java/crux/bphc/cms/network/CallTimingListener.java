@@ -0,0 +1,149 @@
+package crux.bphc.cms.network;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.FormBody;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Records how long each phase of an HTTP call takes, into
+ * {@link NetworkMetrics}. Calls are keyed by their web service function, or
+ * by the last segment of their path if they aren't web service calls e.g
+ * <code>pluginfile.php</code>.
+ * <p>
+ * A listener is created per call through {@link #FACTORY}.
+ */
+public class CallTimingListener extends EventListener {
+
+    public static final EventListener.Factory FACTORY = call -> new CallTimingListener();
+
+    private long callStart;
+    private long dnsStart;
+    private long dns;
+    private long connectStart;
+    private long connect;
+    private long tlsStart;
+    private long tls;
+    private long ttfb;
+    private long bodyBytes;
+
+    @Override
+    public void callStart(@NonNull Call call) {
+        callStart = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+        dnsStart = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void dnsEnd(@NonNull Call call, @NonNull String domainName,
+                       @NonNull List<InetAddress> inetAddressList) {
+        dns += SystemClock.elapsedRealtime() - dnsStart;
+    }
+
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                             @NonNull Proxy proxy) {
+        connectStart = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void secureConnectStart(@NonNull Call call) {
+        tlsStart = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+        tls += SystemClock.elapsedRealtime() - tlsStart;
+    }
+
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                           @NonNull Proxy proxy, @Nullable Protocol protocol) {
+        connect += SystemClock.elapsedRealtime() - connectStart;
+    }
+
+    @Override
+    public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                              @NonNull Proxy proxy, @Nullable Protocol protocol,
+                              @NonNull IOException ioe) {
+        connect += SystemClock.elapsedRealtime() - connectStart;
+    }
+
+    @Override
+    public void responseHeadersStart(@NonNull Call call) {
+        // Only the first response counts e.g not the one after a redirect
+        if (ttfb == 0) {
+            ttfb = SystemClock.elapsedRealtime() - callStart;
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(@NonNull Call call, long byteCount) {
+        bodyBytes += byteCount;
+    }
+
+    @Override
+    public void callEnd(@NonNull Call call) {
+        record(call, false);
+    }
+
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+        record(call, true);
+    }
+
+    @Override
+    public void cacheHit(@NonNull Call call, @NonNull Response response) {
+        // Served without touching the network
+        ttfb = SystemClock.elapsedRealtime() - callStart;
+    }
+
+    private void record(@NonNull Call call, boolean failed) {
+        long duration = SystemClock.elapsedRealtime() - callStart;
+        NetworkMetrics.record(new NetworkMetrics.CallTiming(getFunction(call.request()), dns,
+                connect, tls, ttfb, duration, bodyBytes, failed));
+    }
+
+    /**
+     * Returns the function a call is made to. Batched calls are labelled
+     * with the first function they pack.
+     */
+    @NonNull
+    private static String getFunction(@NonNull Request request) {
+        HttpUrl url = request.url();
+        String function = url.queryParameter("wsfunction");
+        if (function == null) {
+            List<String> segments = url.pathSegments();
+            String last = segments.get(segments.size() - 1);
+            return last.isEmpty() ? url.encodedPath() : last;
+        }
+
+        if (request.body() instanceof FormBody) {
+            FormBody form = (FormBody) request.body();
+            for (int i = 0; i < form.size(); i++) {
+                if (form.name(i).equals("requests[0][function]")) {
+                    return function + " (" + form.value(i) + ")";
+                }
+            }
+        }
+        return function;
+    }
+}
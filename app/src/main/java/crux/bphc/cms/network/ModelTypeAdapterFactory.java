@@ -0,0 +1,429 @@
+package crux.bphc.cms.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import crux.bphc.cms.models.core.Notification;
+import crux.bphc.cms.models.course.Content;
+import crux.bphc.cms.models.course.Course;
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.Module;
+import crux.bphc.cms.models.forum.Attachment;
+import crux.bphc.cms.models.forum.Discussion;
+import io.realm.RealmList;
+
+/**
+ * Provides hand written type adapters for the models that make up the bulk of
+ * Moodle's responses, so that decoding them doesn't go through Gson's
+ * reflection based adapter. Types not handled here return <code>null</code>,
+ * letting Gson fall back to reflection.
+ * <p>
+ * The adapters read the same keys as the <code>@SerializedName</code>
+ * annotations of the models. Unknown keys are skipped, and keys that are
+ * <code>null</code> leave the model's default value in place. Serialization
+ * is delegated to the reflection based adapter, so that the written JSON
+ * doesn't change.
+ * <p>
+ * The adapters decode exactly what the reflection based adapter would. HTML
+ * formatted fields are kept as they are; their display variants are derived
+ * when the models are written, by
+ * {@link crux.bphc.cms.helper.CourseDataHandler}.
+ */
+public class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        ModelReader<?> reader;
+        if (rawType == Course.class) {
+            reader = ModelTypeAdapterFactory::readCourse;
+        } else if (rawType == CourseSection.class) {
+            reader = ModelTypeAdapterFactory::readCourseSection;
+        } else if (rawType == Module.class) {
+            reader = ModelTypeAdapterFactory::readModule;
+        } else if (rawType == Content.class) {
+            reader = ModelTypeAdapterFactory::readContent;
+        } else if (rawType == Discussion.class) {
+            reader = ModelTypeAdapterFactory::readDiscussion;
+        } else if (rawType == Attachment.class) {
+            reader = ModelTypeAdapterFactory::readAttachment;
+        } else if (rawType == Notification.class) {
+            reader = ModelTypeAdapterFactory::readNotification;
+        } else {
+            return null;
+        }
+        TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+        return new ModelTypeAdapter<>((ModelReader<T>) reader, delegate).nullSafe();
+    }
+
+    @NonNull
+    private static Course readCourse(@NonNull JsonReader in) throws IOException {
+        int id = 0;
+        String shortName = "";
+        String fullName = "";
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "shortname":
+                    shortName = in.nextString();
+                    break;
+                case "fullname":
+                    fullName = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Course(id, shortName, fullName, false);
+    }
+
+    @NonNull
+    private static CourseSection readCourseSection(@NonNull JsonReader in) throws IOException {
+        int id = 0;
+        String sectionName = "";
+        int sectionNum = 0;
+        String summary = "";
+        RealmList<Module> modules = new RealmList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "name":
+                    sectionName = in.nextString();
+                    break;
+                case "section":
+                    sectionNum = in.nextInt();
+                    break;
+                case "summary":
+                    summary = in.nextString();
+                    break;
+                case "modules":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        modules.add(readModule(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new CourseSection(id, sectionName, sectionNum, summary, modules, 0);
+    }
+
+    @NonNull
+    private static Module readModule(@NonNull JsonReader in) throws IOException {
+        int id = 0;
+        int instance = 0;
+        String moduleName = "";
+        String url = "";
+        String modIcon = "";
+        String modName = "";
+        String description = "";
+        RealmList<Content> contents = new RealmList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "instance":
+                    instance = in.nextInt();
+                    break;
+                case "name":
+                    moduleName = in.nextString();
+                    break;
+                case "url":
+                    url = in.nextString();
+                    break;
+                case "modicon":
+                    modIcon = in.nextString();
+                    break;
+                case "modname":
+                    modName = in.nextString();
+                    break;
+                case "description":
+                    description = in.nextString();
+                    break;
+                case "contents":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        contents.add(readContent(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Module(id, instance, moduleName, url, modIcon, modName, description, contents, 0, false);
+    }
+
+    @NonNull
+    private static Content readContent(@NonNull JsonReader in) throws IOException {
+        String fileName = "";
+        String fileUrl = "";
+        int fileSize = 0;
+        long timeCreated = 0;
+        long timeModified = 0;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "filename":
+                    fileName = in.nextString();
+                    break;
+                case "fileurl":
+                    fileUrl = in.nextString();
+                    break;
+                case "filesize":
+                    fileSize = in.nextInt();
+                    break;
+                case "timecreated":
+                    timeCreated = in.nextLong();
+                    break;
+                case "timemodified":
+                    timeModified = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Content(fileName, fileUrl, fileSize, timeCreated, timeModified, 0);
+    }
+
+    @NonNull
+    private static Discussion readDiscussion(@NonNull JsonReader in) throws IOException {
+        int id = 0;
+        int discussionId = 0;
+        String discussionName = "";
+        int timeModified = 0;
+        int parent = 0;
+        String subject = "";
+        String message = "";
+        RealmList<Attachment> attachments = new RealmList<>();
+        String userFullName = "";
+        String userPictureUrl = "";
+        boolean pinned = false;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "discussion":
+                    discussionId = in.nextInt();
+                    break;
+                case "name":
+                    discussionName = in.nextString();
+                    break;
+                case "timemodified":
+                    timeModified = in.nextInt();
+                    break;
+                case "parent":
+                    parent = in.nextInt();
+                    break;
+                case "subject":
+                    subject = in.nextString();
+                    break;
+                case "message":
+                    message = in.nextString();
+                    break;
+                case "attachments":
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        attachments.add(readAttachment(in));
+                    }
+                    in.endArray();
+                    break;
+                case "userfullname":
+                    userFullName = in.nextString();
+                    break;
+                case "userpictureurl":
+                    userPictureUrl = in.nextString();
+                    break;
+                case "pinned":
+                    pinned = nextBoolean(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Discussion(id, discussionId, discussionName, timeModified, parent, subject, message,
+                attachments, userFullName, userPictureUrl, pinned, 0);
+    }
+
+    @NonNull
+    private static Attachment readAttachment(@NonNull JsonReader in) throws IOException {
+        String fileName = "";
+        String mimeType = "";
+        String fileUrl = "";
+        int fileSize = 0;
+        long timeModified = 0;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "filename":
+                    fileName = in.nextString();
+                    break;
+                case "mimetype":
+                    mimeType = in.nextString();
+                    break;
+                case "fileurl":
+                    fileUrl = in.nextString();
+                    break;
+                case "filesize":
+                    fileSize = in.nextInt();
+                    break;
+                case "timemodified":
+                    timeModified = in.nextLong();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Attachment(fileName, mimeType, fileUrl, fileSize, timeModified);
+    }
+
+    @NonNull
+    private static Notification readNotification(@NonNull JsonReader in) throws IOException {
+        int id = 0;
+        int userIdTo = 0;
+        String subject = "";
+        String timeCreated = "";
+        String message = "";
+        boolean read = false;
+        String url = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "useridto":
+                    userIdTo = in.nextInt();
+                    break;
+                case "subject":
+                    subject = in.nextString();
+                    break;
+                case "timecreatedpretty":
+                    timeCreated = in.nextString();
+                    break;
+                case "smallmessage":
+                    message = in.nextString();
+                    break;
+                case "read":
+                    read = nextBoolean(in);
+                    break;
+                case "contexturl":
+                    url = in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Notification(id, userIdTo, subject, timeCreated, message, read, url);
+    }
+
+    /**
+     * Reads a boolean, accepting the string form as well, the same way Gson's
+     * built-in adapter does.
+     */
+    private static boolean nextBoolean(@NonNull JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.STRING) {
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+
+    private interface ModelReader<T> {
+
+        T read(JsonReader in) throws IOException;
+    }
+
+    private static class ModelTypeAdapter<T> extends TypeAdapter<T> {
+
+        private final ModelReader<T> reader;
+        private final TypeAdapter<T> delegate;
+
+        ModelTypeAdapter(@NonNull ModelReader<T> reader, @NonNull TypeAdapter<T> delegate) {
+            this.reader = reader;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            delegate.write(out, value);
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            return reader.read(in);
+        }
+    }
+}
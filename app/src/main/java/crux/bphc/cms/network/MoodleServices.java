@@ -2,12 +2,20 @@ package crux.bphc.cms.network;
 
 import org.jetbrains.annotations.NotNull;
 import java.util.List;
+import java.util.Map;
+
+import crux.bphc.cms.models.core.ExternalFunctionsResponse;
 import crux.bphc.cms.models.core.UserDetail;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
+import retrofit2.http.FieldMap;
+import retrofit2.http.FormUrlEncoded;
 import retrofit2.http.GET;
+import retrofit2.http.POST;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.CourseUpdates;
 import crux.bphc.cms.models.enrol.SelfEnrol;
 import crux.bphc.cms.models.forum.ForumData;
 import crux.bphc.cms.models.enrol.CourseSearch;
@@ -50,6 +58,67 @@ public interface MoodleServices {
     @GET("webservice/rest/server.php?wsfunction=core_course_get_contents&moodlewsrestformat=json")
     Call<List<CourseSection>> fetchCourseContent(@Query("wstoken") String token, @Query("courseid") int courseId);
 
+    /**
+     * Same as {@link #fetchCourseContent}, but the response body is not read
+     * into memory. Use this to decode large courses incrementally.
+     */
+    @Streaming
+    @GET("webservice/rest/server.php?wsfunction=core_course_get_contents&moodlewsrestformat=json")
+    Call<ResponseBody> fetchCourseContentStream(@Query("wstoken") String token, @Query("courseid") int courseId);
+
+    /**
+     * Fetch a single module of a course. The response contains the sections of
+     * the course, but only the section containing the module will have any
+     * modules.
+     *
+     * @param token A valid Moodle Web Service token
+     * @param courseId The Id of the course the module belongs to
+     * @param moduleId The Id of the module i.e the <code>cmid</code>
+     */
+    @GET("webservice/rest/server.php?wsfunction=core_course_get_contents&moodlewsrestformat=json" +
+            "&options[0][name]=cmid")
+    Call<List<CourseSection>> fetchModuleContent(@Query("wstoken") String token,
+                                                 @Query("courseid") int courseId,
+                                                 @Query("options[0][value]") int moduleId);
+
+    /**
+     * Fetch the instances (modules) of a course that have been updated since
+     * the given time.
+     *
+     * @param token A valid Moodle Web Service token
+     * @param courseId The Id of the course
+     * @param since Unix epoch, in seconds, to check for updates from
+     */
+    @GET("webservice/rest/server.php?wsfunction=core_course_get_updates_since&moodlewsrestformat=json")
+    Call<CourseUpdates> fetchCourseUpdatesSince(@Query("wstoken") String token,
+                                                @Query("courseid") int courseId,
+                                                @Query("since") long since);
+
+    /**
+     * Call multiple web service functions in a single request. Each request is
+     * described by the fields <code>requests[i][function]</code> and
+     * <code>requests[i][arguments]</code>, where the latter is the JSON encoded
+     * argument object of the function. The responses are returned in the same
+     * order as the requests.
+     *
+     * @param token A valid Moodle Web Service token
+     * @param requests The form fields describing the packed requests
+     */
+    @FormUrlEncoded
+    @POST("webservice/rest/server.php?wsfunction=tool_mobile_call_external_functions&moodlewsrestformat=json")
+    Call<ExternalFunctionsResponse> callExternalFunctions(@Query("wstoken") String token,
+                                                          @FieldMap Map<String, String> requests);
+
+    /**
+     * Same as {@link #callExternalFunctions}, but the response body is not
+     * read into memory. Use this when the responses are large.
+     */
+    @Streaming
+    @FormUrlEncoded
+    @POST("webservice/rest/server.php?wsfunction=tool_mobile_call_external_functions&moodlewsrestformat=json")
+    Call<ResponseBody> callExternalFunctionsStream(@Query("wstoken") String token,
+                                                   @FieldMap Map<String, String> requests);
+
     /**
      * Get courses based on a search pattern
      *
@@ -0,0 +1,154 @@
+package crux.bphc.cms.network;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the timings of the most recent HTTP calls, as recorded by
+ * {@link CallTimingListener}, and summarises them per web service function.
+ * At most {@link #CAPACITY} calls are kept; older ones are dropped.
+ */
+public final class NetworkMetrics {
+
+    private static final int CAPACITY = 500;
+
+    private static final ArrayDeque<CallTiming> timings = new ArrayDeque<>(CAPACITY);
+
+    private NetworkMetrics() {
+    }
+
+    static synchronized void record(@NonNull CallTiming timing) {
+        if (timings.size() == CAPACITY) {
+            timings.removeFirst();
+        }
+        timings.addLast(timing);
+    }
+
+    public static synchronized void clear() {
+        timings.clear();
+    }
+
+    /**
+     * Summarises the recorded calls of each function, sorted by the
+     * function's 95th percentile duration, slowest first.
+     */
+    @NonNull
+    public static List<Summary> getSummaries() {
+        Map<String, List<CallTiming>> byFunction = new HashMap<>();
+        synchronized (NetworkMetrics.class) {
+            for (CallTiming timing : timings) {
+                List<CallTiming> list = byFunction.get(timing.function);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    byFunction.put(timing.function, list);
+                }
+                list.add(timing);
+            }
+        }
+
+        List<Summary> summaries = new ArrayList<>();
+        for (Map.Entry<String, List<CallTiming>> entry : byFunction.entrySet()) {
+            summaries.add(new Summary(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(summaries, (a, b) -> Long.compare(b.duration.p95, a.duration.p95));
+        return summaries;
+    }
+
+    /**
+     * The time spent in each phase of a single call, in milliseconds. A phase
+     * that didn't happen e.g DNS lookup on a pooled connection, is 0.
+     */
+    static class CallTiming {
+        final String function;
+        final long dns;
+        final long connect;
+        final long tls;
+        final long ttfb;
+        final long duration;
+        final long bodyBytes;
+        final boolean failed;
+
+        CallTiming(String function, long dns, long connect, long tls, long ttfb, long duration,
+                   long bodyBytes, boolean failed) {
+            this.function = function;
+            this.dns = dns;
+            this.connect = connect;
+            this.tls = tls;
+            this.ttfb = ttfb;
+            this.duration = duration;
+            this.bodyBytes = bodyBytes;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * The 50th and 95th percentiles of a phase across calls
+     */
+    public static class Percentiles {
+        public final long p50;
+        public final long p95;
+
+        Percentiles(long[] values) {
+            Arrays.sort(values);
+            p50 = percentile(values, 50);
+            p95 = percentile(values, 95);
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) return 0;
+            int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)];
+        }
+    }
+
+    /**
+     * Timings of the recorded calls to a single function
+     */
+    public static class Summary {
+        public final String function;
+        public final int calls;
+        public final int failures;
+        public final Percentiles dns;
+        public final Percentiles connect;
+        public final Percentiles tls;
+        public final Percentiles ttfb;
+        public final Percentiles duration;
+        public final Percentiles bodyBytes;
+
+        Summary(String function, List<CallTiming> timings) {
+            this.function = function;
+            this.calls = timings.size();
+            int failures = 0;
+            long[] dns = new long[calls];
+            long[] connect = new long[calls];
+            long[] tls = new long[calls];
+            long[] ttfb = new long[calls];
+            long[] duration = new long[calls];
+            long[] bodyBytes = new long[calls];
+            for (int i = 0; i < calls; i++) {
+                CallTiming timing = timings.get(i);
+                if (timing.failed) failures++;
+                dns[i] = timing.dns;
+                connect[i] = timing.connect;
+                tls[i] = timing.tls;
+                ttfb[i] = timing.ttfb;
+                duration[i] = timing.duration;
+                bodyBytes[i] = timing.bodyBytes;
+            }
+            this.failures = failures;
+            this.dns = new Percentiles(dns);
+            this.connect = new Percentiles(connect);
+            this.tls = new Percentiles(tls);
+            this.ttfb = new Percentiles(ttfb);
+            this.duration = new Percentiles(duration);
+            this.bodyBytes = new Percentiles(bodyBytes);
+        }
+    }
+}
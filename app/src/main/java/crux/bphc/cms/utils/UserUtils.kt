@@ -7,9 +7,14 @@ import android.util.Log
 import android.widget.Toast
 import crux.bphc.cms.R
 import crux.bphc.cms.activities.TokenActivity
+import crux.bphc.cms.app.MyApplication
 import crux.bphc.cms.app.Urls
+import crux.bphc.cms.background.CourseSyncWorker
+import crux.bphc.cms.background.StorageWorker
+import crux.bphc.cms.core.DownloadEngine
 import crux.bphc.cms.core.PushNotifRegManager
 import crux.bphc.cms.models.UserAccount
+import crux.bphc.cms.network.APIClient
 import crux.bphc.cms.network.MoodleServices
 import io.realm.Realm
 import kotlinx.coroutines.CoroutineScope
@@ -35,10 +40,14 @@ object UserUtils {
     fun logout() {
         val realm = Realm.getDefaultInstance()
         realm.executeTransactionAsync { r: Realm -> r.deleteAll() }
+        CourseSyncWorker.cancel(MyApplication.instance)
+        StorageWorker.cancel(MyApplication.instance)
+        DownloadEngine.cancelAll()
 
         // Deregister from push notifications before we logout
         CoroutineScope(Dispatchers.Default).launch {
             PushNotifRegManager.deregisterDevice() // If this fail, user will continue to get push notifs :')
+            APIClient.clearCache()
         }
         UserAccount.clearUser()
     }
@@ -5,9 +5,12 @@ import android.app.Activity
 import android.content.Context
 import android.content.Intent
 import android.net.Uri
+import androidx.core.text.HtmlCompat
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import java.text.SimpleDateFormat
 import java.util.*
+import java.util.regex.Matcher
+import java.util.regex.Pattern
 
 /**
  * Set of utility functions that can be used throughout the entire project.
@@ -16,6 +19,7 @@ import java.util.*
  */
 object Utils {
     private val hexArray = "0123456789ABCDEF".toCharArray()
+    private val linkPattern = Pattern.compile("<a href=\"(.*?)\">")
 
     /**
      * Convert `bytes` to human readable format
@@ -137,6 +141,34 @@ object Utils {
         )
     }
 
+    /**
+     * Convert Moodle's HTML formatted text, such as the names of courses and
+     * modules, to plain text. Models store the result alongside the HTML
+     * when they are written to Realm, so that reads don't have to parse HTML.
+     */
+    @JvmStatic
+    fun htmlToPlainText(html: String): String {
+        return HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_COMPACT).toString()
+            .trim { it <= ' ' }
+    }
+
+    /**
+     * Append the user's token to every link in `html`, so that links to
+     * Moodle resources can be opened without logging in. Like
+     * [htmlToPlainText], this is applied once when a model is written.
+     */
+    @JvmStatic
+    fun appendTokenToLinks(html: String, token: String): String {
+        val matcher = linkPattern.matcher(html)
+        val buffer = StringBuffer(html.length)
+        while (matcher.find()) {
+            val foundLink = matcher.group(1)
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement("<a href=\"$foundLink?token=$token\">"))
+        }
+        matcher.appendTail(buffer)
+        return buffer.toString().trim { it <= ' ' }
+    }
+
     fun formatDate(seconds: Int): String {
         val cal = GregorianCalendar()
         cal.timeInMillis = seconds.toLong() * 1000
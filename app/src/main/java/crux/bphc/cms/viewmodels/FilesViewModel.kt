@@ -1,18 +1,27 @@
 package crux.bphc.cms.viewmodels
 
 import android.app.Application
+import android.text.format.Formatter
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.viewModelScope
 import crux.bphc.cms.R
+import crux.bphc.cms.background.StorageWorker
+import crux.bphc.cms.core.ContentStore
+import crux.bphc.cms.core.DownloadEngine
+import crux.bphc.cms.core.DownloadRegistry
+import crux.bphc.cms.core.StorageManager
 import crux.bphc.cms.core.getDescription
 import crux.bphc.cms.core.getIconResource
 import crux.bphc.cms.models.Download
 import crux.bphc.cms.models.SingleLiveEvent
+import crux.bphc.cms.models.core.CourseStoragePolicy
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.io.File
+import java.util.Locale
 
 class FilesViewModel(application: Application) : AndroidViewModel(application) {
 
@@ -58,9 +67,22 @@ class FilesViewModel(application: Application) : AndroidViewModel(application) {
     private fun refreshFileList() {
         _isLoading.postValue(true)
         viewModelScope.launch(Dispatchers.IO) {
-            val files = currentFile?.listFiles()?.asSequence()?.toList() ?: emptyList()
+            val files = currentFile?.listFiles()?.asSequence()
+                // Files still being downloaded
+                ?.filterNot { it.name.endsWith(DownloadEngine.PARTIAL_SUFFIX) }
+                ?.filterNot { nestingLevel == 0 && it.name == ContentStore.STORE_DIRECTORY_NAME }
+                ?.toList() ?: emptyList()
+            // Course directories are described from their recorded usage, instead of walking them
+            val usage = if (nestingLevel == 0) StorageManager.getUsage() else null
             _downloads.postValue(files.map {
-                Download(it, it.getDescription(_application), it.getIconResource())
+                val directoryUsage = usage?.directories?.get(it.name)
+                val description = if (it.isDirectory && directoryUsage != null) {
+                    directoryUsage.getDescription()
+                } else {
+                    // A downloaded file is a reference to its stored contents
+                    (ContentStore.resolve(it) ?: it).getDescription(_application)
+                }
+                Download(it, description, it.getIconResource())
             })
             if (files.isEmpty()) {
                 _isListEmptyMessage.postValue(if (nestingLevel == 0) R.string.root_no_files else R.string.no_files)
@@ -78,11 +100,38 @@ class FilesViewModel(application: Application) : AndroidViewModel(application) {
             } else {
                 file.delete()
             }
+            // Contents also referred to from elsewhere stay until the last reference is deleted
+            ContentStore.onDeleted(file)
+            DownloadRegistry.onDeleted(file)
             refreshFileList()
             _deletedMessage.postValue(SingleLiveEvent(deleted))
         }
     }
 
+    /**
+     * The storage policy of the course whose files are in [directory], or
+     * null if it isn't a course's directory
+     */
+    suspend fun getStoragePolicy(directory: File): CourseStoragePolicy? = withContext(Dispatchers.IO) {
+        StorageManager.getPolicy(directory.name)
+    }
+
+    fun setStoragePolicy(policy: CourseStoragePolicy) {
+        viewModelScope.launch(Dispatchers.IO) {
+            StorageManager.setPolicy(policy)
+            StorageWorker.enqueue(_application)
+        }
+    }
+
+    private fun StorageManager.DirectoryUsage.getDescription(): String {
+        val size = Formatter.formatFileSize(_application, bytes).toUpperCase(Locale.ROOT)
+        return when (files) {
+            0 -> _application.getString(R.string.folder_no_items_zero)
+            1 -> _application.getString(R.string.folder_no_items_one, size)
+            else -> _application.getString(R.string.folder_no_items_many, files, size)
+        }
+    }
+
     init {
         refreshFileList()
     }
@@ -13,12 +13,12 @@ import androidx.lifecycle.viewModelScope
 import crux.bphc.cms.app.MyApplication
 import crux.bphc.cms.app.Urls
 import crux.bphc.cms.app.appendOrSetQueryParameter
+import crux.bphc.cms.background.InitialSyncWorker
 import crux.bphc.cms.helper.CourseDataHandler
 import crux.bphc.cms.helper.CourseRequestHandler
 import crux.bphc.cms.models.SingleLiveEvent
 import crux.bphc.cms.models.UserAccount
 import crux.bphc.cms.models.core.UserDetail
-import crux.bphc.cms.models.course.Module
 import crux.bphc.cms.network.APIClient
 import crux.bphc.cms.network.MoodleServices
 import crux.bphc.cms.utils.UserUtils
@@ -148,36 +148,8 @@ class TokenViewModel(application: Application) : AndroidViewModel(application) {
         }
         courseDataHandler.replaceCourses(courseList)
 
-        /* Fetch Course Content */
-        _status.postValue(PROGRESS_COURSE_CONTENT)
-        val courses = courseDataHandler.courseList
-        for (course in courses) {
-            val courseSections = courseRequestHandler.getCourseData(course) ?: continue
-            for (courseSection in courseSections) {
-                val modules: List<Module> = courseSection.modules
-                for (module in modules) {
-                    if (module.modType === Module.Type.FORUM) {
-                        val discussions = courseRequestHandler.getForumDiscussions(module.instance)
-                                ?: continue
-                        for (d in discussions) {
-                            d.forumId = module.instance
-                        }
-                        courseDataHandler.setForumDiscussions(module.instance, discussions)
-                    }
-                }
-            }
-            courseDataHandler.replaceCourseData(course.id, courseSections)
-        }
-
-        /* Fetch Site News */
-        _status.postValue(PROGRESS_SITE_NEWS)
-        val discussions = courseRequestHandler.getForumDiscussions(1) // 1 is always site news
-        if (discussions != null) {
-            for (d in discussions) {
-                d.forumId = 1
-            }
-            courseDataHandler.setForumDiscussions(1, discussions)
-        }
+        /* Course contents, forums and site news are backfilled in the background */
+        InitialSyncWorker.enqueue(getApplication())
 
         checkLoggedIn()
     }
@@ -216,8 +188,6 @@ class TokenViewModel(application: Application) : AndroidViewModel(application) {
     companion object {
         const val FETCHING_DETAILS = 0
         const val PROGRESS_COURSE_LIST = 1
-        const val PROGRESS_COURSE_CONTENT = 2
-        const val PROGRESS_SITE_NEWS = 3
         const val NO_STATUS = 5
     }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package crux.bphc.cms.background
+
+import crux.bphc.cms.models.core.SyncCheckpoint
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+
+class CheckpointedSyncTest {
+
+    private val stored = mutableSetOf<String>()
+    private val progress = mutableListOf<Pair<Int, Int>>()
+
+    private fun newSync() = CheckpointedSync(stored.toSet(), { synchronized(stored) { stored.addAll(it) } }) {
+        completed, total -> synchronized(progress) { progress.add(completed to total) }
+    }
+
+    @Test
+    fun courseContents_rerunSkipsCheckpointedCourses() = runBlocking {
+        val calls = mutableListOf<List<Int>>()
+        // Course 3 fails on the first run
+        newSync().syncCourseContents(listOf(1, 2, 3)) { ids, onSynced ->
+            calls.add(ids)
+            onSynced(ids - 3)
+        }
+        assertEquals(setOf(SyncCheckpoint.courseKey(1), SyncCheckpoint.courseKey(2)), stored)
+
+        newSync().syncCourseContents(listOf(1, 2, 3)) { ids, onSynced ->
+            calls.add(ids)
+            onSynced(ids)
+        }
+        assertEquals(listOf(listOf(1, 2, 3), listOf(3)), calls)
+        assertEquals(3, stored.size)
+        assertEquals(3 to 3, progress.last())
+    }
+
+    @Test
+    fun courseContents_allCheckpointed_syncsNothing() = runBlocking {
+        stored.addAll(listOf(1, 2).map { SyncCheckpoint.courseKey(it) })
+        newSync().syncCourseContents(listOf(1, 2)) { _, _ -> throw AssertionError("Nothing to sync") }
+        assertEquals(listOf(2 to 2), progress)
+    }
+
+    @Test
+    fun courseContents_checkpointsEachJobAsItCompletes() = runBlocking {
+        try {
+            newSync().syncCourseContents(listOf(1, 2, 3, 4, 5)) { ids, onSynced ->
+                onSynced(ids.take(4))
+                throw IOException("Connection reset")
+            }
+        } catch (e: IOException) {
+            // The courses synced before the failure stay checkpointed
+        }
+        assertEquals((1..4).map { SyncCheckpoint.courseKey(it) }.toSet(), stored)
+    }
+
+    @Test
+    fun forums_rerunSkipsCheckpointedForums() = runBlocking {
+        val forums = mapOf(1 to listOf(10, 11), 2 to listOf(20))
+        val calls = mutableListOf<List<Int>>()
+        newSync().syncForums(listOf(1, 2), { forums.getValue(it) }) { forumIds ->
+            synchronized(calls) { calls.add(forumIds) }
+            if (20 in forumIds) throw IOException("Connection reset")
+            forumIds - 11
+        }
+        assertEquals(setOf(SyncCheckpoint.forumKey(10)), stored)
+
+        calls.clear()
+        newSync().syncForums(listOf(1, 2), { forums.getValue(it) }) { forumIds ->
+            synchronized(calls) { calls.add(forumIds) }
+            forumIds
+        }
+        assertEquals(setOf(listOf(11), listOf(20)), calls.toSet())
+        assertEquals(listOf(10, 11, 20).map { SyncCheckpoint.forumKey(it) }.toSet(), stored)
+        assertTrue(progress.contains(2 to 2))
+    }
+}
@@ -0,0 +1,52 @@
+package crux.bphc.cms.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ConditionalHeadersTest {
+
+    @Test
+    fun newDownload_isUnconditional() {
+        assertEquals(emptyMap<String, String>(), getConditionalHeaders(0, "", ""))
+    }
+
+    @Test
+    fun partialDownload_resumesWithIfRange() {
+        assertEquals(mapOf("Range" to "bytes=1024-", "If-Range" to "\"abc\""),
+                getConditionalHeaders(1024, "\"abc\"", ""))
+        assertEquals(mapOf("Range" to "bytes=1024-", "If-Range" to DATE),
+                getConditionalHeaders(1024, DATE, ""))
+    }
+
+    @Test
+    fun partialDownload_takesPrecedenceOverRecord() {
+        assertEquals(mapOf("Range" to "bytes=10-", "If-Range" to "\"new\""),
+                getConditionalHeaders(10, "\"new\"", "\"old\""))
+    }
+
+    @Test
+    fun partialDownloadWithoutValidator_startsOver() {
+        assertEquals(emptyMap<String, String>(), getConditionalHeaders(1024, "", ""))
+    }
+
+    @Test
+    fun partialDownloadWithWeakETag_startsOver() {
+        assertEquals(emptyMap<String, String>(), getConditionalHeaders(1024, "W/\"abc\"", ""))
+        assertEquals(mapOf("If-None-Match" to "\"old\""), getConditionalHeaders(1024, "W/\"abc\"", "\"old\""))
+    }
+
+    @Test
+    fun recordedETag_usesIfNoneMatch() {
+        assertEquals(mapOf("If-None-Match" to "\"abc\""), getConditionalHeaders(0, "", "\"abc\""))
+        assertEquals(mapOf("If-None-Match" to "W/\"abc\""), getConditionalHeaders(0, "", "W/\"abc\""))
+    }
+
+    @Test
+    fun recordedLastModified_usesIfModifiedSince() {
+        assertEquals(mapOf("If-Modified-Since" to DATE), getConditionalHeaders(0, "", DATE))
+    }
+
+    companion object {
+        private const val DATE = "Wed, 21 Oct 2015 07:28:00 GMT"
+    }
+}
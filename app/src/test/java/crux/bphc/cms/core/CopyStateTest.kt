@@ -0,0 +1,107 @@
+package crux.bphc.cms.core
+
+import crux.bphc.cms.models.core.DownloadTask
+import crux.bphc.cms.models.core.DownloadedFile
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class CopyStateTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var destination: File
+
+    @Before
+    fun setUp() {
+        destination = File(folder.root, "handout.pdf")
+    }
+
+    private fun writeCopy(size: Int, modifiedAt: Long = TIME_MODIFIED) {
+        destination.writeBytes(ByteArray(size))
+        destination.setLastModified(modifiedAt * 1000)
+    }
+
+    private fun record(size: Long = SIZE, timeModified: Long = TIME_MODIFIED, url: String = URL) =
+            DownloadedFile(destination.absolutePath, url, size, timeModified, "checksum", "\"etag\"")
+
+    private fun task(size: Long = SIZE, timeModified: Long = TIME_MODIFIED) =
+            DownloadTask(destination.absolutePath, URL, size = size, timeModified = timeModified)
+
+    @Test
+    fun recordedCopy_unchangedOnMoodle_isSkipped() {
+        writeCopy(SIZE.toInt())
+        assertEquals(CopyState.UNCHANGED, getCopyState(destination, record(), task()))
+        // Moodle doesn't always report the size
+        assertEquals(CopyState.UNCHANGED, getCopyState(destination, record(), task(size = -1)))
+    }
+
+    @Test
+    fun recordedCopy_changedOnMoodle_isRecorded() {
+        writeCopy(SIZE.toInt())
+        assertEquals(CopyState.RECORDED, getCopyState(destination, record(), task(timeModified = TIME_MODIFIED + 60)))
+        assertEquals(CopyState.RECORDED, getCopyState(destination, record(), task(size = SIZE + 1)))
+    }
+
+    @Test
+    fun recordedCopy_unknownModificationTime_isRecorded() {
+        writeCopy(SIZE.toInt())
+        assertEquals(CopyState.RECORDED, getCopyState(destination, record(), task(timeModified = 0)))
+    }
+
+    @Test
+    fun truncatedCopy_isStale() {
+        writeCopy(SIZE.toInt() / 2)
+        assertEquals(CopyState.STALE, getCopyState(destination, record(), task()))
+    }
+
+    @Test
+    fun missingCopy_isStale() {
+        assertEquals(CopyState.STALE, getCopyState(destination, record(), task()))
+        assertEquals(CopyState.STALE, getCopyState(destination, null, task()))
+    }
+
+    @Test
+    fun copyOfAnotherUrl_isStale() {
+        writeCopy(SIZE.toInt())
+        assertEquals(CopyState.STALE, getCopyState(destination, record(url = "$URL?forcedownload=1"), task()))
+    }
+
+    @Test
+    fun unrecordedCopy_matchingMoodle_isAdopted() {
+        writeCopy(SIZE.toInt(), modifiedAt = TIME_MODIFIED + 3600)
+        assertEquals(CopyState.UNCHANGED_UNRECORDED, getCopyState(destination, null, task()))
+        // Found on disk by StorageManager, which records no URL
+        assertEquals(CopyState.UNCHANGED_UNRECORDED,
+                getCopyState(destination, record(size = SIZE, timeModified = 0, url = ""), task()))
+    }
+
+    @Test
+    fun unrecordedCopy_olderThanMoodle_isStale() {
+        writeCopy(SIZE.toInt(), modifiedAt = TIME_MODIFIED - 3600)
+        assertEquals(CopyState.STALE, getCopyState(destination, null, task()))
+    }
+
+    @Test
+    fun unrecordedCopy_withoutSizeOrModificationTime_isStale() {
+        writeCopy(SIZE.toInt())
+        assertEquals(CopyState.STALE, getCopyState(destination, null, task(size = -1)))
+        assertEquals(CopyState.STALE, getCopyState(destination, null, task(timeModified = 0)))
+    }
+
+    @Test
+    fun unrecordedCopy_ofAnotherSize_isStale() {
+        writeCopy(SIZE.toInt() - 1)
+        assertEquals(CopyState.STALE, getCopyState(destination, null, task()))
+    }
+
+    companion object {
+        private const val URL = "https://cms.bits-hyderabad.ac.in/webservice/pluginfile.php/1/handout.pdf"
+        private const val SIZE = 4096L
+        private const val TIME_MODIFIED = 1690000000L
+    }
+}
@@ -0,0 +1,49 @@
+package crux.bphc.cms.core
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Tests the reference counting behind deleting files from the Files screen,
+ * through [ContentStore.onDeleted]
+ */
+class ReleaseReferencesTest {
+
+    @Test
+    fun deletingOneOfSeveralReferences_keepsContents() {
+        val remaining = releaseReferences(mapOf("a" to 2), listOf("a"))
+        assertEquals(mapOf("a" to 1), remaining)
+    }
+
+    @Test
+    fun deletingLastReference_leavesContentsWithNone() {
+        val remaining = releaseReferences(mapOf("a" to 1), listOf("a"))
+        assertEquals(mapOf("a" to 0), remaining)
+    }
+
+    @Test
+    fun deletingDirectory_releasesEachReferenceInIt() {
+        // A course's directory with two references to "a", and one each to "b" and "c". "a" and "c" are also
+        // referred to from another course.
+        val references = mapOf("a" to 3, "b" to 1, "c" to 2)
+        val remaining = releaseReferences(references, listOf("a", "b", "a", "c"))
+        assertEquals(mapOf("a" to 1, "b" to 0, "c" to 1), remaining)
+    }
+
+    @Test
+    fun untouchedContents_areLeftOut() {
+        val remaining = releaseReferences(mapOf("a" to 2, "b" to 1), listOf("a"))
+        assertEquals(mapOf("a" to 1), remaining)
+    }
+
+    @Test
+    fun contentsNotStored_areLeftOut() {
+        assertEquals(emptyMap<String, Int>(), releaseReferences(emptyMap(), listOf("a", "")))
+    }
+
+    @Test
+    fun countsNeverGoBelowZero() {
+        val remaining = releaseReferences(mapOf("a" to 1), listOf("a", "a"))
+        assertEquals(mapOf("a" to 0), remaining)
+    }
+}
@@ -0,0 +1,103 @@
+package crux.bphc.cms.helper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class BatchedCourseDataTest {
+
+    private static final String SECTIONS = "[{\"id\":1,\"name\":\"General\",\"modules\":[]}]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void eachCourse_isWrittenToItsOwnFile() throws IOException {
+        JsonArray responses = new JsonArray();
+        responses.add(success(SECTIONS));
+        responses.add(success("[]"));
+
+        Map<Integer, File> files = split(responses, 10, 20);
+
+        assertEquals(2, files.size());
+        assertEquals(SECTIONS, read(files.get(10)));
+        assertEquals("[]", read(files.get(20)));
+        assertEquals(2, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void failedCalls_areLeftOut() throws IOException {
+        JsonArray responses = new JsonArray();
+        responses.add(failure());
+        responses.add(success(SECTIONS));
+
+        Map<Integer, File> files = split(responses, 10, 20);
+
+        assertEquals(1, files.size());
+        assertFalse(files.containsKey(10));
+        assertEquals(SECTIONS, read(files.get(20)));
+    }
+
+    @Test
+    public void mismatchedResponses_areRefused_andFilesRemoved() throws IOException {
+        JsonArray responses = new JsonArray();
+        responses.add(success(SECTIONS));
+
+        assertNull(split(responses, 10, 20));
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void invalidToken_isRefused() throws IOException {
+        JsonObject response = new JsonObject();
+        response.addProperty("exception", "moodle_exception");
+        response.addProperty("errorcode", "invalidtoken");
+
+        Map<Integer, File> files = CourseRequestHandler.splitBatchedData(
+                new JsonReader(new StringReader(response.toString())), Arrays.asList(10, 20), folder.getRoot());
+
+        assertNull(files);
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    private Map<Integer, File> split(JsonArray responses, Integer... ids) throws IOException {
+        JsonObject response = new JsonObject();
+        response.add("responses", responses);
+        return CourseRequestHandler.splitBatchedData(new JsonReader(new StringReader(response.toString())),
+                Arrays.asList(ids), folder.getRoot());
+    }
+
+    private static JsonObject success(String data) {
+        JsonObject response = new JsonObject();
+        response.addProperty("error", false);
+        response.addProperty("data", data);
+        return response;
+    }
+
+    private static JsonObject failure() {
+        JsonObject response = new JsonObject();
+        response.addProperty("error", true);
+        response.addProperty("exception", "{\"errorcode\":\"invalidrecord\"}");
+        return response;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,74 @@
+package crux.bphc.cms.helper;
+
+import org.junit.Test;
+
+import crux.bphc.cms.models.course.Content;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentNameResolverTest {
+
+    @Test
+    public void uniqueNames_areKept() {
+        ContentNameResolver resolver = new ContentNameResolver();
+
+        assertEquals("a.pdf", resolve(resolver, "a.pdf"));
+        assertEquals("b.pdf", resolve(resolver, "b.pdf"));
+        assertEquals("a.txt", resolve(resolver, "a.txt"));
+    }
+
+    @Test
+    public void repeatedNames_areNumberedInOrder() {
+        ContentNameResolver resolver = new ContentNameResolver();
+
+        assertEquals("a.pdf", resolve(resolver, "a.pdf"));
+        assertEquals("a(1).pdf", resolve(resolver, "a.pdf"));
+        assertEquals("a(2).pdf", resolve(resolver, "a.pdf"));
+    }
+
+    @Test
+    public void repeatedNamesWithoutExtension_areNumbered() {
+        ContentNameResolver resolver = new ContentNameResolver();
+
+        assertEquals("notes", resolve(resolver, "notes"));
+        assertEquals("notes(1)", resolve(resolver, "notes"));
+        assertEquals("notes(2)", resolve(resolver, "notes"));
+    }
+
+    @Test
+    public void numberedName_takenByAnotherContent_isNumberedOnwards() {
+        ContentNameResolver resolver = new ContentNameResolver();
+
+        assertEquals("a(1).pdf", resolve(resolver, "a(1).pdf"));
+        assertEquals("a.pdf", resolve(resolver, "a.pdf"));
+        assertEquals("a(2).pdf", resolve(resolver, "a.pdf"));
+        assertEquals("a(3).pdf", resolve(resolver, "a(1).pdf"));
+    }
+
+    @Test
+    public void parenthesesThatArentACount_areKept() {
+        ContentNameResolver resolver = new ContentNameResolver();
+
+        assertEquals("notes (draft).pdf", resolve(resolver, "notes (draft).pdf"));
+        assertEquals("notes (draft)(1).pdf", resolve(resolver, "notes (draft).pdf"));
+        assertEquals("a(b.pdf", resolve(resolver, "a(b.pdf"));
+        assertEquals("a(b(1).pdf", resolve(resolver, "a(b.pdf"));
+        assertEquals("a)(b.pdf", resolve(resolver, "a)(b.pdf"));
+        assertEquals("a)(b(1).pdf", resolve(resolver, "a)(b.pdf"));
+    }
+
+    @Test
+    public void resolversAreIndependent() {
+        ContentNameResolver first = new ContentNameResolver();
+        ContentNameResolver second = new ContentNameResolver();
+
+        assertEquals("a.pdf", resolve(first, "a.pdf"));
+        assertEquals("a.pdf", resolve(second, "a.pdf"));
+    }
+
+    private static String resolve(ContentNameResolver resolver, String fileName) {
+        Content content = new Content(fileName, "https://cms.bits-hyderabad.ac.in/" + fileName, 1, 0, 0, 0);
+        resolver.resolve(content);
+        return content.getFileName();
+    }
+}
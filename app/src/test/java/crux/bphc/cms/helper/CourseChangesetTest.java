@@ -0,0 +1,174 @@
+package crux.bphc.cms.helper;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import crux.bphc.cms.models.course.Content;
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.Module;
+import io.realm.RealmList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CourseChangesetTest {
+
+    @Test
+    public void emptyIndex_reportsEverythingAsAdded() {
+        List<CourseSection> incoming = Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100))));
+
+        CourseChangeset changeset = CourseChangeset.diff(CourseIndex.of(Collections.emptyList()), incoming, true);
+
+        assertTrue(changeset.isInitialSync());
+        assertTrue(changeset.hasNewContent());
+        assertEquals(set(1), changeset.getAddedSectionIds());
+        assertEquals(set(10), changeset.getAddedModuleIds());
+        assertEquals(1, changeset.getAddedContents().size());
+    }
+
+    @Test
+    public void unchangedCourse_reportsNothing() {
+        CourseIndex index = CourseIndex.of(Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100)))));
+        List<CourseSection> incoming = Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100))));
+
+        CourseChangeset changeset = CourseChangeset.diff(index, incoming, true);
+
+        assertFalse(changeset.isInitialSync());
+        assertFalse(changeset.hasNewContent());
+        assertTrue(changeset.getModifiedSectionIds().isEmpty());
+        assertTrue(changeset.getModifiedModuleIds().isEmpty());
+        assertTrue(changeset.getRemovedModuleIds().isEmpty());
+        assertTrue(changeset.getAddedContents().isEmpty());
+        assertTrue(changeset.getRemovedContents().isEmpty());
+    }
+
+    @Test
+    public void newContent_modifiesModule() {
+        CourseIndex index = CourseIndex.of(Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100)))));
+        List<CourseSection> incoming = Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100), content("b.pdf", 200))));
+
+        CourseChangeset changeset = CourseChangeset.diff(index, incoming, true);
+
+        assertTrue(changeset.hasNewContent());
+        assertEquals(set(10), changeset.getModifiedModuleIds());
+        assertEquals(1, changeset.getAddedContents().size());
+        assertEquals("b.pdf", changeset.getAddedContents().get(0).getFileName());
+    }
+
+    @Test
+    public void updatedContent_isAddedAndRemoved() {
+        CourseIndex index = CourseIndex.of(Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100)))));
+        List<CourseSection> incoming = Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 150))));
+
+        CourseChangeset changeset = CourseChangeset.diff(index, incoming, true);
+
+        assertEquals(set(10), changeset.getModifiedModuleIds());
+        assertEquals(150, changeset.getAddedContents().get(0).getTimeModified());
+        assertEquals(1, changeset.getRemovedContents().size());
+        assertEquals(100, changeset.getRemovedContents().get(0).getTimeModified());
+    }
+
+    @Test
+    public void droppedContent_ofKeptModule_isRemoved() {
+        CourseIndex index = CourseIndex.of(Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100), content("b.pdf", 200)))));
+        List<CourseSection> incoming = Collections.singletonList(
+                section(1, "General", module(10, content("a.pdf", 100))));
+
+        CourseChangeset changeset = CourseChangeset.diff(index, incoming, true);
+
+        assertFalse(changeset.hasNewContent());
+        assertTrue(changeset.getModifiedModuleIds().isEmpty());
+        assertTrue(changeset.getRemovedModuleIds().isEmpty());
+        assertEquals(1, changeset.getRemovedContents().size());
+        assertEquals("b.pdf", changeset.getRemovedContents().get(0).getFileName());
+    }
+
+    @Test
+    public void removedModuleAndSection_onlyReportedWhenComplete() {
+        CourseIndex index = CourseIndex.of(Arrays.asList(
+                section(1, "General", module(10, content("a.pdf", 100))),
+                section(2, "Week 1", module(20, content("b.pdf", 200)))));
+        List<CourseSection> incoming = Collections.singletonList(section(1, "General"));
+
+        CourseChangeset partial = CourseChangeset.diff(index, incoming, false);
+        assertTrue(partial.getRemovedSectionIds().isEmpty());
+        assertTrue(partial.getRemovedModuleIds().isEmpty());
+        assertTrue(partial.getRemovedContents().isEmpty());
+
+        CourseChangeset complete = CourseChangeset.diff(index, incoming, true);
+        assertEquals(set(2), complete.getRemovedSectionIds());
+        assertEquals(set(10, 20), complete.getRemovedModuleIds());
+        assertEquals(2, complete.getRemovedContents().size());
+    }
+
+    @Test
+    public void renamedOrResummarisedSection_isModified() {
+        CourseIndex index = CourseIndex.of(Arrays.asList(
+                section(1, "General"), section(2, "Week 1"), section(3, "Week 2")));
+        CourseSection resummarised = section(3, "Week 2");
+        resummarised.setSummary("<p>Quiz on Friday</p>");
+        List<CourseSection> incoming = Arrays.asList(
+                section(1, "General"), section(2, "Week 1 &amp; 2"), resummarised);
+
+        CourseChangeset changeset = CourseChangeset.diff(index, incoming, true);
+
+        assertEquals(set(2, 3), changeset.getModifiedSectionIds());
+        assertTrue(changeset.getAddedSectionIds().isEmpty());
+        assertFalse(changeset.hasNewContent());
+    }
+
+    @Test
+    public void isUnread_onlyForChangedModulesOfExistingSections() {
+        Module read = module(10, content("a.pdf", 100));
+        Module unread = module(11);
+        unread.setUnread(true);
+        CourseIndex index = CourseIndex.of(Collections.singletonList(section(1, "General", read, unread)));
+        CourseSection existing = section(1, "General",
+                module(10, content("a.pdf", 100)), module(11), module(12), module(13, content("c.pdf", 1)));
+        CourseSection added = section(2, "Week 1", module(20));
+        CourseChangeset changeset = CourseChangeset.diff(index, Arrays.asList(existing, added), true);
+
+        assertFalse(changeset.isUnread(existing.getModules().get(0), existing));
+        assertTrue(changeset.isUnread(existing.getModules().get(1), existing));
+        assertTrue(changeset.isUnread(existing.getModules().get(2), existing));
+        assertTrue(changeset.isUnread(existing.getModules().get(3), existing));
+        assertFalse(changeset.isUnread(added.getModules().get(0), added));
+    }
+
+    private static CourseSection section(int id, String name, Module... modules) {
+        CourseSection section = new CourseSection();
+        section.setId(id);
+        section.setName(name);
+        section.setModules(new RealmList<>(modules));
+        return section;
+    }
+
+    private static Module module(int id, Content... contents) {
+        Module module = new Module();
+        module.setId(id);
+        module.setContents(new RealmList<>(contents));
+        return module;
+    }
+
+    private static Content content(String fileName, long timeModified) {
+        return new Content(fileName, "https://cms.bits-hyderabad.ac.in/" + fileName, 1, timeModified,
+                timeModified, 0);
+    }
+
+    private static HashSet<Integer> set(Integer... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
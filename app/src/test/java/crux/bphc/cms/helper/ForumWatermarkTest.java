@@ -0,0 +1,117 @@
+package crux.bphc.cms.helper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import crux.bphc.cms.models.forum.Discussion;
+
+import static crux.bphc.cms.helper.CourseRequestHandler.DISCUSSIONS_PAGE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ForumWatermarkTest {
+
+    private static final int WATERMARK = 1000;
+
+    @Test
+    public void shortFirstPage_fetchesNoMorePages() throws Exception {
+        List<Discussion> firstPage = Arrays.asList(discussion(1, 1500, false), discussion(2, 1200, false));
+
+        List<Discussion> discussions = CourseRequestHandler.collectDiscussionsSince(firstPage, WATERMARK,
+                page -> {
+                    fail("Fetched page " + page);
+                    return Collections.emptyList();
+                });
+
+        assertEquals(ids(1, 2), ids(discussions));
+    }
+
+    @Test
+    public void olderDiscussion_stopsPaging() throws Exception {
+        List<Discussion> firstPage = page(1, 2000, DISCUSSIONS_PAGE_SIZE);
+        List<Integer> fetched = new ArrayList<>();
+
+        List<Discussion> discussions = CourseRequestHandler.collectDiscussionsSince(firstPage, WATERMARK,
+                page -> {
+                    fetched.add(page);
+                    // Half of the second page is older than the watermark
+                    return page(100, WATERMARK + DISCUSSIONS_PAGE_SIZE / 2, DISCUSSIONS_PAGE_SIZE);
+                });
+
+        assertEquals(Collections.singletonList(1), fetched);
+        assertEquals(DISCUSSIONS_PAGE_SIZE + DISCUSSIONS_PAGE_SIZE / 2, discussions.size());
+        for (Discussion discussion : discussions) {
+            assertTrue(discussion.getTimeModified() >= WATERMARK);
+        }
+    }
+
+    @Test
+    public void olderPinnedDiscussion_doesNotStopPaging() throws Exception {
+        List<Discussion> firstPage = new ArrayList<>();
+        firstPage.add(discussion(1, 10, true));
+        firstPage.addAll(page(2, 2000, DISCUSSIONS_PAGE_SIZE - 1));
+        List<Integer> fetched = new ArrayList<>();
+
+        List<Discussion> discussions = CourseRequestHandler.collectDiscussionsSince(firstPage, WATERMARK,
+                page -> {
+                    fetched.add(page);
+                    return Collections.singletonList(discussion(100, 1100, false));
+                });
+
+        assertEquals(Collections.singletonList(1), fetched);
+        assertEquals(DISCUSSIONS_PAGE_SIZE, discussions.size());
+    }
+
+    @Test
+    public void fullPagesNewerThanWatermark_fetchUntilShortPage() throws Exception {
+        List<Discussion> firstPage = page(1, 5000, DISCUSSIONS_PAGE_SIZE);
+        List<Integer> fetched = new ArrayList<>();
+
+        List<Discussion> discussions = CourseRequestHandler.collectDiscussionsSince(firstPage, WATERMARK,
+                page -> {
+                    fetched.add(page);
+                    int size = page < 3 ? DISCUSSIONS_PAGE_SIZE : 3;
+                    return page(page * 100, 4000 - page * 100, size);
+                });
+
+        assertEquals(Arrays.asList(1, 2, 3), fetched);
+        assertEquals(3 * DISCUSSIONS_PAGE_SIZE + 3, discussions.size());
+    }
+
+    /**
+     * A page of discussions newest first, starting from <code>newest</code>
+     * and one second apart
+     */
+    private static List<Discussion> page(int firstId, int newest, int size) {
+        List<Discussion> page = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            page.add(discussion(firstId + i, newest - i, false));
+        }
+        return page;
+    }
+
+    private static Discussion discussion(int id, int timeModified, boolean pinned) {
+        Discussion discussion = new Discussion();
+        discussion.setId(id);
+        discussion.setTimeModified(timeModified);
+        discussion.setPinned(pinned);
+        return discussion;
+    }
+
+    private static List<Integer> ids(int... ids) {
+        List<Integer> list = new ArrayList<>();
+        for (int id : ids) list.add(id);
+        return list;
+    }
+
+    private static List<Integer> ids(List<Discussion> discussions) {
+        List<Integer> list = new ArrayList<>();
+        for (Discussion discussion : discussions) list.add(discussion.getId());
+        return list;
+    }
+}
@@ -0,0 +1,108 @@
+package crux.bphc.cms.helper
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.supervisorScope
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+
+class SingleFlightTest {
+
+    private var now = 0L
+    private val flight = SingleFlight<Int, String>(FRESHNESS_WINDOW) { now }
+    private val fetched = mutableListOf<List<Int>>()
+
+    private suspend fun fetch(keys: Collection<Int>, force: Boolean = false, skip: Set<Int> = emptySet(),
+                              gate: CompletableDeferred<Unit>? = null): Map<Int, String> {
+        return flight.fetch(keys, force) { owned ->
+            fetched.add(owned)
+            gate?.await()
+            (owned - skip).associateWith { "value $it" }
+        }
+    }
+
+    @Test
+    fun concurrentCallers_shareFetchInFlight() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val first = async(start = CoroutineStart.UNDISPATCHED) { fetch(listOf(1, 2), gate = gate) }
+        val second = async(start = CoroutineStart.UNDISPATCHED) { fetch(listOf(2, 3)) }
+        gate.complete(Unit)
+
+        assertEquals(mapOf(1 to "value 1", 2 to "value 2"), first.await())
+        assertEquals(mapOf(2 to "value 2", 3 to "value 3"), second.await())
+        assertEquals(listOf(listOf(1, 2), listOf(3)), fetched)
+    }
+
+    @Test
+    fun freshKeys_areSkippedUntilWindowPasses() = runBlocking {
+        fetch(listOf(1))
+        now += FRESHNESS_WINDOW - 1
+        assertTrue(fetch(listOf(1)).isEmpty())
+
+        now += 1
+        assertEquals(mapOf(1 to "value 1"), fetch(listOf(1)))
+        assertEquals(listOf(listOf(1), listOf(1)), fetched)
+    }
+
+    @Test
+    fun keysWithoutResults_areNotFresh() = runBlocking {
+        assertEquals(mapOf(1 to "value 1"), fetch(listOf(1, 2), skip = setOf(2)))
+        fetch(listOf(1, 2))
+
+        assertEquals(listOf(listOf(1, 2), listOf(2)), fetched)
+    }
+
+    @Test
+    fun force_fetchesFreshKeys() = runBlocking {
+        fetch(listOf(1))
+        assertEquals(mapOf(1 to "value 1"), fetch(listOf(1), force = true))
+
+        assertEquals(listOf(listOf(1), listOf(1)), fetched)
+    }
+
+    @Test
+    fun failure_isThrownToWaitingCallers_andKeysStayStale() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        // Keep the failing callers from cancelling the test
+        supervisorScope {
+            val first = async(start = CoroutineStart.UNDISPATCHED) {
+                flight.fetch(listOf(1)) {
+                    gate.await()
+                    throw IOException("offline")
+                }
+            }
+            val second = async(start = CoroutineStart.UNDISPATCHED) { fetch(listOf(1)) }
+            gate.complete(Unit)
+
+            for (caller in listOf(first, second)) {
+                try {
+                    caller.await()
+                    fail("Expected the fetch to fail")
+                } catch (e: IOException) {
+                    assertEquals("offline", e.message)
+                }
+            }
+        }
+        assertEquals(mapOf(1 to "value 1"), fetch(listOf(1)))
+    }
+
+    @Test
+    fun cancelledOwner_letsWaitingCallersFetch() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val first = async(start = CoroutineStart.UNDISPATCHED) { fetch(listOf(1), gate = gate) }
+        val second = async(start = CoroutineStart.UNDISPATCHED) { fetch(listOf(1)) }
+        first.cancel()
+
+        assertEquals(mapOf(1 to "value 1"), second.await())
+        assertEquals(listOf(listOf(1), listOf(1)), fetched)
+    }
+
+    companion object {
+        private const val FRESHNESS_WINDOW = 30 * 1000L
+    }
+}
@@ -0,0 +1,83 @@
+package crux.bphc.cms.helper
+
+import crux.bphc.cms.helper.SyncScheduler.Priority
+import crux.bphc.cms.helper.SyncScheduler.QueueOrder
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SyncSchedulerTest {
+
+    @Test
+    fun failure_halvesConcurrency() {
+        assertEquals(2, SyncScheduler.nextConcurrency(4, 4, FAST, queued = 3, failed = true))
+        assertEquals(1, SyncScheduler.nextConcurrency(1, 4, FAST, queued = 3, failed = true))
+    }
+
+    @Test
+    fun slowJobs_lowerConcurrencyByOne() {
+        assertEquals(2, SyncScheduler.nextConcurrency(3, 4, SLOW, queued = 3, failed = false))
+        assertEquals(1, SyncScheduler.nextConcurrency(1, 4, SLOW, queued = 3, failed = false))
+    }
+
+    @Test
+    fun fastJobs_raiseConcurrencyOnlyWhileJobsAreQueued() {
+        assertEquals(3, SyncScheduler.nextConcurrency(2, 4, FAST, queued = 1, failed = false))
+        assertEquals(2, SyncScheduler.nextConcurrency(2, 4, FAST, queued = 0, failed = false))
+        assertEquals(4, SyncScheduler.nextConcurrency(4, 4, FAST, queued = 1, failed = false))
+    }
+
+    @Test
+    fun moderateJobs_keepConcurrency() {
+        assertEquals(2, SyncScheduler.nextConcurrency(2, 4, MODERATE, queued = 3, failed = false))
+    }
+
+    @Test
+    fun averageLatency_startsAtFirstJobThenWeighsRecentJobs() {
+        assertEquals(1000.0, SyncScheduler.nextAverageLatency(0.0, 1000.0), DELTA)
+        assertEquals(1600.0, SyncScheduler.nextAverageLatency(1000.0, 3000.0), DELTA)
+    }
+
+    @Test
+    fun averageLatency_slowJobsLowerConcurrencyOnlyOnceTheAverageIsSlow() {
+        var average = SyncScheduler.nextAverageLatency(0.0, MODERATE)
+        average = SyncScheduler.nextAverageLatency(average, 8000.0)
+        assertEquals(2, SyncScheduler.nextConcurrency(2, 4, average, queued = 0, failed = false))
+        average = SyncScheduler.nextAverageLatency(average, 8000.0)
+        assertEquals(1, SyncScheduler.nextConcurrency(2, 4, average, queued = 0, failed = false))
+    }
+
+    @Test
+    fun laneOf_visibleThenFavoritesThenRest() {
+        val favorites = setOf(2, 3)
+        assertEquals(Priority.VISIBLE, SyncScheduler.laneOf(3, 3, favorites))
+        assertEquals(Priority.FAVORITE, SyncScheduler.laneOf(2, 3, favorites))
+        assertEquals(Priority.DEFAULT, SyncScheduler.laneOf(4, 3, favorites))
+        assertEquals(Priority.DEFAULT, SyncScheduler.laneOf(4, 0, emptySet()))
+    }
+
+    @Test
+    fun queueOrder_byLaneThenSubmission() {
+        val queued = listOf(
+            QueueOrder(Priority.DEFAULT, 0),
+            QueueOrder(Priority.FAVORITE, 1),
+            QueueOrder(Priority.VISIBLE, 4),
+            QueueOrder(Priority.FAVORITE, 2),
+            QueueOrder(Priority.VISIBLE, 3),
+        )
+        val expected = listOf(
+            QueueOrder(Priority.VISIBLE, 3),
+            QueueOrder(Priority.VISIBLE, 4),
+            QueueOrder(Priority.FAVORITE, 1),
+            QueueOrder(Priority.FAVORITE, 2),
+            QueueOrder(Priority.DEFAULT, 0),
+        )
+        assertEquals(expected, queued.sorted())
+    }
+
+    companion object {
+        private const val FAST = 500.0
+        private const val MODERATE = 2000.0
+        private const val SLOW = 6000.0
+        private const val DELTA = 1e-9
+    }
+}
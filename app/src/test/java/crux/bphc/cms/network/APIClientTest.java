@@ -0,0 +1,107 @@
+package crux.bphc.cms.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class APIClientTest {
+
+    private MockWebServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = APIClient.buildClient(null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        server.shutdown();
+    }
+
+    @Test
+    public void sequentialCalls_reuseConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("[]"));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            try (Response response = client.newCall(request()).execute()) {
+                assertEquals("[]", response.body().string());
+            }
+        }
+
+        // The sequence number counts the requests made on a connection
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, client.connectionPool().connectionCount());
+    }
+
+    @Test
+    public void concurrentCalls_areLimitedPerHost() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setBody("[]");
+            }
+        });
+
+        int calls = APIClient.MAX_REQUESTS_PER_HOST + 2;
+        CountDownLatch completed = new CountDownLatch(calls);
+        for (int i = 0; i < calls; i++) {
+            client.newCall(request()).enqueue(new Callback() {
+                @Override
+                public void onResponse(okhttp3.Call call, Response response) {
+                    response.close();
+                    completed.countDown();
+                }
+
+                @Override
+                public void onFailure(okhttp3.Call call, IOException e) {
+                    completed.countDown();
+                }
+            });
+        }
+
+        for (int i = 0; i < APIClient.MAX_REQUESTS_PER_HOST; i++) {
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        }
+        assertNull(server.takeRequest(500, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        for (int i = APIClient.MAX_REQUESTS_PER_HOST; i < calls; i++) {
+            assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        }
+        completed.await(5, TimeUnit.SECONDS);
+    }
+
+    private Request request() {
+        return new Request.Builder()
+                .url(server.url("/webservice/rest/server.php?wsfunction=core_enrol_get_users_courses"))
+                .build();
+    }
+}
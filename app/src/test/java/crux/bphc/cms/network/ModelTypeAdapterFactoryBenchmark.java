@@ -0,0 +1,137 @@
+package crux.bphc.cms.network;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import crux.bphc.cms.models.course.CourseSection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time and memory taken to decode a large
+ * <code>core_course_get_contents</code> response with Gson's reflection
+ * based adapters and with {@link ModelTypeAdapterFactory}. The response is
+ * the recorded fixture, with its sections repeated until it is about as
+ * large as that of a heavy course.
+ * <p>
+ * The numbers are printed rather than asserted on, since they depend on the
+ * machine the tests run on.
+ */
+public class ModelTypeAdapterFactoryBenchmark {
+
+    /**
+     * Number of times the fixture's sections are repeated
+     */
+    private static final int COPIES = 100;
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 50;
+
+    private static String payload;
+    private static int sectionCount;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        JsonArray fixture;
+        try (Reader reader = openFixture()) {
+            fixture = new JsonParser().parse(reader).getAsJsonArray();
+        }
+        JsonArray sections = new JsonArray();
+        for (int i = 0; i < COPIES; i++) {
+            for (JsonElement section : fixture) {
+                sections.add(section);
+            }
+        }
+        payload = sections.toString();
+        sectionCount = sections.size();
+    }
+
+    @Test
+    public void courseContents_decode() {
+        Gson reflective = new Gson();
+        Gson generated = new GsonBuilder()
+                .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                .create();
+
+        Result reflection = measure(reflective);
+        Result factory = measure(generated);
+
+        System.out.println(String.format(Locale.ROOT,
+                "core_course_get_contents, %d KiB, %d sections", payload.length() / 1024, sectionCount));
+        System.out.println("  reflection: " + reflection);
+        System.out.println("  factory:    " + factory);
+    }
+
+    private static Result measure(Gson gson) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decode(gson);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = getAllocatedBytes(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decode(gson);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes(threads);
+
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1
+                : (allocatedAfter - allocatedBefore) / ITERATIONS;
+        return new Result(elapsed / ITERATIONS, allocated);
+    }
+
+    private static void decode(Gson gson) {
+        CourseSection[] sections = gson.fromJson(new StringReader(payload), CourseSection[].class);
+        assertEquals(sectionCount, sections.length);
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, or -1 if the JVM can't
+     * tell
+     */
+    private static long getAllocatedBytes(ThreadMXBean threads) {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) return -1;
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static Reader openFixture() {
+        InputStream stream = ModelTypeAdapterFactoryBenchmark.class.getClassLoader()
+                .getResourceAsStream("core_course_get_contents.json");
+        return new InputStreamReader(stream, StandardCharsets.UTF_8);
+    }
+
+    private static class Result {
+        final long nanosPerDecode;
+        final long bytesPerDecode;
+
+        Result(long nanosPerDecode, long bytesPerDecode) {
+            this.nanosPerDecode = nanosPerDecode;
+            this.bytesPerDecode = bytesPerDecode;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.2f ms, %s per decode", nanosPerDecode / 1e6,
+                    bytesPerDecode < 0 ? "? KiB" : bytesPerDecode / 1024 + " KiB");
+        }
+    }
+}
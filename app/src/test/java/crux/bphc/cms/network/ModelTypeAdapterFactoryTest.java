@@ -0,0 +1,83 @@
+package crux.bphc.cms.network;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import crux.bphc.cms.models.course.CourseSection;
+import crux.bphc.cms.models.course.Module;
+import crux.bphc.cms.models.forum.Discussion;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the adapters of {@link ModelTypeAdapterFactory} decode the same
+ * models as Gson's reflection based adapter. The models only compare their
+ * ids, so they are compared through the JSON the reflection based adapter
+ * writes for them.
+ */
+public class ModelTypeAdapterFactoryTest {
+
+    private final Gson reflective = new Gson();
+    private final Gson generated = new GsonBuilder()
+            .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+            .create();
+
+    @Test
+    public void courseContents_decodeLikeReflection() throws IOException {
+        CourseSection[] expected;
+        try (Reader reader = openFixture("core_course_get_contents.json")) {
+            expected = reflective.fromJson(reader, CourseSection[].class);
+        }
+        CourseSection[] actual;
+        try (Reader reader = openFixture("core_course_get_contents.json")) {
+            actual = generated.fromJson(reader, CourseSection[].class);
+        }
+
+        assertEquals(3, expected.length);
+        assertEquals(reflective.toJsonTree(expected), reflective.toJsonTree(actual));
+    }
+
+    @Test
+    public void courseContents_encodeLikeReflection() throws IOException {
+        CourseSection[] sections;
+        try (Reader reader = openFixture("core_course_get_contents.json")) {
+            sections = generated.fromJson(reader, CourseSection[].class);
+        }
+
+        assertEquals(reflective.toJson(sections), generated.toJson(sections));
+    }
+
+    @Test
+    public void discussion_stringBooleanDecodesLikeReflection() {
+        String json = "{\"id\":12,\"discussion\":7,\"name\":\"Quiz 1\",\"timemodified\":1691051100,"
+                + "\"parent\":0,\"subject\":\"Quiz 1\",\"message\":\"<p>On <b>Friday</b></p>\","
+                + "\"attachments\":[],\"userfullname\":\"Instructor\",\"userpictureurl\":\"\","
+                + "\"pinned\":\"true\",\"unknown\":{\"nested\":[1,2]}}";
+
+        Discussion expected = reflective.fromJson(json, Discussion.class);
+        Discussion actual = generated.fromJson(json, Discussion.class);
+
+        assertEquals(reflective.toJsonTree(expected), reflective.toJsonTree(actual));
+    }
+
+    @Test
+    public void nullValue_keepsDefault() {
+        Module module = generated.fromJson("{\"id\":1,\"name\":null,\"description\":null}", Module.class);
+
+        assertEquals("", module.getName());
+        assertEquals("", module.getDescription());
+    }
+
+    private Reader openFixture(String name) {
+        InputStream stream = getClass().getClassLoader().getResourceAsStream(name);
+        return new InputStreamReader(stream, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,96 @@
+package crux.bphc.cms.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import crux.bphc.cms.network.NetworkMetrics.CallTiming;
+import crux.bphc.cms.network.NetworkMetrics.Percentiles;
+import crux.bphc.cms.network.NetworkMetrics.Summary;
+
+import static org.junit.Assert.assertEquals;
+
+public class NetworkMetricsTest {
+
+    @After
+    public void tearDown() {
+        NetworkMetrics.clear();
+    }
+
+    @Test
+    public void percentiles_useNearestRank() {
+        long[] values = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 100 - i; // Unsorted, 1 to 100
+        }
+
+        Percentiles percentiles = new Percentiles(values);
+
+        assertEquals(50, percentiles.p50);
+        assertEquals(95, percentiles.p95);
+    }
+
+    @Test
+    public void percentiles_ofFewValues() {
+        Percentiles one = new Percentiles(new long[]{7});
+        assertEquals(7, one.p50);
+        assertEquals(7, one.p95);
+
+        Percentiles two = new Percentiles(new long[]{30, 10});
+        assertEquals(10, two.p50);
+        assertEquals(30, two.p95);
+
+        Percentiles five = new Percentiles(new long[]{5, 1, 4, 2, 3});
+        assertEquals(3, five.p50);
+        assertEquals(5, five.p95);
+    }
+
+    @Test
+    public void percentiles_ofNoValues_areZero() {
+        Percentiles percentiles = new Percentiles(new long[0]);
+
+        assertEquals(0, percentiles.p50);
+        assertEquals(0, percentiles.p95);
+    }
+
+    @Test
+    public void summaries_areGroupedByFunction_slowestFirst() {
+        for (int i = 1; i <= 10; i++) {
+            NetworkMetrics.record(timing("core_course_get_contents", i * 100, false));
+            NetworkMetrics.record(timing("core_enrol_get_users_courses", i * 10, i == 10));
+        }
+
+        List<Summary> summaries = NetworkMetrics.getSummaries();
+
+        assertEquals(2, summaries.size());
+        Summary contents = summaries.get(0);
+        assertEquals("core_course_get_contents", contents.function);
+        assertEquals(10, contents.calls);
+        assertEquals(0, contents.failures);
+        assertEquals(500, contents.duration.p50);
+        assertEquals(1000, contents.duration.p95);
+
+        Summary courses = summaries.get(1);
+        assertEquals("core_enrol_get_users_courses", courses.function);
+        assertEquals(1, courses.failures);
+        assertEquals(50, courses.duration.p50);
+    }
+
+    @Test
+    public void oldestCalls_areDropped() {
+        for (int i = 0; i < 600; i++) {
+            NetworkMetrics.record(timing(i < 100 ? "old" : "new", 1, false));
+        }
+
+        List<Summary> summaries = NetworkMetrics.getSummaries();
+
+        assertEquals(1, summaries.size());
+        assertEquals("new", summaries.get(0).function);
+        assertEquals(500, summaries.get(0).calls);
+    }
+
+    private static CallTiming timing(String function, long duration, boolean failed) {
+        return new CallTiming(function, 0, 0, 0, duration / 2, duration, 1024, failed);
+    }
+}